@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2015 mkleint
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tropyx.nb_puppet;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import org.openide.util.RequestProcessor;
+
+/**
+ * one small thread pool for the background work of all open puppet editors and views.
+ * Work is keyed by an owner (document, panel) and a kind, a request for a key that is still waiting
+ * replaces the waiting one and restarts the delay, so bursts of events run once with the latest request.
+ * @author mkleint
+ */
+public final class EditorTasks {
+
+    public static final String LINT = "lint"; //NOI18N
+    public static final String NAVIGATOR = "navigator"; //NOI18N
+
+    private static final RequestProcessor RP = new RequestProcessor(EditorTasks.class.getName(), 2, true);
+
+    //owners are weak, a closed document doesn't stay around because of a finished task
+    private static final Map<Object, Map<String, Entry>> entries = new WeakHashMap<>();
+
+    private EditorTasks() {
+    }
+
+    /**
+     * runs the work after the delay, unless another request for the same owner and kind comes first
+     * @param owner identity of the requester, held weakly
+     * @param kind
+     * @param delay in milliseconds
+     * @param work
+     */
+    public static void schedule(Object owner, String kind, int delay, Runnable work) {
+        Entry entry;
+        synchronized (entries) {
+            Map<String, Entry> kinds = entries.get(owner);
+            if (kinds == null) {
+                kinds = new HashMap<>();
+                entries.put(owner, kinds);
+            }
+            entry = kinds.get(kind);
+            if (entry == null) {
+                entry = new Entry();
+                kinds.put(kind, entry);
+            }
+        }
+        //the previous request, if not started yet, is stale now
+        entry.pending.set(work);
+        entry.task.schedule(delay);
+    }
+
+    private static final class Entry implements Runnable {
+        private final AtomicReference<Runnable> pending = new AtomicReference<>();
+        private final RequestProcessor.Task task = RP.create(this);
+
+        @Override
+        public void run() {
+            Runnable work = pending.getAndSet(null);
+            if (work != null) {
+                work.run();
+            }
+        }
+    }
+}
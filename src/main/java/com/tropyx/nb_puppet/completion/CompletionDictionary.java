@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2015 mkleint
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tropyx.nb_puppet.completion;
+
+import com.tropyx.nb_puppet.indexer.BuiltinTypes;
+import com.tropyx.nb_puppet.indexer.PPIndexer;
+import com.tropyx.nb_puppet.indexer.PPIndexerFactory;
+import com.tropyx.nb_puppet.lexer.PTokenId;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import org.netbeans.modules.parsing.spi.indexing.support.IndexResult;
+import org.netbeans.modules.parsing.spi.indexing.support.QuerySupport;
+import org.openide.filesystems.FileObject;
+
+/**
+ * immutable, sorted set of completion candidates with prefix, segment and fuzzy matching.
+ * Prefix matches are a binary search in the lowercase name array, segment (<code>ap::mo</code> for
+ * <code>apache::mod</code>, <code>cr</code> for <code>create_resources</code>) and
+ * fuzzy (subsequence) matches scan the array, but only when the prefix matches don't fill the limit.
+ * @author mkleint
+ */
+final class CompletionDictionary {
+    enum Kind {
+        FUNCTION, RESOURCE, FACT, CLASS
+    }
+
+    /**
+     * penalty added to the item sort priority, by match quality
+     */
+    static final int EXACT_PREFIX = 0;
+    static final int PREFIX = 1;
+    static final int SEGMENTS = 3;
+    static final int FUZZY = 6;
+
+    private static CompletionDictionary builtins;
+    private static long factsStamp = -1;
+    private static CompletionDictionary classes;
+    private static List<URL> classRoots;
+    private static long classStamp = -1;
+
+    private final String[] names;
+    private final String[] lowerNames;
+    private final Kind[] kinds;
+
+    private CompletionDictionary(TreeMap<String, EnumSet<Kind>> entries) {
+        int size = 0;
+        for (EnumSet<Kind> k : entries.values()) {
+            size += k.size();
+        }
+        names = new String[size];
+        lowerNames = new String[size];
+        kinds = new Kind[size];
+        int i = 0;
+        //sorted by lowercase name, see newEntries(), a name of several kinds (file type and file function)
+        //has one entry per kind
+        for (Map.Entry<String, EnumSet<Kind>> e : entries.entrySet()) {
+            for (Kind kind : e.getValue()) {
+                names[i] = e.getKey();
+                lowerNames[i] = e.getKey().toLowerCase(Locale.ENGLISH);
+                kinds[i] = kind;
+                i++;
+            }
+        }
+    }
+
+    private static void put(TreeMap<String, EnumSet<Kind>> entries, String name, Kind kind) {
+        EnumSet<Kind> k = entries.get(name);
+        if (k == null) {
+            k = EnumSet.noneOf(Kind.class);
+            entries.put(name, k);
+        }
+        k.add(kind);
+    }
+
+    private static TreeMap<String, EnumSet<Kind>> newEntries() {
+        return new TreeMap<>(new Comparator<String>() {
+            @Override
+            public int compare(String o1, String o2) {
+                int res = o1.toLowerCase(Locale.ENGLISH).compareTo(o2.toLowerCase(Locale.ENGLISH));
+                return res != 0 ? res : o1.compareTo(o2);
+            }
+        });
+    }
+
+    /**
+     * functions, builtin resource types and facts, rebuilt only when the facts change
+     * @return
+     */
+    static synchronized CompletionDictionary getBuiltins() {
+        long stamp = FactCatalog.getDefault().getStamp();
+        if (builtins == null || stamp != factsStamp) {
+            TreeMap<String, EnumSet<Kind>> entries = newEntries();
+            for (PTokenId token : PTokenId.values()) {
+                if (PTokenId.Category.FUNCTION.equals(token.primaryCategory())) {
+                    put(entries, token.name().toLowerCase(Locale.ENGLISH), Kind.FUNCTION);
+                }
+            }
+            for (String f : BuiltInFunctions.get()) {
+                put(entries, f, Kind.FUNCTION);
+            }
+            for (BuiltinTypes.Type t : BuiltinTypes.getDefault().getTypes()) {
+                put(entries, t.getName(), Kind.RESOURCE);
+            }
+            for (String fact : FactCatalog.getDefault().getNames()) {
+                put(entries, fact, Kind.FACT);
+            }
+            builtins = new CompletionDictionary(entries);
+            factsStamp = stamp;
+        }
+        return builtins;
+    }
+
+    /**
+     * the indexed classes under the given roots, rebuilt when the index changes
+     * @param roots
+     * @return
+     */
+    static CompletionDictionary getClasses(FileObject[] roots) throws IOException {
+        List<URL> rootUrls = new ArrayList<>();
+        for (FileObject root : roots) {
+            rootUrls.add(root.toURL());
+        }
+        long stamp = PPIndexerFactory.getIndexStamp();
+        synchronized (CompletionDictionary.class) {
+            if (classes != null && classStamp == stamp && rootUrls.equals(classRoots)) {
+                return classes;
+            }
+        }
+        TreeMap<String, EnumSet<Kind>> entries = newEntries();
+        QuerySupport qs = QuerySupport.forRoots(PPIndexerFactory.INDEXER_TYPE, PPIndexerFactory.INDEXER_VERSION, roots);
+        for (IndexResult res : qs.query(PPIndexer.FLD_CLASS, "", QuerySupport.Kind.PREFIX, PPIndexer.FLD_ROOT)) {
+            String name = res.getValue(PPIndexer.FLD_ROOT);
+            if (name != null) {
+                put(entries, name, Kind.CLASS);
+            }
+        }
+        CompletionDictionary dict = new CompletionDictionary(entries);
+        synchronized (CompletionDictionary.class) {
+            classes = dict;
+            classStamp = stamp;
+            classRoots = rootUrls;
+        }
+        return dict;
+    }
+
+    static final class Match {
+        private final String name;
+        private final Kind kind;
+        private final int penalty;
+        private final int score;
+
+        Match(String name, Kind kind, int penalty, int score) {
+            this.name = name;
+            this.kind = kind;
+            this.penalty = penalty;
+            this.score = score;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * @return to be added to the completion item's sort priority, 0 for exact prefix matches
+         */
+        int getPenalty() {
+            return penalty;
+        }
+    }
+
+    private static final Comparator<Match> BEST_FIRST = new Comparator<Match>() {
+        @Override
+        public int compare(Match o1, Match o2) {
+            if (o1.score != o2.score) {
+                return o1.score > o2.score ? -1 : 1;
+            }
+            return o1.name.compareTo(o2.name);
+        }
+    };
+
+    /**
+     * @param query what the user typed, can be empty
+     * @param limit max number of results
+     * @param accepted kinds to include
+     * @return best matches first
+     */
+    List<Match> find(String query, int limit, EnumSet<Kind> accepted) {
+        String lowerQuery = query.toLowerCase(Locale.ENGLISH);
+        //worst of the best kept on top, so it's the one dropped
+        PriorityQueue<Match> top = new PriorityQueue<>(limit + 1, Collections.reverseOrder(BEST_FIRST));
+        int start = lowerBound(lowerQuery);
+        int end = start;
+        while (end < lowerNames.length && lowerNames[end].startsWith(lowerQuery)) {
+            if (accepted.contains(kinds[end])) {
+                boolean exact = names[end].startsWith(query);
+                //shorter names first
+                int score = 3000 + (exact ? 500 : 0) - names[end].length();
+                offer(top, new Match(names[end], kinds[end], exact ? EXACT_PREFIX : PREFIX, score), limit);
+            }
+            end++;
+        }
+        if (top.size() < limit && !lowerQuery.isEmpty()) {
+            for (int i = 0; i < lowerNames.length; i++) {
+                if (i == start && end > start) {
+                    //prefix matches already in
+                    i = end - 1;
+                    continue;
+                }
+                if (!accepted.contains(kinds[i])) {
+                    continue;
+                }
+                int score = segmentScore(lowerQuery, lowerNames[i]);
+                if (score > 0) {
+                    offer(top, new Match(names[i], kinds[i], SEGMENTS, 2000 + score - names[i].length()), limit);
+                    continue;
+                }
+                score = fuzzyScore(lowerQuery, lowerNames[i]);
+                if (score > 0) {
+                    offer(top, new Match(names[i], kinds[i], FUZZY, score - names[i].length()), limit);
+                }
+            }
+        }
+        Match[] toRet = top.toArray(new Match[0]);
+        Arrays.sort(toRet, BEST_FIRST);
+        return Arrays.asList(toRet);
+    }
+
+    private static void offer(PriorityQueue<Match> top, Match m, int limit) {
+        top.add(m);
+        if (top.size() > limit) {
+            top.poll();
+        }
+    }
+
+    private int lowerBound(String key) {
+        int index = Arrays.binarySearch(lowerNames, key);
+        if (index < 0) {
+            return -index - 1;
+        }
+        //first of equal lowercase names
+        while (index > 0 && lowerNames[index - 1].equals(key)) {
+            index--;
+        }
+        return index;
+    }
+
+    /**
+     * every query segment (split on <code>::</code> and <code>_</code>) is a prefix of consecutive
+     * name segments, a segment of one char can also match several segment initials,
+     * eg. <code>ap::mo</code> or <code>cr</code> for <code>create_resources</code>
+     * @return 0 if no match, higher is better
+     */
+    static int segmentScore(String query, String name) {
+        List<String> nameSegments = PPIndexer.segments(name);
+        if (nameSegments.size() < 2) {
+            return 0;
+        }
+        List<String> querySegments = PPIndexer.segments(query);
+        if (querySegments.size() == 1) {
+            //initials, "cr" -> "create_resources"
+            String q = querySegments.get(0);
+            if (q.length() != nameSegments.size()) {
+                return 0;
+            }
+            for (int i = 0; i < q.length(); i++) {
+                if (nameSegments.get(i).isEmpty() || nameSegments.get(i).charAt(0) != q.charAt(i)) {
+                    return 0;
+                }
+            }
+            return 100;
+        }
+        int n = 0;
+        for (String qs : querySegments) {
+            while (n < nameSegments.size() && !nameSegments.get(n).startsWith(qs)) {
+                n++;
+            }
+            if (n == nameSegments.size()) {
+                return 0;
+            }
+            n++;
+        }
+        //fewer skipped segments is better
+        return 100 - (nameSegments.size() - querySegments.size()) * 10;
+    }
+
+    /**
+     * query chars appear in order in the name, consecutive runs and matches at segment starts score more
+     * @return 0 if no match, higher is better
+     */
+    static int fuzzyScore(String query, String name) {
+        if (query.charAt(0) != name.charAt(0)) {
+            //without this anchor the results are mostly noise
+            return 0;
+        }
+        int score = 0;
+        int run = 0;
+        int qi = 0;
+        for (int i = 0; i < name.length() && qi < query.length(); i++) {
+            if (name.charAt(i) == query.charAt(qi)) {
+                qi++;
+                run++;
+                score += 10 + run * 5;
+                if (i == 0 || name.charAt(i - 1) == '_' || name.charAt(i - 1) == ':') {
+                    score += 15;
+                }
+            } else {
+                run = 0;
+            }
+        }
+        return qi == query.length() ? score : 0;
+    }
+}
@@ -0,0 +1,496 @@
+/*
+ * Copyright (C) 2015 mkleint
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tropyx.nb_puppet.completion;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.openide.filesystems.FileAttributeEvent;
+import org.openide.filesystems.FileChangeListener;
+import org.openide.filesystems.FileEvent;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileRenameEvent;
+import org.openide.filesystems.FileUtil;
+
+/**
+ * facts known to the IDE: the ones from the "Puppet Variables" palette folder and
+ * the ones found in facter dumps (<code>facter -j</code> or <code>facter -y</code> output,
+ * puppet's cached node facts) in the usual facts folders.
+ * Loaded once, reloaded when the palette folder or one of the dump folders changes.
+ * @author mkleint
+ */
+public final class FactCatalog {
+    private static final Logger LOG = Logger.getLogger(FactCatalog.class.getName());
+
+    static final String PALETTE_FOLDER = "PuppetPalette/Puppet Variables"; //NOI18N
+    /**
+     * folders searched for facter dumps, the ones puppet and facter use themselves
+     * plus a place for dumps copied from real nodes
+     */
+    private static final List<File> DUMP_FOLDERS = Arrays.asList(
+            new File("/opt/puppetlabs/puppet/cache/facts.d"), //NOI18N
+            new File("/opt/puppetlabs/puppet/cache/yaml/facts"), //NOI18N
+            new File("/etc/puppetlabs/facter/facts.d"), //NOI18N
+            new File(System.getProperty("user.home"), ".facter/facts.d")); //NOI18N
+
+    private static final Pattern TOOLTIP = Pattern.compile("<tooltip><!\\[CDATA\\[(.*?)\\]\\]></tooltip>", Pattern.DOTALL); //NOI18N
+    private static final Pattern YAML_KEY = Pattern.compile("^(\\s*)([a-z][\\w]*):\\s*(.*)$"); //NOI18N
+
+    private static FactCatalog instance;
+
+    private final AtomicLong stamp = new AtomicLong();
+    private volatile Data data;
+
+    private final FileChangeListener listener = new FileChangeListener() {
+        @Override
+        public void fileFolderCreated(FileEvent fe) {
+            invalidate();
+        }
+
+        @Override
+        public void fileDataCreated(FileEvent fe) {
+            invalidate();
+        }
+
+        @Override
+        public void fileChanged(FileEvent fe) {
+            invalidate();
+        }
+
+        @Override
+        public void fileDeleted(FileEvent fe) {
+            invalidate();
+        }
+
+        @Override
+        public void fileRenamed(FileRenameEvent fe) {
+            invalidate();
+        }
+
+        @Override
+        public void fileAttributeChanged(FileAttributeEvent fe) {
+        }
+    };
+
+    private FactCatalog() {
+        FileObject palette = FileUtil.getConfigFile(PALETTE_FOLDER);
+        if (palette != null) {
+            palette.addFileChangeListener(FileUtil.weakFileChangeListener(listener, palette));
+        }
+        for (File dir : DUMP_FOLDERS) {
+            FileUtil.addFileChangeListener(listener, FileUtil.normalizeFile(dir));
+        }
+    }
+
+    public static synchronized FactCatalog getDefault() {
+        if (instance == null) {
+            instance = new FactCatalog();
+        }
+        return instance;
+    }
+
+    public static final class Fact {
+        private final String name;
+        private final String type;
+        private final String example;
+        private final String description;
+
+        Fact(String name, String type, String example, String description) {
+            this.name = name;
+            this.type = type;
+            this.example = example;
+            this.description = description;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return String, Integer, Boolean, Hash, Array or null if not known
+         */
+        public String getType() {
+            return type;
+        }
+
+        /**
+         * @return value from one of the facter dumps or null
+         */
+        public String getExample() {
+            return example;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    /**
+     * facts sorted by name and the names, same order
+     */
+    private static final class Data {
+        final Fact[] facts;
+        final String[] names;
+
+        Data(Fact[] facts, String[] names) {
+            this.facts = facts;
+            this.names = names;
+        }
+    }
+
+    private void invalidate() {
+        data = null;
+        stamp.incrementAndGet();
+    }
+
+    /**
+     * @return changes whenever the catalog is reloaded
+     */
+    public long getStamp() {
+        return stamp.get();
+    }
+
+    /**
+     * @return all facts sorted by name
+     */
+    public List<Fact> getFacts() {
+        return Collections.unmodifiableList(Arrays.asList(load().facts));
+    }
+
+    /**
+     * @return all fact names, sorted
+     */
+    public List<String> getNames() {
+        return Collections.unmodifiableList(Arrays.asList(load().names));
+    }
+
+    /**
+     * @param name
+     * @return fact of given name or null
+     */
+    public Fact getFact(String name) {
+        Data d = load();
+        int index = Arrays.binarySearch(d.names, name);
+        return index >= 0 ? d.facts[index] : null;
+    }
+
+    /**
+     * @param prefix
+     * @return facts whose name starts with prefix
+     */
+    public List<Fact> findByPrefix(String prefix) {
+        Data d = load();
+        int index = Arrays.binarySearch(d.names, prefix);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        List<Fact> toRet = new ArrayList<>();
+        while (index < d.names.length && d.names[index].startsWith(prefix)) {
+            toRet.add(d.facts[index]);
+            index++;
+        }
+        return toRet;
+    }
+
+    private Data load() {
+        Data d = data;
+        if (d != null) {
+            return d;
+        }
+        long current = stamp.get();
+        Map<String, Fact> all = new TreeMap<>();
+        FileObject palette = FileUtil.getConfigFile(PALETTE_FOLDER);
+        if (palette != null) {
+            for (FileObject ch : palette.getChildren()) {
+                all.put(ch.getName(), new Fact(ch.getName(), null, null, readTooltip(ch)));
+            }
+        }
+        for (File dir : DUMP_FOLDERS) {
+            File[] dumps = dir.listFiles();
+            if (dumps == null) {
+                continue;
+            }
+            Arrays.sort(dumps);
+            for (File dump : dumps) {
+                try {
+                    Map<String, String[]> values;
+                    String name = dump.getName();
+                    if (name.endsWith(".json")) { //NOI18N
+                        values = readJson(new String(Files.readAllBytes(dump.toPath()), StandardCharsets.UTF_8));
+                    } else if (name.endsWith(".yaml") || name.endsWith(".yml")) { //NOI18N
+                        values = readYaml(Files.readAllLines(dump.toPath(), StandardCharsets.UTF_8));
+                    } else {
+                        continue;
+                    }
+                    merge(all, values);
+                } catch (IOException | RuntimeException ex) {
+                    LOG.log(Level.FINE, "Cannot read facts from " + dump, ex);
+                }
+            }
+        }
+        d = new Data(all.values().toArray(new Fact[0]), all.keySet().toArray(new String[0]));
+        if (stamp.get() == current) {
+            //not invalidated while loading
+            data = d;
+        }
+        return d;
+    }
+
+    private static void merge(Map<String, Fact> all, Map<String, String[]> values) {
+        for (Map.Entry<String, String[]> e : values.entrySet()) {
+            Fact old = all.get(e.getKey());
+            if (old == null) {
+                all.put(e.getKey(), new Fact(e.getKey(), e.getValue()[0], e.getValue()[1], null));
+            } else if (old.getType() == null) {
+                //palette facts have description but no values
+                all.put(e.getKey(), new Fact(e.getKey(), e.getValue()[0], e.getValue()[1], old.getDescription()));
+            }
+        }
+    }
+
+    private static String readTooltip(FileObject paletteItem) {
+        try {
+            Matcher m = TOOLTIP.matcher(paletteItem.asText("UTF-8")); //NOI18N
+            if (m.find()) {
+                return m.group(1).trim();
+            }
+        } catch (IOException ex) {
+            LOG.log(Level.FINE, null, ex);
+        }
+        return null;
+    }
+
+    /**
+     * top level keys of a <code>facter -y</code> dump or the keys under <code>values:</code>
+     * of puppet's cached node facts
+     * @param lines
+     * @return fact name to type and example value
+     */
+    static Map<String, String[]> readYaml(List<String> lines) {
+        Map<String, String[]> toRet = new TreeMap<>();
+        String indent = "";
+        int start = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            if (lines.get(i).trim().equals("values:")) { //NOI18N
+                start = i + 1;
+                indent = null;
+                break;
+            }
+        }
+        for (int i = start; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (line.trim().isEmpty() || line.trim().startsWith("#") || line.startsWith("---")) { //NOI18N
+                continue;
+            }
+            Matcher m = YAML_KEY.matcher(line);
+            if (!m.matches()) {
+                continue;
+            }
+            if (indent == null) {
+                indent = m.group(1);
+            }
+            if (m.group(1).length() < indent.length()) {
+                //end of the values: block
+                break;
+            }
+            if (!m.group(1).equals(indent)) {
+                continue;
+            }
+            String value = m.group(3).trim();
+            String type;
+            if (value.isEmpty()) {
+                //nested block follows
+                boolean list = i + 1 < lines.size() && lines.get(i + 1).trim().startsWith("-"); //NOI18N
+                type = list ? "Array" : "Hash"; //NOI18N
+                value = null;
+            } else {
+                value = unquote(value);
+                type = typeOf(m.group(3).trim());
+            }
+            toRet.put(m.group(2), new String[] {type, value});
+        }
+        return toRet;
+    }
+
+    private static String unquote(String value) {
+        if (value.length() >= 2 && (value.startsWith("\"") && value.endsWith("\"") || value.startsWith("'") && value.endsWith("'"))) { //NOI18N
+            return value.substring(1, value.length() - 1);
+        }
+        return value;
+    }
+
+    private static String typeOf(String literal) {
+        if (literal.startsWith("\"") || literal.startsWith("'")) { //NOI18N
+            return "String"; //NOI18N
+        }
+        if ("true".equals(literal) || "false".equals(literal)) { //NOI18N
+            return "Boolean"; //NOI18N
+        }
+        if (literal.matches("-?\\d+")) { //NOI18N
+            return "Integer"; //NOI18N
+        }
+        if (literal.matches("-?\\d+\\.\\d+")) { //NOI18N
+            return "Float"; //NOI18N
+        }
+        if (literal.startsWith("{")) { //NOI18N
+            return "Hash"; //NOI18N
+        }
+        if (literal.startsWith("[")) { //NOI18N
+            return "Array"; //NOI18N
+        }
+        return "String"; //NOI18N
+    }
+
+    /**
+     * top level members of a <code>facter -j</code> dump, nested values are kept as their type only
+     * @param json
+     * @return fact name to type and example value
+     */
+    static Map<String, String[]> readJson(String json) {
+        Map<String, String[]> toRet = new TreeMap<>();
+        int[] pos = {skipWhitespace(json, 0)};
+        if (pos[0] >= json.length() || json.charAt(pos[0]) != '{') {
+            return toRet;
+        }
+        pos[0]++;
+        while (true) {
+            pos[0] = skipWhitespace(json, pos[0]);
+            if (pos[0] >= json.length() || json.charAt(pos[0]) == '}') {
+                break;
+            }
+            String key = readJsonString(json, pos);
+            pos[0] = skipWhitespace(json, pos[0]);
+            if (json.charAt(pos[0]) != ':') {
+                throw new IllegalArgumentException("Expected ':' at " + pos[0]); //NOI18N
+            }
+            pos[0] = skipWhitespace(json, pos[0] + 1);
+            char c = json.charAt(pos[0]);
+            String type;
+            String value;
+            if (c == '"') {
+                type = "String"; //NOI18N
+                value = readJsonString(json, pos);
+            } else if (c == '{' || c == '[') {
+                type = c == '{' ? "Hash" : "Array"; //NOI18N
+                value = null;
+                pos[0] = skipJsonValue(json, pos[0]);
+            } else {
+                int end = skipJsonValue(json, pos[0]);
+                value = json.substring(pos[0], end).trim();
+                type = typeOf(value);
+                pos[0] = end;
+            }
+            toRet.put(key, new String[] {type, value});
+            pos[0] = skipWhitespace(json, pos[0]);
+            if (pos[0] < json.length() && json.charAt(pos[0]) == ',') {
+                pos[0]++;
+            }
+        }
+        return toRet;
+    }
+
+    private static int skipWhitespace(String s, int pos) {
+        while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static String readJsonString(String s, int[] pos) {
+        StringBuilder sb = new StringBuilder();
+        int i = pos[0] + 1;
+        while (s.charAt(i) != '"') {
+            char c = s.charAt(i);
+            if (c == '\\') {
+                i++;
+                c = s.charAt(i);
+                switch (c) {
+                    case 'n': sb.append('\n'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'u': sb.append((char) Integer.parseInt(s.substring(i + 1, i + 5), 16)); i += 4; break;
+                    default: sb.append(c);
+                }
+            } else {
+                sb.append(c);
+            }
+            i++;
+        }
+        pos[0] = i + 1;
+        return sb.toString();
+    }
+
+    /**
+     * @return position right after the value starting at pos
+     */
+    private static int skipJsonValue(String s, int pos) {
+        int depth = 0;
+        boolean inString = false;
+        for (int i = pos; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (inString) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == '"') {
+                    inString = false;
+                    if (depth == 0) {
+                        return i + 1;
+                    }
+                }
+                continue;
+            }
+            switch (c) {
+                case '"':
+                    inString = true;
+                    break;
+                case '{':
+                case '[':
+                    depth++;
+                    break;
+                case '}':
+                case ']':
+                    if (depth == 0) {
+                        return i;
+                    }
+                    depth--;
+                    if (depth == 0) {
+                        return i + 1;
+                    }
+                    break;
+                case ',':
+                    if (depth == 0) {
+                        return i;
+                    }
+                    break;
+                default:
+            }
+        }
+        return s.length();
+    }
+}
@@ -18,6 +18,7 @@
 package com.tropyx.nb_puppet.completion;
 
 import com.tropyx.nb_puppet.PPConstants;
+import com.tropyx.nb_puppet.indexer.BuiltinTypes;
 import com.tropyx.nb_puppet.indexer.PPIndexer;
 import com.tropyx.nb_puppet.indexer.PPIndexerFactory;
 import com.tropyx.nb_puppet.lexer.PLangHierarchy;
@@ -30,9 +31,9 @@ import com.tropyx.nb_puppet.parser.PuppetParserResult;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Locale;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.Document;
 import javax.swing.text.JTextComponent;
@@ -57,203 +58,265 @@ import org.openide.util.Exceptions;
 
 @MimeRegistration(service = CompletionProvider.class, mimeType = PPConstants.MIME_TYPE)
 public class PCompletionProvider implements CompletionProvider {
+    /**
+     * max number of items per kind taken from {@link CompletionDictionary}
+     */
+    private static final int MAX_ITEMS = 100;
 
     @Override
     public CompletionTask createTask(final int queryType, JTextComponent component) {
         if (queryType != CompletionProvider.COMPLETION_QUERY_TYPE && queryType != CompletionProvider.COMPLETION_ALL_QUERY_TYPE) return null;
-        return new AsyncCompletionTask(new AsyncCompletionQuery() {
-            @Override
-            protected void query(final CompletionResultSet completionResultSet, final Document document, final int caretOffset) {
-                final boolean[] completeClasses = new boolean[1];
-                final boolean[] completeVariables = new boolean[1];
-                final boolean[] completeVariablesInString = new boolean[1];
-                final boolean[] completeFunctions = new boolean[1];
-                final boolean[] completeResources = new boolean[1];
-                final String[] prefix = new String[1];
-                
-//                runWithParserResult(document, new ParseResultRunnable() {
-//                    @Override
-//                    public void run(PElement rootNode) {
-//                        if (rootNode == null) {
-//                            return;
-//                        }
-//                        System.out.println("tn1:" + Thread.currentThread().getName());
-//                        System.out.println("path:" + rootNode.getChildAtOffset(caretOffset).toStringToRoot());
-//                    }
-//                });
-//                System.out.println("here");
-//                System.out.println("tn2:" + Thread.currentThread().getName());
+        return new AsyncCompletionTask(new PCompletionQuery(queryType), component);
+    }
 
-                document.render(new Runnable() {
+    /**
+     * runs in stages, cheapest first: local scope, cached index hits, facts.
+     * Every stage checks for cancellation, so a query superseded by further typing stops early
+     * instead of running the remaining index queries or a parse.
+     */
+    private class PCompletionQuery extends AsyncCompletionQuery {
+        private final int queryType;
 
-                    @Override
-                    public void run() {
-                        TokenSequence<PTokenId> ts = PLangHierarchy.getTokenSequence(document);
-                        ts.move(caretOffset);
-                        ts.moveNext();
-                        Token<PTokenId> token = ts.token();
-                        String pref = null;
-                        if (token != null) {
-                            if (token.id() == PTokenId.WHITESPACE) {
-                                if (ts.offset() == caretOffset) {
-                                    ts.movePrevious();
-                                    token = ts.token();
-                                } else {
-                                    pref = "";
-                                    completeFunctions[0] = true;
-                                    completeResources[0] = true;
-                                }
+        PCompletionQuery(int queryType) {
+            this.queryType = queryType;
+        }
+
+        @Override
+        protected void query(final CompletionResultSet completionResultSet, final Document document, final int caretOffset) {
+            final boolean[] completeClasses = new boolean[1];
+            final boolean[] completeVariables = new boolean[1];
+            final boolean[] completeVariablesInString = new boolean[1];
+            final boolean[] completeFunctions = new boolean[1];
+            final boolean[] completeResources = new boolean[1];
+            final String[] prefix = new String[1];
+            final ResourceBodyContext[] resourceBody = new ResourceBodyContext[1];
+
+            document.render(new Runnable() {
+
+                @Override
+                public void run() {
+                    TokenSequence<PTokenId> ts = PLangHierarchy.getTokenSequence(document);
+                    ts.move(caretOffset);
+                    ts.moveNext();
+                    Token<PTokenId> token = ts.token();
+                    String pref = null;
+                    if (token != null) {
+                        if (token.id() == PTokenId.WHITESPACE) {
+                            if (ts.offset() == caretOffset) {
+                                ts.movePrevious();
+                                token = ts.token();
+                            } else {
+                                pref = "";
+                                completeFunctions[0] = true;
+                                completeResources[0] = true;
                             }
-                            if (token.id() == PTokenId.IDENTIFIER) {
-                                try {
-                                    pref = document.getText(ts.offset(), caretOffset - ts.offset());
-                                    completeFunctions[0] = true;
-                                    completeResources[0] = true;
-                                } catch (BadLocationException ex) {
-                                    Exceptions.printStackTrace(ex);
-                                }
+                        }
+                        if (token.id() == PTokenId.IDENTIFIER) {
+                            try {
+                                pref = document.getText(ts.offset(), caretOffset - ts.offset());
+                                completeFunctions[0] = true;
+                                completeResources[0] = true;
+                            } catch (BadLocationException ex) {
+                                Exceptions.printStackTrace(ex);
                             }
-                            if (token.id() == PTokenId.VARIABLE) {
-                                try {
-                                    pref = document.getText(ts.offset(), caretOffset - ts.offset());
-                                } catch (BadLocationException ex) {
-                                    Exceptions.printStackTrace(ex);
-                                }
-                                completeVariables[0] = true;
+                        }
+                        if (token.id() == PTokenId.VARIABLE) {
+                            try {
+                                pref = document.getText(ts.offset(), caretOffset - ts.offset());
+                            } catch (BadLocationException ex) {
+                                Exceptions.printStackTrace(ex);
                             }
-                            if (token.id() == PTokenId.STRING_LITERAL) {
-                                int currentInText = caretOffset - ts.offset();
-                                String text = token.text().toString().substring(0, currentInText);
-                                int start = text.lastIndexOf("${");
-                                if (start != -1 && start < currentInText && text.indexOf("}", start) == -1) {
-                                    pref = text.substring(start, text.length()).replace("${", "$");
-                                    completeVariables[0] = true;
-                                    completeVariablesInString[0] = true;
-                                }
+                            completeVariables[0] = true;
+                        }
+                        if (token.id() == PTokenId.STRING_LITERAL) {
+                            int currentInText = caretOffset - ts.offset();
+                            String text = token.text().toString().substring(0, currentInText);
+                            int start = text.lastIndexOf("${");
+                            if (start != -1 && start < currentInText && text.indexOf("}", start) == -1) {
+                                pref = text.substring(start, text.length()).replace("${", "$");
+                                completeVariables[0] = true;
+                                completeVariablesInString[0] = true;
                             }
-                            if (pref != null) {
-                                prefix[0] = pref;
+                        }
+                        if (pref != null && completeFunctions[0]) {
+                            resourceBody[0] = ResourceBodyContext.find(document, caretOffset - pref.length());
+                        }
+                        if (pref != null) {
+                            prefix[0] = pref;
+                            ts.movePrevious();
+                            token = ts.token();
+                            if (token.id() == PTokenId.WHITESPACE) {
                                 ts.movePrevious();
                                 token = ts.token();
-                                if (token.id() == PTokenId.WHITESPACE) {
-                                    ts.movePrevious();
-                                    token = ts.token();
-                                }
-                                if (token.id() == PTokenId.INCLUDE || token.id() == PTokenId.REQUIRE || token.id() == PTokenId.INHERITS) {
-                                    completeClasses[0] = true;
-                                }
+                            }
+                            if (token.id() == PTokenId.INCLUDE || token.id() == PTokenId.REQUIRE || token.id() == PTokenId.INHERITS) {
+                                completeClasses[0] = true;
                             }
                         }
                     }
-                });
+                }
+            });
+            if (isTaskCancelled()) {
+                return;
+            }
+            if (resourceBody[0] != null) {
+                completeAttributes(prefix[0], resourceBody[0], completionResultSet, caretOffset, document);
+            } else if (completeClasses[0]) {
+                completeClasses(prefix[0], completionResultSet, caretOffset, document);
+            } else if (completeVariables[0]) {
+                completeVariables(prefix[0], completeVariablesInString[0], completionResultSet, caretOffset, document);
+            } else {
                 if (completeFunctions[0]) {
                     completeFunctions(prefix[0], completionResultSet, caretOffset);
                 }
-                if (completeResources[0]) {
-                    completeResources(prefix[0], completionResultSet, caretOffset, document, queryType);
+                if (completeResources[0] && !isTaskCancelled()) {
+                    completeResources(prefix[0], completionResultSet, caretOffset, document);
                 }
-                if (completeClasses[0]) {
-                    boolean thisProjectOnly = checkAndMarkQueryType(queryType, completionResultSet);
-                    try {
-                        QuerySupport qs = PPIndexerFactory.getQuerySupportFor(document, !thisProjectOnly);
-                        for (IndexResult res : qs.query(PPIndexer.FLD_CLASS, "" + prefix[0], QuerySupport.Kind.PREFIX, PPIndexer.FLD_ROOT)) {
-                            completionResultSet.addItem(new PPCompletionItem(prefix[0], res.getValue(PPIndexer.FLD_ROOT), caretOffset));
+            }
+            if (!isTaskCancelled()) {
+                completionResultSet.finish();
+            }
+        }
+
+        private void completeVariables(final String prefix, final boolean inString, final CompletionResultSet completionResultSet, final int caretOffset, final Document document) {
+            final String pref = prefix.substring(1);
+            //if completing from same class or class we inherit, use simple name, otherwise
+            //use the full name
+            final String[] currentName = {""};
+            final String[] inherits = {""};
+            //stage 1: local scope, from the last parse if the class header is unchanged
+            runWithCachedParserResult(document, new ParseResultRunnable() {
+                @Override
+                public void run(PElement rootNode) {
+                    if (rootNode == null || isTaskCancelled()) {
+                        return;
+                    }
+                    List<PClass> clazzes = rootNode.getChildrenOfType(PClass.class, false);
+                    if (!clazzes.isEmpty()) {
+                        PClass ppclazz = clazzes.get(0);
+                        currentName[0] = ppclazz.getName();
+                        inherits[0] = ppclazz.getInherits() != null ? ppclazz.getInherits().getName() : "";
+                        for (PClassParam param : ppclazz.getParams()) {
+                            if (param.getVariable().startsWith("$" + pref)) {
+                                completionResultSet.addItem(new PPVariableCompletionItem(prefix, param.getVariable().substring(1), caretOffset, currentName[0], currentName[0], inherits[0], inString));
+                            }
                         }
-                    } catch (IOException ex) {
-                        Exceptions.printStackTrace(ex);
                     }
-                    completionResultSet.finish();
-                    return;
                 }
-                if (completeVariables[0]) {
-                    final boolean thisProjectOnly = checkAndMarkQueryType(queryType, completionResultSet);
-                    runWithParserResult(document, new ParseResultRunnable() {
-                        @Override
-                        public void run(PElement rootNode) {
-                            if (rootNode == null) {
-                                completionResultSet.finish();
-                                return;
-                            }
-                            String pref = prefix[0].substring(1);
-                            //if completing from same class or class we inherit, use simple name, otherwise
-                            //use the full name
-                            String currentName = "";
-                            String inherits = "";
-                            List<PClass> clazzes = rootNode.getChildrenOfType(PClass.class, false);
-                            if (!clazzes.isEmpty()) {
-                                PClass ppclazz = clazzes.get(0);
-                                currentName = ppclazz.getName();
-                                inherits = ppclazz.getInherits() != null ? ppclazz.getInherits().getName() : "";
-                                for (PClassParam param : ppclazz.getParams()) {
-                                    if (param.getVariable().startsWith("$" + pref)) {
-                                        completionResultSet.addItem(new PPVariableCompletionItem(prefix[0], param.getVariable().substring(1), caretOffset, currentName, currentName, inherits, completeVariablesInString[0]));
-                                    }
-                                }
-                            }
-                            try {
-                                QuerySupport qs = PPIndexerFactory.getQuerySupportFor(document, !thisProjectOnly);
-                                QuerySupport.Query.Factory qf = qs.getQueryFactory();
-                                //TODO how to query just aaa::params::a|
-                                // we would need to split on :: and do exact match on class and prefix on var name
-                                QuerySupport.Query query =
-                                    qf.or(
-                                        qf.field(PPIndexer.FLD_VAR, "" + pref, QuerySupport.Kind.PREFIX),
-                                        qf.field(PPIndexer.FLD_ROOT, "" + pref, QuerySupport.Kind.PREFIX)
-                                    );
-                                for (IndexResult res : query.execute(PPIndexer.FLD_VAR, PPIndexer.FLD_ROOT)) {
-                                    String clazz = res.getValue(PPIndexer.FLD_ROOT);
-                                    for (String val : new HashSet<>(Arrays.asList(res.getValues(PPIndexer.FLD_VAR)))) {
-                                        if (val.startsWith(pref) || clazz.startsWith(pref)) {
-                                            completionResultSet.addItem(new PPVariableCompletionItem(prefix[0], val, caretOffset, clazz, currentName, inherits, completeVariablesInString[0]));
-                                        }
-                                    }
-                                }
-                            } catch (IOException ex) {
-                                Exceptions.printStackTrace(ex);
-                            }
-                            for (String glob : GlobalVarsFromPalette.get()) {
-                                if (glob.startsWith(pref)) {
-                                    completionResultSet.addItem(new PPVariableCompletionItem(prefix[0], glob, caretOffset, "", currentName, inherits, completeVariablesInString[0]));
-                                }
-                            }
-                            completionResultSet.finish();
+            });
+            if (isTaskCancelled()) {
+                return;
+            }
+            //stage 2: variables of indexed classes
+            boolean thisProjectOnly = checkAndMarkQueryType(queryType, completionResultSet);
+            try {
+                QuerySupport qs = PPIndexerFactory.getQuerySupportFor(document, !thisProjectOnly);
+                QuerySupport.Query.Factory qf = qs.getQueryFactory();
+                //TODO how to query just aaa::params::a|
+                // we would need to split on :: and do exact match on class and prefix on var name
+                QuerySupport.Query query =
+                    qf.or(
+                        qf.field(PPIndexer.FLD_VAR, "" + pref, QuerySupport.Kind.PREFIX),
+                        qf.field(PPIndexer.FLD_ROOT, "" + pref, QuerySupport.Kind.PREFIX)
+                    );
+                for (IndexResult res : query.execute(PPIndexer.FLD_VAR, PPIndexer.FLD_ROOT)) {
+                    if (isTaskCancelled()) {
+                        return;
+                    }
+                    String clazz = res.getValue(PPIndexer.FLD_ROOT);
+                    for (String val : new HashSet<>(Arrays.asList(res.getValues(PPIndexer.FLD_VAR)))) {
+                        if (val.startsWith(pref) || clazz.startsWith(pref)) {
+                            completionResultSet.addItem(new PPVariableCompletionItem(prefix, val, caretOffset, clazz, currentName[0], inherits[0], inString));
                         }
-                    });
-                    return;
+                    }
                 }
-                completionResultSet.finish();
+            } catch (IOException ex) {
+                Exceptions.printStackTrace(ex);
             }
+            if (isTaskCancelled()) {
+                return;
+            }
+            //stage 3: facts
+            for (CompletionDictionary.Match m : CompletionDictionary.getBuiltins().find(pref, MAX_ITEMS, EnumSet.of(CompletionDictionary.Kind.FACT))) {
+                completionResultSet.addItem(new PPVariableCompletionItem(prefix, m.getName(), caretOffset, "", currentName[0], inherits[0], inString,
+                        factDetail(FactCatalog.getDefault().getFact(m.getName()))));
+            }
+        }
 
-        }, component);
-    }
+        private void completeClasses(String prefix, CompletionResultSet completionResultSet, int caretOffset, Document document) {
+            boolean thisProjectOnly = checkAndMarkQueryType(queryType, completionResultSet);
+            try {
+                CompletionDictionary classes = CompletionDictionary.getClasses(PPIndexerFactory.getRootsFor(document, !thisProjectOnly));
+                if (isTaskCancelled()) {
+                    return;
+                }
+                for (CompletionDictionary.Match m : classes.find(prefix, MAX_ITEMS, EnumSet.of(CompletionDictionary.Kind.CLASS))) {
+                    completionResultSet.addItem(new PPCompletionItem(prefix, m.getName(), caretOffset, "", m.getPenalty()));
+                }
+            } catch (IOException ex) {
+                Exceptions.printStackTrace(ex);
+            }
+        }
 
-    private void completeFunctions(String prefix, CompletionResultSet completionResultSet, int offset) {
-        for (PTokenId token : PTokenId.values()) {
-            if (PTokenId.Category.FUNCTION.equals(token.primaryCategory())) {
-                String name = token.name().toLowerCase(Locale.ENGLISH);
-                if (name.startsWith(prefix)) {
-                    completionResultSet.addItem(new PPFunctionCompletionItem(prefix, name, offset));
+        private void completeResources(String prefix, CompletionResultSet completionResultSet, int caretOffset, Document document) {
+            try {
+                boolean thisProjectOnly = checkAndMarkQueryType(queryType, completionResultSet);
+                for (CompletionDictionary.Match m : CompletionDictionary.getBuiltins().find(prefix, MAX_ITEMS, EnumSet.of(CompletionDictionary.Kind.RESOURCE))) {
+                    BuiltinTypes.Type type = BuiltinTypes.getDefault().getType(m.getName());
+                    completionResultSet.addItem(new PPResourceCompletionItem(prefix, type.getName(), caretOffset, type.getRequiredParams(), m.getPenalty()));
+                }
+                if (isTaskCancelled()) {
+                    return;
                 }
+                QuerySupport qs = PPIndexerFactory.getQuerySupportFor(document, !thisProjectOnly);
+                for (IndexResult res : qs.query(PPIndexer.FLD_DEFINE, prefix, QuerySupport.Kind.PREFIX, PPIndexer.FLD_ROOT, PPIndexer.FLD_REQ_PARAM)) {
+                    if (isTaskCancelled()) {
+                        return;
+                    }
+                    String def = res.getValue(PPIndexer.FLD_ROOT);
+                    if (BuiltinTypes.getDefault().getType(def) != null) {
+                        //a local stub shadowing a builtin, already added
+                        continue;
+                    }
+                    completionResultSet.addItem(new PPResourceCompletionItem(prefix, def, caretOffset, res.getValues(PPIndexer.FLD_REQ_PARAM)));
+                }
+            } catch (IOException ex) {
+                Exceptions.printStackTrace(ex);
             }
         }
-        for (String builtin : BuiltInFunctions.get()) {
-            completionResultSet.addItem(new PPFunctionCompletionItem(prefix, builtin, offset));
+
+        private void completeAttributes(String prefix, ResourceBodyContext context, CompletionResultSet completionResultSet, int caretOffset, Document document) {
+            try {
+                boolean thisProjectOnly = checkAndMarkQueryType(queryType, completionResultSet);
+                ResourceSignatures.Signature sig = ResourceSignatures.get(context.getType(), PPIndexerFactory.getRootsFor(document, !thisProjectOnly));
+                if (sig != null && !isTaskCancelled()) {
+                    for (ResourceSignatures.Param param : sig.find(prefix, context.getUsedAttributes())) {
+                        completionResultSet.addItem(new PPAttributeCompletionItem(prefix, param, caretOffset));
+                    }
+                }
+            } catch (IOException ex) {
+                Exceptions.printStackTrace(ex);
+            }
         }
     }
 
-    private void completeResources(String prefix, CompletionResultSet completionResultSet, int caretOffset, Document document, int queryType) {
-        try {
-            boolean thisProjectOnly = checkAndMarkQueryType(queryType, completionResultSet);
-            QuerySupport qs = PPIndexerFactory.getQuerySupportFor(document, !thisProjectOnly);
-            for (IndexResult res : qs.query(PPIndexer.FLD_DEFINE, prefix, QuerySupport.Kind.PREFIX, PPIndexer.FLD_ROOT, PPIndexer.FLD_REQ_PARAM)) {
-                String def = res.getValue(PPIndexer.FLD_ROOT);
-                completionResultSet.addItem(new PPResourceCompletionItem(prefix, def, caretOffset, res.getValues(PPIndexer.FLD_REQ_PARAM)));
-            }
-        } catch (IOException ex) {
-            Exceptions.printStackTrace(ex);
+    private static String factDetail(FactCatalog.Fact fact) {
+        if (fact == null || fact.getType() == null) {
+            return "fact";
+        }
+        String example = fact.getExample();
+        if (example != null && example.length() > 30) {
+            example = example.substring(0, 30) + "...";
         }
+        //escape for the html renderer
+        return fact.getType() + (example != null ? " " + example.replace("&", "&amp;").replace("<", "&lt;") : "");
     }
 
+    private void completeFunctions(String prefix, CompletionResultSet completionResultSet, int offset) {
+        for (CompletionDictionary.Match m : CompletionDictionary.getBuiltins().find(prefix, MAX_ITEMS, EnumSet.of(CompletionDictionary.Kind.FUNCTION))) {
+            completionResultSet.addItem(new PPFunctionCompletionItem(prefix, m.getName(), offset, "", m.getPenalty()));
+        }
+    }
 
     private boolean checkAndMarkQueryType(int queryType, CompletionResultSet completionResultSet) {
         final boolean thisProjectOnly = queryType == COMPLETION_QUERY_TYPE;
@@ -289,6 +352,29 @@ public class PCompletionProvider implements CompletionProvider {
         }
     }
 
+    /**
+     * like {@link #runWithParserResult(javax.swing.text.Document, com.tropyx.nb_puppet.completion.PCompletionProvider.ParseResultRunnable) }
+     * but uses the last parser result of the document as long as the class header didn't change since,
+     * only for callers interested in the class name, inherits and parameters.
+     */
+    static void runWithCachedParserResult(final Document document, final ParseResultRunnable runnable) {
+        final PuppetParserResult cached = PuppetParserResult.getLastResult(document);
+        final boolean[] upToDate = new boolean[1];
+        if (cached != null) {
+            document.render(new Runnable() {
+                @Override
+                public void run() {
+                    upToDate[0] = cached.isClassHeaderUpToDate(document);
+                }
+            });
+        }
+        if (upToDate[0]) {
+            runnable.run(cached.getRootNode());
+        } else {
+            runWithParserResult(document, runnable);
+        }
+    }
+
     public interface ParseResultRunnable {
         void run(PElement rootNode);
     }
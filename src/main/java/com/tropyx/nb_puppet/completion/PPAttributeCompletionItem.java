@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2015 mkleint
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tropyx.nb_puppet.completion;
+
+import com.tropyx.nb_puppet.PPConstants;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.event.KeyEvent;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.JTextComponent;
+import org.netbeans.api.editor.completion.Completion;
+import org.netbeans.lib.editor.codetemplates.api.CodeTemplateManager;
+import org.netbeans.spi.editor.completion.CompletionItem;
+import org.netbeans.spi.editor.completion.CompletionTask;
+import org.netbeans.spi.editor.completion.support.CompletionUtilities;
+import org.openide.util.Exceptions;
+import org.openide.util.ImageUtilities;
+
+/**
+ * attribute name inside of a resource body
+ * @author mkleint
+ */
+public class PPAttributeCompletionItem implements CompletionItem {
+    private final String prefix;
+    private final ResourceSignatures.Param param;
+    private final int caretOffset;
+
+    PPAttributeCompletionItem(String prefix, ResourceSignatures.Param param, int caretOffset) {
+        this.prefix = prefix;
+        this.param = param;
+        this.caretOffset = caretOffset;
+    }
+
+    @Override
+    public void defaultAction(JTextComponent component) {
+        try {
+            component.getDocument().remove(caretOffset - prefix.length(), prefix.length());
+        } catch (BadLocationException ex) {
+            Exceptions.printStackTrace(ex);
+        }
+        CodeTemplateManager ctm = CodeTemplateManager.get(component.getDocument());
+        ctm.createTemporary(param.getName() + " => ${cursor},").insert(component);
+        Completion.get().hideAll();
+    }
+
+    @Override
+    public void processKeyEvent(KeyEvent evt) {
+    }
+
+    private String getName() {
+        return param.isRequired() ? "<b>" + param.getName() + "</b>" : param.getName();
+    }
+
+    private String getRightText() {
+        StringBuilder sb = new StringBuilder();
+        if (param.getType() != null) {
+            sb.append(param.getType());
+        }
+        if (param.getDefaultValue() != null) {
+            sb.append(sb.length() > 0 ? " " : "").append("= ").append(param.getDefaultValue());
+        }
+        if (param.isMetaParameter()) {
+            sb.append("metaparameter");
+        }
+        if (sb.length() == 0 && param.getDescription() != null) {
+            //builtin types only have the description
+            String desc = param.getDescription();
+            sb.append(desc.length() > 40 ? desc.substring(0, 40) + "..." : desc);
+        }
+        return sb.toString().replace("&", "&amp;").replace("<", "&lt;");
+    }
+
+    @Override
+    public int getPreferredWidth(Graphics g, Font defaultFont) {
+        return CompletionUtilities.getPreferredWidth(getName(), getRightText(), g, defaultFont);
+    }
+
+    @Override
+    public void render(Graphics g, Font defaultFont, Color defaultColor, Color backgroundColor, int width, int height, boolean selected) {
+        CompletionUtilities.renderHtml(ImageUtilities.loadImageIcon(PPConstants.RESOURCE_ICON, true), getName(), 
+                "<font color='!controlShadow'>" + getRightText() + "</font>", g, defaultFont, defaultColor, width, height, selected);
+    }
+
+    @Override
+    public CompletionTask createDocumentationTask() {
+        return null;
+    }
+
+    @Override
+    public CompletionTask createToolTipTask() {
+        return null;
+    }
+
+    @Override
+    public boolean instantSubstitution(JTextComponent component) {
+        return false;
+    }
+
+    @Override
+    public int getSortPriority() {
+        //required first, metaparameters last
+        return param.isRequired() ? -10 : param.isMetaParameter() ? 10 : 0;
+    }
+
+    @Override
+    public CharSequence getSortText() {
+        return param.getName();
+    }
+
+    @Override
+    public CharSequence getInsertPrefix() {
+        return prefix;
+    }
+
+}
@@ -20,13 +20,18 @@ public class PPCompletionItem implements CompletionItem {
     private final String value;
     private final int caretOffset;
     private final String rightText;
+    private final int penalty;
     
 
-    public PPCompletionItem(String prefix, String value, int caretOffset, String rightText) {
+    public PPCompletionItem(String prefix, String value, int caretOffset, String rightText, int penalty) {
         this.prefix = prefix;
         this.value = value;
         this.caretOffset = caretOffset;
         this.rightText = rightText;
+        this.penalty = penalty;
+    }
+    public PPCompletionItem(String prefix, String value, int caretOffset, String rightText) {
+        this(prefix, value, caretOffset, rightText, 0);
     }
     public PPCompletionItem(String prefix, String value, int caretOffset) {
         this(prefix, value, caretOffset, "");
@@ -36,7 +41,9 @@ public class PPCompletionItem implements CompletionItem {
     @Override
     public void defaultAction(JTextComponent component) {
         try {
-            component.getDocument().insertString(caretOffset, value.substring(prefix.length()), null);
+            //fuzzy matches don't start with the prefix, replace it
+            component.getDocument().remove(caretOffset - prefix.length(), prefix.length());
+            component.getDocument().insertString(caretOffset - prefix.length(), value, null);
         } catch (BadLocationException ex) {
             Exceptions.printStackTrace(ex);
         }
@@ -74,7 +81,7 @@ public class PPCompletionItem implements CompletionItem {
 
     @Override
     public int getSortPriority() {
-        return 0;
+        return penalty;
     }
 
     @Override
@@ -21,11 +21,13 @@ import java.awt.Color;
 import java.awt.Font;
 import java.awt.Graphics;
 import java.awt.event.KeyEvent;
+import javax.swing.text.BadLocationException;
 import javax.swing.text.JTextComponent;
 import org.netbeans.lib.editor.codetemplates.api.CodeTemplateManager;
 import org.netbeans.spi.editor.completion.CompletionItem;
 import org.netbeans.spi.editor.completion.CompletionTask;
 import org.netbeans.spi.editor.completion.support.CompletionUtilities;
+import org.openide.util.Exceptions;
 import org.openide.util.ImageUtilities;
 
 public class PPFunctionCompletionItem implements CompletionItem {
@@ -33,13 +35,18 @@ public class PPFunctionCompletionItem implements CompletionItem {
     private final String value;
     private final int caretOffset;
     private final String rightText;
+    private final int penalty;
     
 
-    public PPFunctionCompletionItem(String prefix, String value, int caretOffset, String rightText) {
+    public PPFunctionCompletionItem(String prefix, String value, int caretOffset, String rightText, int penalty) {
         this.prefix = prefix;
         this.value = value;
         this.caretOffset = caretOffset;
         this.rightText = rightText;
+        this.penalty = penalty;
+    }
+    public PPFunctionCompletionItem(String prefix, String value, int caretOffset, String rightText) {
+        this(prefix, value, caretOffset, rightText, 0);
     }
     public PPFunctionCompletionItem(String prefix, String value, int caretOffset) {
         this(prefix, value, caretOffset, "");
@@ -48,7 +55,13 @@ public class PPFunctionCompletionItem implements CompletionItem {
 
     @Override
     public void defaultAction(JTextComponent component) {
-        String text = value.substring(prefix.length()) + "(${cursor})";
+        String text = value + "(${cursor})";
+        try {
+            //fuzzy matches don't start with the prefix, replace it
+            component.getDocument().remove(caretOffset - prefix.length(), prefix.length());
+        } catch (BadLocationException ex) {
+            Exceptions.printStackTrace(ex);
+        }
         CodeTemplateManager ctm = CodeTemplateManager.get(component.getDocument());
         ctm.createTemporary(text).insert(component);
     }
@@ -84,7 +97,7 @@ public class PPFunctionCompletionItem implements CompletionItem {
 
     @Override
     public int getSortPriority() {
-        return 20;
+        return 20 + penalty;
     }
 
     @Override
@@ -39,6 +39,7 @@ public class PPResourceCompletionItem implements CompletionItem {
     private final String rightText;
     
     private String[] reqParams;
+    private int penalty;
 
     private PPResourceCompletionItem(String prefix, String value, int caretOffset, String rightText) {
         this.prefix = prefix;
@@ -48,8 +49,13 @@ public class PPResourceCompletionItem implements CompletionItem {
     }
 
     public PPResourceCompletionItem(String prefix, String value, int caretOffset, String[] reqParams) {
+        this(prefix, value, caretOffset, reqParams, 0);
+    }
+
+    public PPResourceCompletionItem(String prefix, String value, int caretOffset, String[] reqParams, int penalty) {
         this(prefix, value, caretOffset, "");
         this.reqParams = reqParams;
+        this.penalty = penalty;
     }
     
 
@@ -68,12 +74,18 @@ public class PPResourceCompletionItem implements CompletionItem {
             Exceptions.printStackTrace(ex);
         }
         StringBuilder sb = new StringBuilder();
-        sb.append(value.substring(prefix.length())).append(" { '${title}':\n");
+        sb.append(value).append(" { '${title}':\n");
         for (String param : reqParams) {
             sb.append(indent).append("  ").append(param).append(" => ${").append(param).append("},\n");
         }
         sb.append(indent).append("  ${cursor}\n").append(indent).append("}");
         String text = sb.toString();
+        try {
+            //fuzzy matches don't start with the prefix, replace it
+            component.getDocument().remove(caretOffset - prefix.length(), prefix.length());
+        } catch (BadLocationException ex) {
+            Exceptions.printStackTrace(ex);
+        }
         CodeTemplateManager ctm = CodeTemplateManager.get(component.getDocument());
         ctm.createTemporary(text).insert(component);
         Completion.get().hideAll();
@@ -110,7 +122,7 @@ public class PPResourceCompletionItem implements CompletionItem {
 
     @Override
     public int getSortPriority() {
-        return 10;
+        return 10 + penalty;
     }
 
     @Override
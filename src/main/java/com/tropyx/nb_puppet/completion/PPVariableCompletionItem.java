@@ -23,10 +23,19 @@ public class PPVariableCompletionItem implements CompletionItem {
     private final String currentClassName;
     private final String inherits;
     private final boolean inString;
+    private final String detail;
     
 
     public PPVariableCompletionItem(String prefix, String varName, int caretOffset, 
             String className, String currentClassName, String inherits, boolean inString) {
+        this(prefix, varName, caretOffset, className, currentClassName, inherits, inString, className);
+    }
+
+    /**
+     * @param detail right hand side text, eg. type and example value of a fact
+     */
+    public PPVariableCompletionItem(String prefix, String varName, int caretOffset, 
+            String className, String currentClassName, String inherits, boolean inString, String detail) {
         this.prefix = prefix;
         this.varName = varName;
         this.caretOffset = caretOffset;
@@ -34,6 +43,7 @@ public class PPVariableCompletionItem implements CompletionItem {
         this.currentClassName = currentClassName;
         this.inherits = inherits;
         this.inString = inString;
+        this.detail = detail;
     }
 
     @Override
@@ -60,12 +70,12 @@ public class PPVariableCompletionItem implements CompletionItem {
 
     @Override
     public int getPreferredWidth(Graphics g, Font defaultFont) {
-        return CompletionUtilities.getPreferredWidth(varName, className, g, defaultFont);
+        return CompletionUtilities.getPreferredWidth(varName, detail, g, defaultFont);
     }
 
     @Override
     public void render(Graphics g, Font defaultFont, Color defaultColor, Color backgroundColor, int width, int height, boolean selected) {
-        CompletionUtilities.renderHtml(ImageUtilities.loadImageIcon(PPConstants.VARIABLE_ICON, true), varName, "<font color='!controlShadow'>" + className + "</font>", g, defaultFont, defaultColor, width, height, selected);
+        CompletionUtilities.renderHtml(ImageUtilities.loadImageIcon(PPConstants.VARIABLE_ICON, true), varName, "<font color='!controlShadow'>" + detail + "</font>", g, defaultFont, defaultColor, width, height, selected);
     }
 
     @Override
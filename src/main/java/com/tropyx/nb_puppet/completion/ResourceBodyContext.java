@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2015 mkleint
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tropyx.nb_puppet.completion;
+
+import com.tropyx.nb_puppet.lexer.PLangHierarchy;
+import com.tropyx.nb_puppet.lexer.PTokenId;
+import java.util.HashSet;
+import java.util.Set;
+import javax.swing.text.Document;
+import org.netbeans.api.lexer.Token;
+import org.netbeans.api.lexer.TokenSequence;
+
+/**
+ * the resource body the caret is in, at the position of an attribute name, eg.
+ * <code>file { '/tmp/foo': ensure => present, mo| }</code>
+ * @author mkleint
+ */
+final class ResourceBodyContext {
+    private final String type;
+    private final Set<String> usedAttributes;
+
+    private ResourceBodyContext(String type, Set<String> usedAttributes) {
+        this.type = type;
+        this.usedAttributes = usedAttributes;
+    }
+
+    /**
+     * @return resource type as written in the manifest
+     */
+    String getType() {
+        return type;
+    }
+
+    /**
+     * @return attributes already present in the body of the current title
+     */
+    Set<String> getUsedAttributes() {
+        return usedAttributes;
+    }
+
+    /**
+     * to be called under document read lock
+     * @param document
+     * @param prefixStart start of the identifier being completed
+     * @return null when not at an attribute name position
+     */
+    static ResourceBodyContext find(Document document, int prefixStart) {
+        TokenSequence<PTokenId> ts = PLangHierarchy.getTokenSequence(document);
+        ts.move(prefixStart);
+        Token<PTokenId> token = previous(ts);
+        if (token == null || (token.id() != PTokenId.COLON && token.id() != PTokenId.COMMA && token.id() != PTokenId.SEMICOLON)) {
+            return null;
+        }
+        ts.moveNext();
+        Set<String> used = new HashSet<>();
+        boolean sawColon = false;
+        boolean collect = true;
+        boolean nameNext = false;
+        int depth = 0;
+        while ((token = previous(ts)) != null) {
+            PTokenId id = token.id();
+            if (nameNext && depth == 0 && collect) {
+                //require, tag are tokens of their own
+                used.add(token.text().toString());
+            }
+            nameNext = false;
+            if (id == PTokenId.RBRACE || id == PTokenId.RBRACKET || id == PTokenId.RPAREN) {
+                depth++;
+            } else if (id == PTokenId.LBRACE || id == PTokenId.LBRACKET || id == PTokenId.LPAREN) {
+                if (depth == 0) {
+                    if (id != PTokenId.LBRACE || !sawColon) {
+                        //array, parentheses or a block without a title
+                        return null;
+                    }
+                    break;
+                }
+                depth--;
+            } else if (depth == 0) {
+                if (id == PTokenId.COLON) {
+                    sawColon = true;
+                } else if (id == PTokenId.PARAM_ASSIGN) {
+                    nameNext = true;
+                } else if (id == PTokenId.SEMICOLON) {
+                    if (!sawColon) {
+                        return null;
+                    }
+                    //attributes before belong to another title
+                    collect = false;
+                }
+            }
+        }
+        if (token == null) {
+            return null;
+        }
+        Token<PTokenId> typeToken = previous(ts);
+        if (typeToken == null || typeToken.id() != PTokenId.IDENTIFIER) {
+            return null;
+        }
+        Token<PTokenId> before = previous(ts);
+        if (before != null && (before.id() == PTokenId.CLASS || before.id() == PTokenId.DEFINE
+                || before.id() == PTokenId.INHERITS || before.id() == PTokenId.NODE)) {
+            return null;
+        }
+        return new ResourceBodyContext(typeToken.text().toString(), used);
+    }
+
+    private static Token<PTokenId> previous(TokenSequence<PTokenId> ts) {
+        while (ts.movePrevious()) {
+            PTokenId id = ts.token().id();
+            if (id != PTokenId.WHITESPACE && id != PTokenId.COMMENT && id != PTokenId.LINE_COMMENT) {
+                return ts.token();
+            }
+        }
+        return null;
+    }
+}
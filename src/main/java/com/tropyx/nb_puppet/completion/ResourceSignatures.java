@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2015 mkleint
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tropyx.nb_puppet.completion;
+
+import com.tropyx.nb_puppet.indexer.BuiltinTypes;
+import com.tropyx.nb_puppet.indexer.PPIndexer;
+import com.tropyx.nb_puppet.indexer.PPIndexerFactory;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import org.netbeans.modules.parsing.spi.indexing.support.IndexResult;
+import org.netbeans.modules.parsing.spi.indexing.support.QuerySupport;
+import org.openide.filesystems.FileObject;
+
+/**
+ * parameter signatures of resource types, for attribute completion in resource bodies.
+ * Builtin types come from {@link BuiltinTypes} and are cached forever, defines from the index
+ * are cached until the index changes.
+ * @author mkleint
+ */
+final class ResourceSignatures {
+
+    /**
+     * metaparameters accepted by every resource
+     */
+    private static final String[] METAPARAMS = {
+        "alias", "audit", "before", "loglevel", "noop", "notify", "require", //NOI18N
+        "schedule", "stage", "subscribe", "tag" //NOI18N
+    };
+
+    private static final Map<String, Signature> builtins = new HashMap<>();
+    private static final Map<String, Signature> indexed = new HashMap<>();
+    private static List<URL> indexedRoots;
+    private static long indexedStamp = -1;
+
+    private ResourceSignatures() {
+    }
+
+    static final class Param {
+        private final String name;
+        private final String type;
+        private final String defaultValue;
+        private final boolean required;
+        private final String description;
+        private final boolean meta;
+
+        Param(String name, String type, String defaultValue, boolean required, String description, boolean meta) {
+            this.name = name;
+            this.type = type;
+            this.defaultValue = defaultValue;
+            this.required = required;
+            this.description = description;
+            this.meta = meta;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        /**
+         * @return declared type or null
+         */
+        String getType() {
+            return type;
+        }
+
+        /**
+         * @return short form of the default value or null
+         */
+        String getDefaultValue() {
+            return defaultValue;
+        }
+
+        boolean isRequired() {
+            return required;
+        }
+
+        String getDescription() {
+            return description;
+        }
+
+        boolean isMetaParameter() {
+            return meta;
+        }
+    }
+
+    static final class Signature {
+        private final String type;
+        private final String[] names;
+        private final Param[] params;
+
+        Signature(String type, Collection<Param> params) {
+            //sorted by name
+            TreeMap<String, Param> sorted = new TreeMap<>();
+            for (String meta : METAPARAMS) {
+                sorted.put(meta, new Param(meta, null, null, false, null, true));
+            }
+            for (Param p : params) {
+                sorted.put(p.getName(), p);
+            }
+            this.type = type;
+            this.names = sorted.keySet().toArray(new String[0]);
+            this.params = sorted.values().toArray(new Param[0]);
+        }
+
+        String getType() {
+            return type;
+        }
+
+        /**
+         * @param prefix
+         * @param exclude attributes already present in the resource body
+         * @return parameters starting with prefix
+         */
+        List<Param> find(String prefix, Set<String> exclude) {
+            int index = Arrays.binarySearch(names, prefix);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            List<Param> toRet = new ArrayList<>();
+            while (index < names.length && names[index].startsWith(prefix)) {
+                if (!exclude.contains(names[index])) {
+                    toRet.add(params[index]);
+                }
+                index++;
+            }
+            return toRet;
+        }
+    }
+
+    /**
+     * @param type resource type as written in the manifest
+     * @param roots source roots to look up defines in
+     * @return null for unknown types
+     */
+    static Signature get(String type, FileObject[] roots) throws IOException {
+        String name = type.toLowerCase(Locale.ENGLISH);
+        if (name.startsWith("::")) { //NOI18N
+            name = name.substring(2);
+        }
+        synchronized (builtins) {
+            Signature sig = builtins.get(name);
+            if (sig != null) {
+                return sig;
+            }
+            BuiltinTypes.Type builtin = BuiltinTypes.getDefault().getType(name);
+            if (builtin != null) {
+                List<Param> params = new ArrayList<>();
+                for (String p : builtin.getParams()) {
+                    //the stubs declare no defaults, but no builtin attribute is mandatory,
+                    //the namevar defaults to the title
+                    params.add(new Param(p, null, null, false, builtin.getDescription(p), false));
+                }
+                sig = new Signature(name, params);
+                builtins.put(name, sig);
+                return sig;
+            }
+        }
+        List<URL> rootUrls = new ArrayList<>();
+        for (FileObject root : roots) {
+            rootUrls.add(root.toURL());
+        }
+        long stamp = PPIndexerFactory.getIndexStamp();
+        synchronized (indexed) {
+            if (stamp != indexedStamp || !rootUrls.equals(indexedRoots)) {
+                indexed.clear();
+                indexedStamp = stamp;
+                indexedRoots = rootUrls;
+            }
+            if (indexed.containsKey(name)) {
+                return indexed.get(name);
+            }
+        }
+        Signature sig = loadFromIndex(name, roots);
+        synchronized (indexed) {
+            if (stamp == indexedStamp) {
+                //unknown types are cached as null as well
+                indexed.put(name, sig);
+            }
+        }
+        return sig;
+    }
+
+    private static Signature loadFromIndex(String name, FileObject[] roots) throws IOException {
+        QuerySupport qs = QuerySupport.forRoots(PPIndexerFactory.INDEXER_TYPE, PPIndexerFactory.INDEXER_VERSION, roots);
+        for (IndexResult res : qs.query(PPIndexer.FLD_DEFINE, name, QuerySupport.Kind.EXACT, PPIndexer.FLD_PARAM_SIG, PPIndexer.FLD_REQ_PARAM)) {
+            Set<String> required = new HashSet<>();
+            String[] req = res.getValues(PPIndexer.FLD_REQ_PARAM);
+            if (req != null) {
+                required.addAll(Arrays.asList(req));
+            }
+            List<Param> params = new ArrayList<>();
+            String[] sigs = res.getValues(PPIndexer.FLD_PARAM_SIG);
+            for (String sig : sigs != null ? sigs : new String[0]) {
+                String[] parts = sig.split("\\|", 3); //NOI18N
+                if (parts.length < 3) {
+                    continue;
+                }
+                params.add(new Param(parts[0], parts[1].isEmpty() ? null : parts[1], parts[2].isEmpty() ? null : parts[2],
+                        required.contains(parts[0]), null, false));
+            }
+            //first definition wins, same as go to declaration
+            return new Signature(name, params);
+        }
+        return null;
+    }
+}
@@ -17,124 +17,87 @@
 
 package com.tropyx.nb_puppet.highlighter;
 
-import com.tropyx.nb_puppet.lexer.PLangHierarchy;
-import com.tropyx.nb_puppet.lexer.PTokenId;
+import com.tropyx.nb_puppet.PPConstants;
+import com.tropyx.nb_puppet.parser.PuppetParserResult;
 import java.awt.Color;
-import java.lang.ref.WeakReference;
-import javax.swing.JEditorPane;
-import javax.swing.event.CaretEvent;
-import javax.swing.event.CaretListener;
+import java.util.Collection;
+import java.util.Collections;
 import javax.swing.text.AttributeSet;
 import javax.swing.text.Document;
-import javax.swing.text.JTextComponent;
 import javax.swing.text.StyleConstants;
+import org.netbeans.api.editor.mimelookup.MimeRegistration;
 import org.netbeans.api.editor.settings.AttributesUtilities;
-import org.netbeans.api.lexer.Token;
-import org.netbeans.api.lexer.TokenHierarchy;
-import org.netbeans.api.lexer.TokenSequence;
-import org.netbeans.modules.editor.NbEditorUtilities;
+import org.netbeans.modules.parsing.api.Snapshot;
+import org.netbeans.modules.parsing.spi.CursorMovedSchedulerEvent;
+import org.netbeans.modules.parsing.spi.ParserResultTask;
+import org.netbeans.modules.parsing.spi.Scheduler;
+import org.netbeans.modules.parsing.spi.SchedulerEvent;
+import org.netbeans.modules.parsing.spi.SchedulerTask;
+import org.netbeans.modules.parsing.spi.TaskFactory;
 import org.netbeans.spi.editor.highlighting.support.OffsetsBag;
-import org.openide.cookies.EditorCookie;
-import org.openide.loaders.DataObject;
-import org.openide.util.RequestProcessor;
 
-public class MarkOccurrencesHighlighter implements CaretListener {
+/**
+ * marks the occurrences of the variable at caret. Runs on caret moves with the current parse result,
+ * the parser reruns only after edits, so a caret move is a lookup in the result's {@link com.tropyx.nb_puppet.parser.VariableOccurrences}.
+ */
+public class MarkOccurrencesHighlighter extends ParserResultTask<PuppetParserResult> {
 
     private static final AttributeSet defaultColors =
             AttributesUtilities.createImmutable(StyleConstants.Background,
             new Color(236, 235, 163));
 
-    private final OffsetsBag bag;
+    private volatile boolean cancelled;
 
-    private JTextComponent comp;
-    private final WeakReference<Document> weakDoc;
+    @Override
+    public int getPriority() {
+        return 50;
+    }
 
-    private final RequestProcessor rp;
-    private final static int REFRESH_DELAY = 100;
-    private RequestProcessor.Task lastRefreshTask;
+    @Override
+    public Class<? extends Scheduler> getSchedulerClass() {
+        return Scheduler.CURSOR_SENSITIVE_TASK_SCHEDULER;
+    }
 
-    public MarkOccurrencesHighlighter(Document doc) {
-        rp = new RequestProcessor(MarkOccurrencesHighlighter.class);
-        bag = new OffsetsBag(doc);
-        weakDoc = new WeakReference<>(doc);
-        DataObject dobj = NbEditorUtilities.getDataObject(weakDoc.get());
-        if (dobj != null) {
-            EditorCookie pane = dobj.getLookup().lookup(EditorCookie.class);
-            JEditorPane[] panes = pane.getOpenedPanes();
-            if (panes != null && panes.length > 0) {
-                comp = panes[0];
-                comp.addCaretListener(this);
-            }
-        }
+    @Override
+    public void cancel() {
+        cancelled = true;
     }
 
     @Override
-    public void caretUpdate(CaretEvent e) {
-        bag.clear();
-        setupAutoRefresh();
+    public void run(PuppetParserResult result, SchedulerEvent event) {
+        cancelled = false;
+        Document doc = result.getSnapshot().getSource().getDocument(false);
+        if (doc == null || !(event instanceof CursorMovedSchedulerEvent)) {
+            return;
+        }
+        int caret = ((CursorMovedSchedulerEvent) event).getCaretOffset();
+        int[] spans = result.getVariableOccurrences().getSpansAt(caret);
+        if (cancelled) {
+            return;
+        }
+        OffsetsBag bag = new OffsetsBag(doc);
+        for (int i = 0; i < spans.length; i += 2) {
+            bag.addHighlight(spans[i], spans[i + 1], defaultColors);
+        }
+        getHighlightsBag(doc).setHighlights(bag);
     }
 
-    public void setupAutoRefresh() {
-        if (lastRefreshTask == null) {
-            lastRefreshTask = rp.create(new Runnable() {
-                @Override
-                public void run() {
-                    final Document doc = comp.getDocument();
-                    final int offset = comp.getCaretPosition();
-                    doc.render(new Runnable() {
-                        @Override
-                        public void run() {
-                            TokenSequence<PTokenId> ts = PLangHierarchy.getTokenSequence(doc);
-                            ts.move(offset);
-                            ts.moveNext();
-                            Token<PTokenId> token = ts.token();
-                            if (token == null) {
-                                return;
-                            }
-                            if (token.id() == PTokenId.VARIABLE) {
-                                String variable = token.text().toString();
-                                addHighlights(ts, variable);
-                            } else if (token.id() == PTokenId.STRING_LITERAL) {
-                                String text = token.text().toString();
-                                int reloffset = offset - ts.offset();
-                                int start = text.substring(0, reloffset).lastIndexOf("${");
-                                if (start != -1 && start <= reloffset && text.indexOf("}", start) > reloffset) {
-                                    String var = text.substring(start, text.indexOf("}", start)).replace("${", "$");
-                                    addHighlights(ts, var);
-                                }
-                                
-                            }
-                        }
+    public static OffsetsBag getHighlightsBag(Document doc) {
+        OffsetsBag bag = (OffsetsBag) doc.getProperty(MarkOccurrencesHighlighter.class);
 
-                        public void addHighlights(TokenSequence<PTokenId> ts, String variable) {
-                            Token<PTokenId> token;
-                            ts.moveStart();
-                            while (ts.moveNext()) {
-                                token = ts.token();
-                                if (token.id() == PTokenId.VARIABLE) {
-                                    if (token.text().toString().equals(variable)) {
-                                        bag.addHighlight(ts.offset(), ts.offset() + token.length(), defaultColors);
-                                    }
-                                }
-                                if (token.id() == PTokenId.STRING_LITERAL) {
-                                    String txt = token.text().toString();
-                                    int i = txt.indexOf(variable.replace("$", "${") + "}");
-                                    while (i > 0) {
-                                        bag.addHighlight(ts.offset() + i, ts.offset()  + i + variable.length() + 2, defaultColors);
-                                        i = txt.indexOf(variable.replace("$", "${") + "}", i + 1);
-                                    }
-                                }
-                            }
-                        }
-                    });
-                }
-            });
+        if (bag == null) {
+            doc.putProperty(MarkOccurrencesHighlighter.class, bag = new OffsetsBag(doc));
         }
-        lastRefreshTask.schedule(REFRESH_DELAY);
-    }
 
-    public OffsetsBag getHighlightsBag() {
         return bag;
     }
 
-}
\ No newline at end of file
+    @MimeRegistration(mimeType = PPConstants.MIME_TYPE, service = TaskFactory.class)
+    public static class Factory extends TaskFactory {
+
+        @Override
+        public Collection<? extends SchedulerTask> create(Snapshot snapshot) {
+            return Collections.singleton(new MarkOccurrencesHighlighter());
+        }
+    }
+}
@@ -19,7 +19,6 @@ package com.tropyx.nb_puppet.highlighter;
 import com.tropyx.nb_puppet.PPConstants;
 import com.tropyx.nb_puppet.lexer.PLanguageProvider;
 import com.tropyx.nb_puppet.semantic.SemanticColoring;
-import javax.swing.text.Document;
 import org.netbeans.api.editor.mimelookup.MimeRegistration;
 import org.netbeans.spi.editor.highlighting.HighlightsLayer;
 import org.netbeans.spi.editor.highlighting.HighlightsLayerFactory;
@@ -28,23 +27,13 @@ import org.netbeans.spi.editor.highlighting.ZOrder;
 @MimeRegistration(mimeType = PPConstants.MIME_TYPE, service = HighlightsLayerFactory.class)
 public class MarkOccurrencesHighlightsLayerFactory implements HighlightsLayerFactory {
 
-    public static MarkOccurrencesHighlighter getMarkOccurrencesHighlighter(Document doc) {
-        MarkOccurrencesHighlighter highlighter =
-               (MarkOccurrencesHighlighter) doc.getProperty(MarkOccurrencesHighlighter.class);
-        if (highlighter == null) {
-            doc.putProperty(MarkOccurrencesHighlighter.class,
-               highlighter = new MarkOccurrencesHighlighter(doc));
-        }
-        return highlighter;
-    }
-
     @Override
     public HighlightsLayer[] createLayers(Context context) {
         return new HighlightsLayer[] {
             HighlightsLayer.create(SemanticColoring.class.getName() + "-2", ZOrder.SYNTAX_RACK.forPosition(1500), false,
-                    SemanticColoring.getSemanticHighlightsBag(context.getDocument())),
+                    SemanticColoring.getSemanticHighlights(context.getDocument())),
             HighlightsLayer.create(MarkOccurrencesHighlighter.class.getName(), ZOrder.CARET_RACK.forPosition(2000), true,
-                            getMarkOccurrencesHighlighter(context.getDocument()).getHighlightsBag())
+                            MarkOccurrencesHighlighter.getHighlightsBag(context.getDocument()))
         };
     }
 
@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2015 mkleint
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tropyx.nb_puppet.indexer;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.openide.modules.InstalledFileLocator;
+
+/**
+ * resource types built into puppet (file, package, service,..). The stubs in <code>src/main/puppet42</code>
+ * are turned into a compact binary index at build time (see {@link #main(java.lang.String[])}),
+ * shipped as <code>modules/puppet42.idx</code> and memory mapped on first access,
+ * so completion has the types without waiting for the stubs to be indexed. Only completion uses it,
+ * the stubs stay on the source path and are indexed like any other manifests for Go to Type, Go to Symbol
+ * and hyperlinks. They also serve as a fallback when the index is missing.
+ * @author mkleint
+ */
+public final class BuiltinTypes {
+    private static final Logger LOG = Logger.getLogger(BuiltinTypes.class.getName());
+
+    static final String STUBS = "modules/puppet42"; //NOI18N
+    static final String INDEX = "modules/puppet42.idx"; //NOI18N
+    private static final String CODE_NAME_BASE = "com.tropyx.nb_puppet"; //NOI18N
+    /**
+     * "PPIX"
+     */
+    private static final int MAGIC = 0x50504958;
+    private static final int FORMAT_VERSION = 1;
+
+    private static final Pattern DEFINE = Pattern.compile("^\\s*define\\s+([\\w:]+)\\s*\\("); //NOI18N
+    private static final Pattern PARAM = Pattern.compile("^\\s*\\$(\\w+)\\s*(=)?[^,#]*,?\\s*(?:#\\s*(.*))?$"); //NOI18N
+
+    private static BuiltinTypes instance;
+
+    private final List<Type> types;
+    private final List<String> names;
+
+    private BuiltinTypes(List<Type> types) {
+        Collections.sort(types, new Comparator<Type>() {
+            @Override
+            public int compare(Type o1, Type o2) {
+                return o1.getName().compareTo(o2.getName());
+            }
+        });
+        this.types = Collections.unmodifiableList(types);
+        this.names = new ArrayList<>(types.size());
+        for (Type t : types) {
+            names.add(t.getName());
+        }
+    }
+
+    public static synchronized BuiltinTypes getDefault() {
+        if (instance == null) {
+            instance = new BuiltinTypes(load());
+        }
+        return instance;
+    }
+
+    private static List<Type> load() {
+        File index = InstalledFileLocator.getDefault().locate(INDEX, CODE_NAME_BASE, false);
+        if (index != null) {
+            try {
+                return readIndex(index);
+            } catch (IOException | RuntimeException ex) {
+                LOG.log(Level.INFO, "Cannot read " + index + ", falling back to parsing the stubs", ex);
+            }
+        }
+        File stubs = InstalledFileLocator.getDefault().locate(STUBS, CODE_NAME_BASE, false);
+        if (stubs != null) {
+            try {
+                return readStubs(stubs);
+            } catch (IOException ex) {
+                LOG.log(Level.INFO, null, ex);
+            }
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * @return all builtin types sorted by name
+     */
+    public List<Type> getTypes() {
+        return types;
+    }
+
+    /**
+     * @param name
+     * @return type of given name or null
+     */
+    public Type getType(String name) {
+        int index = Collections.binarySearch(names, name.toLowerCase(Locale.ENGLISH));
+        return index >= 0 ? types.get(index) : null;
+    }
+
+    /**
+     * @param prefix matched case insensitively, like {@link #getType(java.lang.String)}
+     * @return types whose name starts with prefix, sorted by name
+     */
+    public List<Type> findByPrefix(String prefix) {
+        String lower = prefix.toLowerCase(Locale.ENGLISH);
+        int index = Collections.binarySearch(names, lower);
+        List<Type> toRet = new ArrayList<>();
+        for (int i = index >= 0 ? index : -index - 1; i < names.size() && names.get(i).startsWith(lower); i++) {
+            toRet.add(types.get(i));
+        }
+        return toRet;
+    }
+
+    public static final class Type {
+        private final String name;
+        private final String file;
+        private final String[] params;
+        private final boolean[] required;
+        private final String[] descriptions;
+
+        Type(String name, String file, String[] params, boolean[] required, String[] descriptions) {
+            this.name = name;
+            this.file = file;
+            this.params = params;
+            this.required = required;
+            this.descriptions = descriptions;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return name of the stub file, relative to the stubs folder
+         */
+        public String getFile() {
+            return file;
+        }
+
+        public String[] getParams() {
+            return params.clone();
+        }
+
+        /**
+         * @return parameters without default value, same as {@link PPIndexer#FLD_REQ_PARAM}
+         */
+        public String[] getRequiredParams() {
+            List<String> toRet = new ArrayList<>();
+            for (int i = 0; i < params.length; i++) {
+                if (required[i]) {
+                    toRet.add(params[i]);
+                }
+            }
+            return toRet.toArray(new String[0]);
+        }
+
+        /**
+         * @param param
+         * @return the short description from the stub or null
+         */
+        public String getDescription(String param) {
+            int index = Arrays.asList(params).indexOf(param);
+            return index >= 0 && !descriptions[index].isEmpty() ? descriptions[index] : null;
+        }
+    }
+
+    /**
+     * reads the stub files, one define per file with one parameter per line
+     * @param dir
+     * @return
+     * @throws IOException
+     */
+    static List<Type> readStubs(File dir) throws IOException {
+        List<Type> toRet = new ArrayList<>();
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return toRet;
+        }
+        Arrays.sort(files);
+        for (File f : files) {
+            if (!f.getName().endsWith(".pp")) { //NOI18N
+                continue;
+            }
+            try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8))) {
+                String name = null;
+                List<String> params = new ArrayList<>();
+                List<Boolean> required = new ArrayList<>();
+                List<String> descriptions = new ArrayList<>();
+                String line;
+                while ((line = r.readLine()) != null) {
+                    if (name == null) {
+                        Matcher m = DEFINE.matcher(line);
+                        if (m.find()) {
+                            name = m.group(1);
+                        }
+                        continue;
+                    }
+                    if (line.trim().startsWith(")")) { //NOI18N
+                        break;
+                    }
+                    Matcher m = PARAM.matcher(line);
+                    if (m.find()) {
+                        params.add(m.group(1));
+                        required.add(m.group(2) == null);
+                        descriptions.add(m.group(3) != null ? m.group(3).trim() : "");
+                    }
+                }
+                if (name != null) {
+                    boolean[] req = new boolean[required.size()];
+                    for (int i = 0; i < req.length; i++) {
+                        req[i] = required.get(i);
+                    }
+                    toRet.add(new Type(name, f.getName(), params.toArray(new String[0]), req, descriptions.toArray(new String[0])));
+                }
+            }
+        }
+        return toRet;
+    }
+
+    static void writeIndex(List<Type> types, OutputStream os) throws IOException {
+        DataOutputStream out = new DataOutputStream(os);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(types.size());
+        for (Type t : types) {
+            writeString(out, t.name);
+            writeString(out, t.file);
+            out.writeInt(t.params.length);
+            for (int i = 0; i < t.params.length; i++) {
+                writeString(out, t.params[i]);
+                out.writeBoolean(t.required[i]);
+                writeString(out, t.descriptions[i]);
+            }
+        }
+        out.flush();
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static List<Type> readIndex(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); //NOI18N
+             FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return readIndex(buffer);
+        }
+    }
+
+    static List<Type> readIndex(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+            throw new IOException("Unknown index format"); //NOI18N
+        }
+        int count = buffer.getInt();
+        List<Type> toRet = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String name = readString(buffer);
+            String file = readString(buffer);
+            int paramCount = buffer.getInt();
+            String[] params = new String[paramCount];
+            boolean[] required = new boolean[paramCount];
+            String[] descriptions = new String[paramCount];
+            for (int j = 0; j < paramCount; j++) {
+                params[j] = readString(buffer);
+                required[j] = buffer.get() != 0;
+                descriptions[j] = readString(buffer);
+            }
+            toRet.add(new Type(name, file, params, required, descriptions));
+        }
+        return toRet;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * invoked during the build to write the binary index
+     * @param args stubs folder and the index file to write
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            throw new IllegalArgumentException("usage: BuiltinTypes <stubs folder> <index file>"); //NOI18N
+        }
+        List<Type> types = readStubs(new File(args[0]));
+        File out = new File(args[1]);
+        File parent = out.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create " + parent); //NOI18N
+        }
+        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(out))) {
+            writeIndex(types, os);
+        }
+    }
+}
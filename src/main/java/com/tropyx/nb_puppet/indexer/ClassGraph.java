@@ -0,0 +1,430 @@
+/*
+ * Copyright (C) 2015 mkleint
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tropyx.nb_puppet.indexer;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.netbeans.modules.parsing.spi.indexing.support.IndexResult;
+import org.netbeans.modules.parsing.spi.indexing.support.QuerySupport;
+import org.openide.filesystems.FileObject;
+
+/**
+ * In memory class dependency graph with forward and reverse adjacency.
+ * The edges are persisted in the index ({@link PPIndexer#FLD_CLASS_EDGE}, {@link PPIndexer#FLD_CLASS_DECL}),
+ * loaded lazily per source root and kept up to date by the indexer as files get reindexed or deleted.
+ * @author mkleint
+ */
+public final class ClassGraph {
+
+    private static final Logger LOG = Logger.getLogger(ClassGraph.class.getName());
+    private static final ClassGraph INSTANCE = new ClassGraph();
+
+    public enum Kind {
+        INCLUDE, REQUIRE, CONTAIN, INHERITS, RESOURCE,
+        /**
+         * Class['name'] references in relationships and metaparameters
+         */
+        REFERENCE;
+
+        static Kind forFunction(String name) {
+            switch (name) {
+                case "include" : return INCLUDE;
+                case "require" : return REQUIRE;
+                case "contain" : return CONTAIN;
+                default : return REFERENCE;
+            }
+        }
+    }
+
+    public static final class Edge {
+        private final Kind kind;
+        private final String from;
+        private final String to;
+        private final String file;
+        private final int offset;
+
+        public Edge(Kind kind, String from, String to, String file, int offset) {
+            this.kind = kind;
+            this.from = from;
+            this.to = to;
+            this.file = file;
+            this.offset = offset;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * @return name of the class, define or node (as <code>node name1, name2</code>) containing the reference
+         */
+        public String getFrom() {
+            return from;
+        }
+
+        public String getTo() {
+            return to;
+        }
+
+        /**
+         * @return url of the file containing the reference
+         */
+        public String getFile() {
+            return file;
+        }
+
+        /**
+         * @return offset of the referenced class name in file
+         */
+        public int getOffset() {
+            return offset;
+        }
+
+        String toIndexValue() {
+            return kind.name().toLowerCase(Locale.ENGLISH) + "|" + from + "|" + to + "|" + offset;
+        }
+
+        static Edge fromIndexValue(String value, String file) {
+            //node names can contain | in regexps, parse from both ends
+            int first = value.indexOf('|');
+            int last = value.lastIndexOf('|');
+            int beforeLast = value.lastIndexOf('|', last - 1);
+            if (first == -1 || beforeLast <= first) {
+                return null;
+            }
+            try {
+                return new Edge(Kind.valueOf(value.substring(0, first).toUpperCase(Locale.ENGLISH)),
+                        value.substring(first + 1, beforeLast),
+                        value.substring(beforeLast + 1, last),
+                        file,
+                        Integer.parseInt(value.substring(last + 1)));
+            } catch (IllegalArgumentException ex) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return from + " -" + kind + "-> " + to;
+        }
+
+    }
+
+    public static final class Declaration {
+        private final String name;
+        private final String file;
+        private final int offset;
+
+        public Declaration(String name, String file, int offset) {
+            this.name = name;
+            this.file = file;
+            this.offset = offset;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getFile() {
+            return file;
+        }
+
+        public int getOffset() {
+            return offset;
+        }
+
+        String toIndexValue() {
+            return name + "|" + offset;
+        }
+
+        static Declaration fromIndexValue(String value, String file) {
+            int idx = value.lastIndexOf('|');
+            if (idx == -1) {
+                return null;
+            }
+            try {
+                return new Declaration(value.substring(0, idx), file, Integer.parseInt(value.substring(idx + 1)));
+            } catch (NumberFormatException ex) {
+                return null;
+            }
+        }
+    }
+
+    private final Map<String, List<Edge>> edgesByFile = new HashMap<>();
+    private final Map<String, List<Declaration>> declarationsByFile = new HashMap<>();
+    private final Map<String, Set<Edge>> outgoing = new HashMap<>();
+    private final Map<String, Set<Edge>> incoming = new HashMap<>();
+    private final Map<String, Set<Declaration>> declarations = new HashMap<>();
+    private final Set<String> loadedRoots = new HashSet<>();
+    /**
+     * memoized transitive closures, invalidated along changed edges only
+     */
+    private final Map<String, Set<String>> closures = new HashMap<>();
+
+    private ClassGraph() {
+    }
+
+    public static ClassGraph getDefault() {
+        return INSTANCE;
+    }
+
+    /**
+     * replace the edges and declarations coming from the given file.
+     * @param file url of the file
+     */
+    synchronized void update(String file, List<Edge> edges, List<Declaration> decls) {
+        invalidateClosures(edgesByFile.get(file), edges);
+        removeImpl(file);
+        edgesByFile.put(file, edges);
+        declarationsByFile.put(file, decls);
+        for (Edge e : edges) {
+            multiAdd(outgoing, e.getFrom(), e);
+            multiAdd(incoming, e.getTo(), e);
+        }
+        for (Declaration d : decls) {
+            multiAdd(declarations, d.getName(), d);
+        }
+    }
+
+    synchronized void remove(String file) {
+        invalidateClosures(edgesByFile.get(file), Collections.<Edge>emptyList());
+        removeImpl(file);
+    }
+
+    private void invalidateClosures(List<Edge> oldEdges, List<Edge> newEdges) {
+        if (closures.isEmpty()) {
+            return;
+        }
+        Set<String> oldPairs = toClosurePairs(oldEdges);
+        Set<String> newPairs = toClosurePairs(newEdges);
+        Set<String> changedSources = new HashSet<>();
+        for (String pair : oldPairs) {
+            if (!newPairs.contains(pair)) {
+                changedSources.add(pair.substring(0, pair.indexOf('\n')));
+            }
+        }
+        for (String pair : newPairs) {
+            if (!oldPairs.contains(pair)) {
+                changedSources.add(pair.substring(0, pair.indexOf('\n')));
+            }
+        }
+        for (String source : changedSources) {
+            closures.remove(source);
+            for (String dependant : getDependants(source)) {
+                closures.remove(dependant);
+            }
+        }
+    }
+
+    private static Set<String> toClosurePairs(List<Edge> edges) {
+        Set<String> toRet = new HashSet<>();
+        if (edges != null) {
+            for (Edge e : edges) {
+                if (e.getKind() != Kind.REFERENCE) {
+                    toRet.add(e.getFrom() + "\n" + e.getTo());
+                }
+            }
+        }
+        return toRet;
+    }
+
+    private void removeImpl(String file) {
+        List<Edge> old = edgesByFile.remove(file);
+        if (old != null) {
+            for (Edge e : old) {
+                multiRemove(outgoing, e.getFrom(), e);
+                multiRemove(incoming, e.getTo(), e);
+            }
+        }
+        List<Declaration> oldDecls = declarationsByFile.remove(file);
+        if (oldDecls != null) {
+            for (Declaration d : oldDecls) {
+                multiRemove(declarations, d.getName(), d);
+            }
+        }
+    }
+
+    /**
+     * make sure the edges of the given source roots were read from the index.
+     * Cheap when the roots were loaded already.
+     * @param roots
+     */
+    public void ensureLoaded(Collection<FileObject> roots) {
+        List<FileObject> toLoad = new ArrayList<>();
+        synchronized (this) {
+            for (FileObject root : roots) {
+                if (!loadedRoots.contains(root.toURL().toString())) {
+                    toLoad.add(root);
+                }
+            }
+        }
+        for (FileObject root : toLoad) {
+            Map<String, List<Edge>> edges = new HashMap<>();
+            Map<String, List<Declaration>> decls = new HashMap<>();
+            try {
+                QuerySupport qs = QuerySupport.forRoots(PPIndexerFactory.INDEXER_TYPE, PPIndexerFactory.INDEXER_VERSION, root);
+                QuerySupport.Query.Factory qf = qs.getQueryFactory();
+                QuerySupport.Query query = qf.or(
+                        qf.field(PPIndexer.FLD_CLASS_EDGE, "", QuerySupport.Kind.PREFIX),
+                        qf.field(PPIndexer.FLD_CLASS_DECL, "", QuerySupport.Kind.PREFIX));
+                for (IndexResult res : query.execute(PPIndexer.FLD_CLASS_EDGE, PPIndexer.FLD_CLASS_DECL)) {
+                    String file = res.getUrl().toString();
+                    List<Edge> ee = new ArrayList<>();
+                    for (String val : res.getValues(PPIndexer.FLD_CLASS_EDGE)) {
+                        Edge e = Edge.fromIndexValue(val, file);
+                        if (e != null) {
+                            ee.add(e);
+                        }
+                    }
+                    List<Declaration> dd = new ArrayList<>();
+                    for (String val : res.getValues(PPIndexer.FLD_CLASS_DECL)) {
+                        Declaration d = Declaration.fromIndexValue(val, file);
+                        if (d != null) {
+                            dd.add(d);
+                        }
+                    }
+                    edges.put(file, ee);
+                    decls.put(file, dd);
+                }
+            } catch (IOException ex) {
+                LOG.log(Level.INFO, "Cannot load class graph for " + root, ex);
+                continue;
+            }
+            synchronized (this) {
+                for (Map.Entry<String, List<Edge>> entry : edges.entrySet()) {
+                    //the indexer might have been faster with a more recent content
+                    if (!edgesByFile.containsKey(entry.getKey())) {
+                        update(entry.getKey(), entry.getValue(), decls.get(entry.getKey()));
+                    }
+                }
+                loadedRoots.add(root.toURL().toString());
+            }
+        }
+    }
+
+    public synchronized Collection<Edge> getOutgoing(String name) {
+        Set<Edge> s = outgoing.get(name);
+        return s != null ? new ArrayList<>(s) : Collections.<Edge>emptyList();
+    }
+
+    public synchronized Collection<Edge> getIncoming(String name) {
+        Set<Edge> s = incoming.get(name);
+        return s != null ? new ArrayList<>(s) : Collections.<Edge>emptyList();
+    }
+
+    public synchronized Collection<Declaration> getDeclarations(String name) {
+        Set<Declaration> s = declarations.get(name);
+        return s != null ? new ArrayList<>(s) : Collections.<Declaration>emptyList();
+    }
+
+    /**
+     * impact analysis, all classes, defines and nodes that directly or transitively
+     * depend on the given class.
+     * @param name class name
+     * @return
+     */
+    public synchronized Set<String> getDependants(String name) {
+        Set<String> toRet = new LinkedHashSet<>();
+        Deque<String> queue = new ArrayDeque<>();
+        queue.add(name);
+        while (!queue.isEmpty()) {
+            Set<Edge> in = incoming.get(queue.poll());
+            if (in == null) {
+                continue;
+            }
+            for (Edge e : in) {
+                if (e.getKind() != Kind.REFERENCE && toRet.add(e.getFrom())) {
+                    queue.add(e.getFrom());
+                }
+            }
+        }
+        toRet.remove(name);
+        return toRet;
+    }
+
+    /**
+     * transitive closure of classes pulled in by the given class or node,
+     * following include, require, contain, inherits and resource-like class declarations.
+     * Results are memoized per class until an edge on the path changes.
+     * @param name class name or node (as <code>node name1, name2</code>)
+     * @return set of class names, in breadth first order
+     */
+    public synchronized Set<String> getClosure(String name) {
+        Set<String> cached = closures.get(name);
+        if (cached != null) {
+            return cached;
+        }
+        Set<String> toRet = new LinkedHashSet<>();
+        Deque<String> queue = new ArrayDeque<>();
+        queue.add(name);
+        while (!queue.isEmpty()) {
+            String current = queue.poll();
+            Set<String> known = current.equals(name) ? null : closures.get(current);
+            if (known != null) {
+                //no need to walk further, the memoized closure is complete
+                toRet.addAll(known);
+                continue;
+            }
+            Set<Edge> out = outgoing.get(current);
+            if (out == null) {
+                continue;
+            }
+            for (Edge e : out) {
+                if (e.getKind() != Kind.REFERENCE && toRet.add(e.getTo())) {
+                    queue.add(e.getTo());
+                }
+            }
+        }
+        toRet.remove(name);
+        Set<String> result = Collections.unmodifiableSet(toRet);
+        closures.put(name, result);
+        return result;
+    }
+
+    private static <T> void multiAdd(Map<String, Set<T>> map, String key, T value) {
+        Set<T> s = map.get(key);
+        if (s == null) {
+            s = new LinkedHashSet<>();
+            map.put(key, s);
+        }
+        s.add(value);
+    }
+
+    private static <T> void multiRemove(Map<String, Set<T>> map, String key, T value) {
+        Set<T> s = map.get(key);
+        if (s != null) {
+            s.remove(value);
+            if (s.isEmpty()) {
+                map.remove(key);
+            }
+        }
+    }
+}
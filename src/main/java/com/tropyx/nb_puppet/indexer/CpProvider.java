@@ -24,7 +24,7 @@ import java.util.concurrent.atomic.AtomicReference;
 import org.netbeans.api.java.classpath.ClassPath;
 import org.netbeans.api.project.Project;
 import org.netbeans.spi.java.classpath.ClassPathProvider;
-import org.netbeans.spi.java.classpath.support.ClassPathSupport;
+import org.netbeans.spi.java.classpath.ClassPathFactory;
 import org.netbeans.spi.project.ProjectServiceProvider;
 import org.openide.filesystems.FileObject;
 import org.openide.filesystems.FileUtil;
@@ -45,11 +45,8 @@ public class CpProvider implements ClassPathProvider {
         if (ClassPath.SOURCE.equals(type)) {
             ClassPath cp = CP.get();
             if (cp == null) {
-                FileObject fo = project.getProjectDirectory().getFileObject("manifests");
-                if (fo != null) {
-                    CP.compareAndSet(null, ClassPathSupport.createClassPath(fo, getBootstrapPuppet()));
-                    cp = CP.get();
-                }
+                CP.compareAndSet(null, ClassPathFactory.createClassPath(new ModulePath(project.getProjectDirectory(), getBootstrapPuppet())));
+                cp = CP.get();
             }
             return cp;
         }
@@ -57,8 +54,8 @@ public class CpProvider implements ClassPathProvider {
     }
 
     FileObject getBootstrapPuppet()  {
-        File f = InstalledFileLocator.getDefault().locate("modules/puppet42", "com.tropyx.nb_puppet", false);
-        return FileUtil.toFileObject(f);
+        File f = InstalledFileLocator.getDefault().locate(BuiltinTypes.STUBS, "com.tropyx.nb_puppet", false);
+        return f != null ? FileUtil.toFileObject(f) : null;
     }
 
 }
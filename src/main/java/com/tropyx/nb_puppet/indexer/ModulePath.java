@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2015 mkleint
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tropyx.nb_puppet.indexer;
+
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeSupport;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.netbeans.spi.java.classpath.ClassPathImplementation;
+import org.netbeans.spi.java.classpath.PathResourceImplementation;
+import org.netbeans.spi.java.classpath.support.ClassPathSupport;
+import org.openide.filesystems.FileAttributeEvent;
+import org.openide.filesystems.FileChangeListener;
+import org.openide.filesystems.FileEvent;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileRenameEvent;
+import org.openide.filesystems.FileUtil;
+import org.openide.util.RequestProcessor;
+
+/**
+ * source path of a puppet project: the project's manifests folder followed by the
+ * manifests of all modules on the modulepath. Order matters, roots are scanned in
+ * classpath order, so the project's own manifests come first, local modules (site/, hand written ones in modules/)
+ * next, modules installed from the Puppetfile and the builtin type stubs last. The stubs are on the path
+ * so that Go to Type/Symbol, where used and hyperlinks reach the builtin types, completion reads them
+ * from {@link BuiltinTypes} without waiting for the index.
+ * Modules installed from the Puppetfile are always on the path, being scanned last they don't delay
+ * the project's own manifests, and on later starts their unchanged files are skipped by content hash,
+ * see {@link PPIndexer}.
+ * @author mkleint
+ */
+class ModulePath implements ClassPathImplementation {
+    private static final Logger LOG = Logger.getLogger(ModulePath.class.getName());
+    private static final RequestProcessor RP = new RequestProcessor(ModulePath.class);
+
+    static final String PUPPETFILE = "Puppetfile"; //NOI18N
+    static final String ENVIRONMENT_CONF = "environment.conf"; //NOI18N
+    private static final List<String> DEFAULT_MODULEPATH = Arrays.asList("site", "modules"); //NOI18N
+    private static final Pattern MOD = Pattern.compile("^\\s*mod\\s+['\"]([^'\"]+)['\"]"); //NOI18N
+    private static final Pattern MODULEDIR = Pattern.compile("^\\s*moduledir\\s+['\"]([^'\"]+)['\"]"); //NOI18N
+    private static final Pattern MODULEPATH = Pattern.compile("^\\s*modulepath\\s*=\\s*(.*)$"); //NOI18N
+
+    private final FileObject projectDir;
+    private final FileObject bootstrap;
+    private final PropertyChangeSupport support = new PropertyChangeSupport(this);
+    private final Set<File> listeningOn = new LinkedHashSet<>();
+    private List<FileObject> roots;
+    private List<PathResourceImplementation> resources;
+
+    private final RequestProcessor.Task refresh = RP.create(new Runnable() {
+        @Override
+        public void run() {
+            List<FileObject> old;
+            List<FileObject> current = computeRoots();
+            synchronized (ModulePath.this) {
+                old = roots;
+                roots = current;
+                resources = null;
+            }
+            if (!current.equals(old)) {
+                support.firePropertyChange(PROP_RESOURCES, null, null);
+            }
+        }
+    });
+
+    private final FileChangeListener listener = new FileChangeListener() {
+        @Override
+        public void fileFolderCreated(FileEvent fe) {
+            refresh.schedule(200);
+        }
+
+        @Override
+        public void fileDataCreated(FileEvent fe) {
+            refresh.schedule(200);
+        }
+
+        @Override
+        public void fileChanged(FileEvent fe) {
+            refresh.schedule(200);
+        }
+
+        @Override
+        public void fileDeleted(FileEvent fe) {
+            refresh.schedule(200);
+        }
+
+        @Override
+        public void fileRenamed(FileRenameEvent fe) {
+            refresh.schedule(200);
+        }
+
+        @Override
+        public void fileAttributeChanged(FileAttributeEvent fe) {
+        }
+    };
+
+    /**
+     * @param projectDir
+     * @param bootstrap builtin type stubs, appended at the end, can be null
+     */
+    ModulePath(FileObject projectDir, FileObject bootstrap) {
+        this.projectDir = projectDir;
+        this.bootstrap = bootstrap;
+    }
+
+    @Override
+    public List<? extends PathResourceImplementation> getResources() {
+        synchronized (this) {
+            if (resources != null) {
+                return resources;
+            }
+        }
+        List<FileObject> current;
+        synchronized (this) {
+            current = roots;
+        }
+        if (current == null) {
+            current = computeRoots();
+        }
+        List<PathResourceImplementation> res = new ArrayList<>();
+        for (FileObject root : current) {
+            res.add(ClassPathSupport.createResource(root.toURL()));
+        }
+        synchronized (this) {
+            if (roots == null) {
+                roots = current;
+            }
+            resources = Collections.unmodifiableList(res);
+            return resources;
+        }
+    }
+
+    /**
+     * @return roots in scanning order
+     */
+    List<FileObject> computeRoots() {
+        Set<FileObject> local = new LinkedHashSet<>();
+        Set<FileObject> vendor = new LinkedHashSet<>();
+        FileObject manifests = projectDir.getFileObject("manifests"); //NOI18N
+        if (manifests != null && manifests.isFolder()) {
+            local.add(manifests);
+        }
+        Puppetfile puppetfile = readPuppetfile(projectDir.getFileObject(PUPPETFILE));
+        Set<File> listen = new LinkedHashSet<>();
+        File dir = FileUtil.toFile(projectDir);
+        if (dir != null) {
+            listen.add(new File(dir, PUPPETFILE));
+            listen.add(new File(dir, ENVIRONMENT_CONF));
+        }
+        List<String> modulepath = new ArrayList<>(readModulePath(projectDir.getFileObject(ENVIRONMENT_CONF)));
+        if (!modulepath.contains(puppetfile.moduleDir)) {
+            modulepath.add(puppetfile.moduleDir);
+        }
+        for (String path : modulepath) {
+            if (dir != null) {
+                listen.add(new File(dir, path));
+            }
+            FileObject modules = projectDir.getFileObject(path);
+            if (modules == null || !modules.isFolder()) {
+                continue;
+            }
+            boolean vendorDir = path.equals(puppetfile.moduleDir);
+            for (FileObject module : modules.getChildren()) {
+                FileObject mf = module.getFileObject("manifests"); //NOI18N
+                if (mf == null || !mf.isFolder()) {
+                    continue;
+                }
+                if (vendorDir && puppetfile.modules.contains(module.getNameExt())) {
+                    vendor.add(mf);
+                } else {
+                    local.add(mf);
+                }
+            }
+        }
+        updateListeners(listen);
+        List<FileObject> toRet = new ArrayList<>(local);
+        toRet.addAll(vendor);
+        if (bootstrap != null) {
+            toRet.add(bootstrap);
+        }
+        return toRet;
+    }
+
+    private void updateListeners(Set<File> listen) {
+        synchronized (listeningOn) {
+            for (File f : listeningOn) {
+                if (!listen.contains(f)) {
+                    FileUtil.removeFileChangeListener(listener, f);
+                }
+            }
+            for (File f : listen) {
+                if (!listeningOn.contains(f)) {
+                    FileUtil.addFileChangeListener(listener, f);
+                }
+            }
+            listeningOn.clear();
+            listeningOn.addAll(listen);
+        }
+    }
+
+    /**
+     * modulepath entries relative to the project, <code>$basemodulepath</code> and absolute paths
+     * are outside of the project and skipped
+     */
+    static List<String> readModulePath(FileObject environmentConf) {
+        if (environmentConf != null) {
+            try {
+                for (String line : environmentConf.asLines()) {
+                    Matcher m = MODULEPATH.matcher(line);
+                    if (m.find()) {
+                        List<String> toRet = new ArrayList<>();
+                        for (String entry : m.group(1).trim().split("[:;]")) { //NOI18N
+                            entry = entry.trim();
+                            if (!entry.isEmpty() && !entry.startsWith("$") && !entry.startsWith("/")) { //NOI18N
+                                toRet.add(entry);
+                            }
+                        }
+                        return toRet;
+                    }
+                }
+            } catch (IOException ex) {
+                LOG.log(Level.FINE, null, ex);
+            }
+        }
+        return DEFAULT_MODULEPATH;
+    }
+
+    static Puppetfile readPuppetfile(FileObject puppetfile) {
+        Puppetfile toRet = new Puppetfile();
+        if (puppetfile != null) {
+            try {
+                for (String line : puppetfile.asLines()) {
+                    Matcher m = MOD.matcher(line);
+                    if (m.find()) {
+                        //author/name, author-name or just name
+                        String name = m.group(1);
+                        int index = Math.max(name.lastIndexOf('/'), name.lastIndexOf('-'));
+                        toRet.modules.add(name.substring(index + 1));
+                        continue;
+                    }
+                    m = MODULEDIR.matcher(line);
+                    if (m.find()) {
+                        toRet.moduleDir = m.group(1);
+                    }
+                }
+            } catch (IOException ex) {
+                LOG.log(Level.FINE, null, ex);
+            }
+        }
+        return toRet;
+    }
+
+    static class Puppetfile {
+        String moduleDir = "modules"; //NOI18N
+        final Set<String> modules = new LinkedHashSet<>();
+    }
+
+    @Override
+    public void addPropertyChangeListener(PropertyChangeListener listener) {
+        support.addPropertyChangeListener(listener);
+    }
+
+    @Override
+    public void removePropertyChangeListener(PropertyChangeListener listener) {
+        support.removePropertyChangeListener(listener);
+    }
+
+}
@@ -17,36 +17,69 @@
 
 package com.tropyx.nb_puppet.indexer;
 
+import com.tropyx.nb_puppet.parser.PBlob;
+import com.tropyx.nb_puppet.parser.PCase;
 import com.tropyx.nb_puppet.parser.PClass;
 import com.tropyx.nb_puppet.parser.PClassParam;
 import com.tropyx.nb_puppet.parser.PClassRef;
+import com.tropyx.nb_puppet.parser.PCondition;
 import com.tropyx.nb_puppet.parser.PDefine;
 import com.tropyx.nb_puppet.parser.PElement;
 import com.tropyx.nb_puppet.parser.PFunction;
+import com.tropyx.nb_puppet.parser.PIdentifier;
+import com.tropyx.nb_puppet.parser.PNode;
 import com.tropyx.nb_puppet.parser.PParamContainer;
 import com.tropyx.nb_puppet.parser.PResource;
+import com.tropyx.nb_puppet.parser.PResourceAttribute;
+import com.tropyx.nb_puppet.parser.PString;
 import com.tropyx.nb_puppet.parser.PVariable;
 import com.tropyx.nb_puppet.parser.PVariableDefinition;
+import com.tropyx.nb_puppet.parser.PuppetParserFactory;
 import com.tropyx.nb_puppet.parser.PuppetParserResult;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.netbeans.modules.parsing.api.Snapshot;
+import org.netbeans.modules.parsing.api.Source;
+import org.netbeans.modules.parsing.spi.ParseException;
 import org.netbeans.modules.parsing.spi.Parser;
 import org.netbeans.modules.parsing.spi.indexing.Context;
-import org.netbeans.modules.parsing.spi.indexing.EmbeddingIndexer;
+import org.netbeans.modules.parsing.spi.indexing.CustomIndexer;
 import org.netbeans.modules.parsing.spi.indexing.Indexable;
 import org.netbeans.modules.parsing.spi.indexing.support.IndexDocument;
+import org.netbeans.modules.parsing.spi.indexing.support.IndexResult;
 import org.netbeans.modules.parsing.spi.indexing.support.IndexingSupport;
+import org.netbeans.modules.parsing.spi.indexing.support.QuerySupport;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.URLMapper;
+import org.openide.util.Pair;
+import org.openide.util.RequestProcessor;
 
-public class PPIndexer extends EmbeddingIndexer {
+public class PPIndexer extends CustomIndexer {
     public static final String FLD_VARREF = "varref";
     public static final String FLD_VAR = "var";
     public static final String FLD_PARAM = "param";
     public static final String FLD_REQ_PARAM = "reqparam"; //define, class parameter without default value
+    /**
+     * define, class parameter signature (name|type|default), type and default can be empty, stored
+     */
+    public static final String FLD_PARAM_SIG = "paramsig";
     public static final String FLD_INHERIT = "inherit";
     public static final String FLD_CLASSREF = "classref";
     public static final String FLD_FUNCTION = "function";
@@ -54,6 +87,14 @@ public class PPIndexer extends EmbeddingIndexer {
      * root class or define name, stored searcheable
      */
     public static final String FLD_ROOT = "root";
+    /**
+     * lowercase root name, searchable only -> stored is FLD_ROOT
+     */
+    public static final String FLD_ROOT_LOWER = "rootlower";
+    /**
+     * initials of root name segments, see {@link #initials(java.lang.String)}, searchable only
+     */
+    public static final String FLD_ROOT_INITIALS = "rootinit";
     /**
      * class name if file is class, searchable only -> stored is FLD_ROOT
      */
@@ -63,15 +104,83 @@ public class PPIndexer extends EmbeddingIndexer {
      */
     public static final String FLD_DEFINE = "define";
     public static final String FLD_RESOURCE = "resource";
-    
+    /**
+     * normalized resource reference (lowercase type[title]) for each resource declared
+     * with a literal title outside of if/unless/case, stored searchable, eg. file[/etc/motd] or class[apache::mod]
+     */
+    public static final String FLD_RESOURCE_REF = "resref";
+    /**
+     * class graph edge (kind|from|to|offset), stored searchable, see {@link ClassGraph}
+     */
+    public static final String FLD_CLASS_EDGE = "classedge";
+    /**
+     * class declaration (name|offset), stored searchable, see {@link ClassGraph}
+     */
+    public static final String FLD_CLASS_DECL = "classdecl";
+    /**
+     * every named declaration (kind|offset|name length|name|container), stored only, see {@link Symbol}
+     */
+    public static final String FLD_SYMBOL = "symbol";
+    /**
+     * symbol search names, searchable only -> stored is FLD_SYMBOL
+     */
+    public static final String FLD_SYMBOL_NAME = "symname";
+    /**
+     * lowercase symbol search names, searchable only
+     */
+    public static final String FLD_SYMBOL_LOWER = "symlower";
+    /**
+     * initials of symbol search names, see {@link #initials(java.lang.String)}, searchable only
+     */
+    public static final String FLD_SYMBOL_INITIALS = "syminit";
+    /**
+     * variable, function and resource attribute occurrence (v|offset|name, f|offset|name or a|offset|name), stored only,
+     * variable names without the dollar sign. Only valid while {@link #FLD_CONTENT_HASH} matches the file.
+     */
+    public static final String FLD_OCCURRENCE = "occurrence";
+    public static final String OCCURRENCE_VARIABLE = "v";
+    public static final String OCCURRENCE_FUNCTION = "f";
+    /**
+     * attribute of a define or resource like class declaration, named like the qualified
+     * parameter variable it sets (define::param, class::param), see {@link #getAttributeTarget(com.tropyx.nb_puppet.parser.PResource)}
+     */
+    public static final String OCCURRENCE_ATTRIBUTE = "a";
+    /**
+     * hash of the indexed file content, stored searchable, see {@link #contentHash(java.lang.CharSequence)}
+     */
+    public static final String FLD_CONTENT_HASH = "contenthash";
+    /**
+     * hash of all the other pairs written for the file, stored
+     */
+    static final String FLD_FACTS_HASH = "factshash";
+    /**
+     * relative path of the file in its root, searchable, to look up the stored hashes of one file
+     */
+    static final String FLD_PATH = "path";
+
     private static final Logger LOG = Logger.getLogger(PPIndexer.class.getName());
 
-    @Override
-    protected void index(Indexable indexable, Parser.Result parserResult, Context context) {
-        if (!(parserResult instanceof PuppetParserResult)) {
-            return;
+    /**
+     * number of files parsed in parallel ahead of the indexing thread
+     */
+    private static final int PARSE_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    private static final RequestProcessor RP = new RequestProcessor(PPIndexer.class.getName(), PARSE_THREADS, true);
+
+    private static final ThreadLocal<Parser> PARSER = new ThreadLocal<Parser>() {
+        @Override
+        protected Parser initialValue() {
+            return new PuppetParserFactory().createParser(Collections.<Snapshot>emptyList());
         }
+    };
+
+    private final PPIndexerFactory factory;
+
+    PPIndexer(PPIndexerFactory factory) {
+        this.factory = factory;
+    }
 
+    @Override
+    protected void index(Iterable<? extends Indexable> files, Context context) {
         IndexingSupport support;
         try {
             support = IndexingSupport.getInstance(context);
@@ -79,18 +188,222 @@ public class PPIndexer extends EmbeddingIndexer {
             LOG.log(Level.WARNING, null, ioe);
             return;
         }
-        // we need to remove old documents (document per object, not file)
-        support.removeDocuments(indexable);
+        long start = System.currentTimeMillis();
+        int count = 0;
+        int changed = 0;
+        int skipped = 0;
+        QuerySupport qs = querySupport(context);
+        //sliding window of files being parsed in parallel, documents are written on this thread
+        Deque<Pair<Indexable, Future<Parsed>>> window = new ArrayDeque<>();
+        Iterator<? extends Indexable> it = files.iterator();
+        while (it.hasNext() || !window.isEmpty()) {
+            while (it.hasNext() && window.size() < PARSE_THREADS * 4) {
+                final Indexable indexable = it.next();
+                final boolean dirty = factory.clearDirty(indexable);
+                final String[] stored = dirty ? null : loadStoredHashes(qs, indexable);
+                window.add(Pair.of((Indexable)indexable, RP.submit(new Callable<Parsed>() {
+                    @Override
+                    public Parsed call() throws Exception {
+                        return parse(indexable, stored);
+                    }
+                })));
+            }
+            Pair<Indexable, Future<Parsed>> next = window.poll();
+            if (context.isCancelled()) {
+                next.second().cancel(true);
+                cancel(window);
+                break;
+            }
+            try {
+                Parsed parsed = next.second().get();
+                if (parsed == null) {
+                    //file gone or not parseable, don't leave its old documents behind
+                    support.removeDocuments(next.first());
+                    ClassGraph.getDefault().remove(next.first().getURL().toString());
+                    changed++;
+                    continue;
+                }
+                if (parsed.result == null) {
+                    //content hash matched, the document was not rewritten
+                    skipped++;
+                } else {
+                    count++;
+                    if (index(support, next.first(), parsed)) {
+                        changed++;
+                    }
+                }
+            } catch (InterruptedException ex) {
+                cancel(window);
+                Thread.currentThread().interrupt();
+                break;
+            } catch (CancellationException ex) {
+                cancel(window);
+                break;
+            } catch (ExecutionException ex) {
+                LOG.log(Level.INFO, "Cannot parse " + next.first().getRelativePath(), ex.getCause());
+            }
+        }
+        factory.filesIndexed(count, changed, skipped, System.currentTimeMillis() - start);
+    }
+
+    private static void cancel(Deque<Pair<Indexable, Future<Parsed>>> window) {
+        for (Pair<Indexable, Future<Parsed>> p : window) {
+            p.second().cancel(true);
+        }
+        window.clear();
+    }
 
-        IndexDocument document = support.createDocument(indexable);
-        PuppetParserResult res = (PuppetParserResult) parserResult;
-        PElement root = res.getRootNode();
+    /**
+     * parses the file unless its content hash matches the stored one
+     * @param indexable
+     * @param stored content and facts hash from the index, null if the file has to be reindexed
+     * @return null for files that are gone
+     */
+    private static Parsed parse(Indexable indexable, String[] stored) throws ParseException {
+        FileObject fo = URLMapper.findFileObject(indexable.getURL());
+        if (fo == null || !fo.isValid()) {
+            return null;
+        }
+        Snapshot snapshot = Source.create(fo).createSnapshot();
+        String hash = contentHash(snapshot.getText());
+        if (stored != null && hash.equals(stored[0])) {
+            return new Parsed(null, hash, stored[1]);
+        }
+        Parser parser = PARSER.get();
+        parser.parse(snapshot, null, null);
+        Parser.Result result = parser.getResult(null);
+        return result instanceof PuppetParserResult 
+                ? new Parsed((PuppetParserResult) result, hash, stored != null ? stored[1] : null)
+                : null;
+    }
+
+    /**
+     * @param context
+     * @return query support for the index of the context's root, null if there's no root
+     */
+    static QuerySupport querySupport(Context context) {
+        FileObject root = context.getRoot();
+        if (root == null) {
+            return null;
+        }
+        try {
+            return QuerySupport.forRoots(PPIndexerFactory.INDEXER_TYPE, PPIndexerFactory.INDEXER_VERSION, root);
+        } catch (IOException ex) {
+            LOG.log(Level.FINE, null, ex);
+            return null;
+        }
+    }
+
+    /**
+     * @param qs can be null
+     * @param indexable
+     * @return content and facts hash stored for the file, null if not indexed yet
+     */
+    static String[] loadStoredHashes(QuerySupport qs, Indexable indexable) {
+        if (qs == null) {
+            return null;
+        }
+        try {
+            for (IndexResult res : qs.query(FLD_PATH, indexable.getRelativePath(), QuerySupport.Kind.EXACT, FLD_CONTENT_HASH, FLD_FACTS_HASH)) {
+                if (res.getValue(FLD_CONTENT_HASH) != null) {
+                    return new String[] {res.getValue(FLD_CONTENT_HASH), res.getValue(FLD_FACTS_HASH)};
+                }
+            }
+        } catch (IOException ex) {
+            LOG.log(Level.FINE, null, ex);
+        }
+        return null;
+    }
+
+    /**
+     * @param text
+     * @return hex encoded SHA-1 of the text
+     */
+    public static String contentHash(CharSequence text) {
+        return toHex(digest().digest(text.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1"); //NOI18N
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    private static final class Parsed {
+        final PuppetParserResult result;
+        final String contentHash;
+        final String factsHash;
+
+        Parsed(PuppetParserResult result, String contentHash, String factsHash) {
+            this.result = result;
+            this.contentHash = contentHash;
+            this.factsHash = factsHash;
+        }
+    }
+
+    /**
+     * collects the pairs of a file and hashes them without offsets, so that caches built from
+     * query results are only invalidated when the names, references or parameters have changed
+     */
+    private static final class Facts {
+        private final List<Object[]> pairs = new ArrayList<>();
+        private final MessageDigest digest = digest();
+
+        void addPair(String key, String value, boolean searchable, boolean stored) {
+            addPair(key, value, value, searchable, stored);
+        }
+
+        /**
+         * @param hashed the value without offsets, moving the text around leaves the facts hash unchanged
+         */
+        void addPair(String key, String value, String hashed, boolean searchable, boolean stored) {
+            pairs.add(new Object[] {key, value, searchable, stored});
+            digest.update(key.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte)0);
+            digest.update(hashed.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte)0);
+        }
+
+        String hash() {
+            return toHex(digest.digest());
+        }
+
+        void writeTo(IndexDocument document) {
+            for (Object[] pair : pairs) {
+                document.addPair((String)pair[0], (String)pair[1], (Boolean)pair[2], (Boolean)pair[3]);
+            }
+        }
+    }
+
+    /**
+     * @return false if only offsets changed, eg. after whitespace or comment edits
+     */
+    private boolean index(IndexingSupport support, Indexable indexable, Parsed parsed) {
+        Facts document = new Facts();
+        PElement root = parsed.result.getRootNode();
+        CharSequence text = parsed.result.getSnapshot().getText();
+        String file = indexable.getURL().toString();
+        List<ClassGraph.Edge> edges = new ArrayList<>();
+        List<ClassGraph.Declaration> decls = new ArrayList<>();
         for (PElement ch : root.getChildren()) {
             if (ch.getType() == PElement.CLASS) {
                 PClass cl = (PClass)ch;
                 String name = cl.getName();
+                decls.add(new ClassGraph.Declaration(name, file, cl.getNameIdentifier().getOffset()));
+                addSymbol(document, new Symbol(Symbol.Kind.CLASS, name, "", cl.getNameIdentifier().getOffset()));
                 document.addPair(FLD_ROOT, name, true, true);
                 document.addPair(FLD_CLASS, name, true, false);
+                addLookupNames(document, FLD_ROOT_LOWER, FLD_ROOT_INITIALS, name);
                 if (cl.getInherits() != null) {
                     document.addPair(FLD_CLASSREF, cl.getInherits().getName(), true, false);
                     document.addPair(FLD_INHERIT, cl.getInherits().getName(), true, true);
@@ -99,13 +412,23 @@ public class PPIndexer extends EmbeddingIndexer {
             if (ch.getType() == PElement.DEFINE) {
                 PDefine def = (PDefine)ch;
                 String name = def.getName();
+                addSymbol(document, new Symbol(Symbol.Kind.DEFINE, name, "", def.getNameOffset()));
                 document.addPair(FLD_ROOT, name, true, true);
                 document.addPair(FLD_DEFINE, name, true, false);
+                addLookupNames(document, FLD_ROOT_LOWER, FLD_ROOT_INITIALS, name);
+            }
+            if (ch.getType() == PElement.NODE) {
+                for (String name : ((PNode)ch).getNames()) {
+                    addSymbol(document, new Symbol(Symbol.Kind.NODE, name, "", ch.getOffset()));
+                }
             }
             if (ch instanceof PParamContainer) {
                 PParamContainer cl = (PParamContainer)ch;
+                String container = ch.getType() == PElement.CLASS ? ((PClass)ch).getName() : ((PDefine)ch).getName();
                 for (PClassParam param : cl.getParams()) {
+                    addSymbol(document, new Symbol(Symbol.Kind.PARAM, stripDollar(param.getVariable()), container, param.getOffset()));
                     document.addPair(FLD_PARAM, stripDollar(param.getVariable()), false, true);
+                    document.addPair(FLD_PARAM_SIG, paramSignature(param, text), false, true);
                     if (param.getDefaultValue() == null) {
                         document.addPair(FLD_REQ_PARAM, stripDollar(param.getVariable()), false, true);
                     }
@@ -114,10 +437,22 @@ public class PPIndexer extends EmbeddingIndexer {
             List<PClassRef> refs = ch.getChildrenOfType(PClassRef.class, true);
             for (PClassRef ref : refs) {
                 document.addPair(FLD_CLASSREF, ref.getName(), true, false);
+                ClassGraph.Edge edge = createEdge(ref, file);
+                if (edge != null) {
+                    edges.add(edge);
+                }
+            }
+            for (PClass nested : ch.getChildrenOfType(PClass.class, true)) {
+                decls.add(new ClassGraph.Declaration(nested.getName(), file, nested.getNameIdentifier().getOffset()));
+                addSymbol(document, new Symbol(Symbol.Kind.CLASS, nested.getName(), containerOf(nested), nested.getNameIdentifier().getOffset()));
             }
             List<PVariableDefinition> varDefs = ch.getChildrenOfType(PVariableDefinition.class, true);
             for (PVariableDefinition vd : varDefs) {
                 document.addPair(FLD_VAR, stripDollar(vd.getName()), true, true);
+                if (!(vd.getParent() instanceof PClassParam)) {
+                    //params are added above
+                    addSymbol(document, new Symbol(Symbol.Kind.VARIABLE, stripDollar(vd.getName()), containerOf(vd), vd.getOffset()));
+                }
                 document.addPair(FLD_VARREF, stripDollar(vd.getName()), true, false);
             }
             List<PVariable> vars = ch.getChildrenOfType(PVariable.class, true);
@@ -127,12 +462,23 @@ public class PPIndexer extends EmbeddingIndexer {
             List<PResource> resources = ch.getChildrenOfType(PResource.class, true);
             Set<String> resNames = new HashSet<>();
 
+            Set<String> resRefs = new HashSet<>();
             for (PResource r : resources) {
                 resNames.add(r.getResourceType());
+                for (PElement title : getResourceTitles(r)) {
+                    String ref = toResourceRef(r.getResourceType(), getTitleValue(title));
+                    if (!isConditional(r)) {
+                        resRefs.add(ref);
+                    }
+                    addSymbol(document, new Symbol(Symbol.Kind.RESOURCE, ref, containerOf(r), title.getOffset()));
+                }
             }
             for (String r : resNames) {
                 document.addPair(FLD_RESOURCE, r, true, false);
             }
+            for (String r : resRefs) {
+                document.addPair(FLD_RESOURCE_REF, r, true, true);
+            }
             Set<String> fNames = new HashSet<>();
             List<PFunction> funcs = ch.getChildrenOfType(PFunction.class, true);
             for (PFunction r : funcs) {
@@ -142,7 +488,322 @@ public class PPIndexer extends EmbeddingIndexer {
                 document.addPair(FLD_FUNCTION, f, true, false);
             }
         }
-        support.addDocument(document);
+        for (PVariable v : root.getChildrenOfType(PVariable.class, true)) {
+            addOccurrence(document, OCCURRENCE_VARIABLE, v.getOffset(), stripDollar(v.getName()));
+        }
+        for (PVariableDefinition vd : root.getChildrenOfType(PVariableDefinition.class, true)) {
+            addOccurrence(document, OCCURRENCE_VARIABLE, vd.getOffset(), stripDollar(vd.getName()));
+        }
+        for (PFunction f : root.getChildrenOfType(PFunction.class, true)) {
+            addOccurrence(document, OCCURRENCE_FUNCTION, f.getOffset(), f.getName());
+        }
+        for (PResource r : root.getChildrenOfType(PResource.class, true)) {
+            String target = getAttributeTarget(r);
+            if (target != null) {
+                for (PResourceAttribute attr : r.getAtributes()) {
+                    addOccurrence(document, OCCURRENCE_ATTRIBUTE, attr.getOffset(), target + "::" + attr.getName());
+                }
+            }
+        }
+        for (ClassGraph.Edge edge : edges) {
+            document.addPair(FLD_CLASS_EDGE, edge.toIndexValue(), edge.getKind() + "|" + edge.getFrom() + "|" + edge.getTo(), true, true);
+        }
+        for (ClassGraph.Declaration decl : decls) {
+            document.addPair(FLD_CLASS_DECL, decl.toIndexValue(), decl.getName(), true, true);
+        }
+        String factsHash = document.hash();
+        boolean changed = !factsHash.equals(parsed.factsHash);
+        // we need to remove old documents (document per object, not file)
+        //the document is rewritten even with unchanged facts, the offsets and the content hash have to match the file
+        support.removeDocuments(indexable);
+        IndexDocument doc = support.createDocument(indexable);
+        document.writeTo(doc);
+        doc.addPair(FLD_PATH, indexable.getRelativePath(), true, false);
+        doc.addPair(FLD_CONTENT_HASH, parsed.contentHash, true, true);
+        doc.addPair(FLD_FACTS_HASH, factsHash, false, true);
+        support.addDocument(doc);
+        //only replaces the offsets when the edges are the same
+        ClassGraph.getDefault().update(file, edges, decls);
+        return changed;
+    }
+
+    private static void addOccurrence(Facts document, String kind, int offset, String name) {
+        document.addPair(FLD_OCCURRENCE, kind + "|" + offset + "|" + name, kind + "|" + name, false, true);
+    }
+
+    private static void addSymbol(Facts document, Symbol symbol) {
+        document.addPair(FLD_SYMBOL, symbol.toIndexValue(),
+                symbol.getKind() + "|" + symbol.getName() + "|" + symbol.getContainer(), false, true);
+        for (String name : symbol.getSearchNames()) {
+            document.addPair(FLD_SYMBOL_NAME, name, true, false);
+            addLookupNames(document, FLD_SYMBOL_LOWER, FLD_SYMBOL_INITIALS, name);
+        }
+    }
+
+    private static String containerOf(PElement el) {
+        String container = getContainerName(el);
+        return container != null ? container : "";
+    }
+
+    private static void addLookupNames(Facts document, String lowerField, String initialsField, String name) {
+        document.addPair(lowerField, name.toLowerCase(Locale.ENGLISH), true, false);
+        String initials = initials(name);
+        if (!initials.isEmpty()) {
+            document.addPair(initialsField, initials, true, false);
+        }
+    }
+
+    /**
+     * @param name
+     * @return name split on <code>::</code> and <code>_</code>, empty segments are dropped
+     */
+    public static List<String> segments(String name) {
+        List<String> toRet = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '_' || c == ':') {
+                if (i > start) {
+                    toRet.add(name.substring(start, i));
+                }
+                start = i + 1;
+            }
+        }
+        if (start < name.length()) {
+            toRet.add(name.substring(start));
+        }
+        return toRet;
+    }
+
+    /**
+     * @param name
+     * @return lowercase first characters of the name segments, eg. <code>pb</code> for <code>profile::base</code>
+     */
+    public static String initials(String name) {
+        StringBuilder sb = new StringBuilder();
+        for (String seg : segments(name)) {
+            sb.append(Character.toLowerCase(seg.charAt(0)));
+        }
+        return sb.toString();
+    }
+
+    private static ClassGraph.Edge createEdge(PClassRef ref, String file) {
+        PElement parent = ref.getParent();
+        ClassGraph.Kind kind;
+        if (parent instanceof PFunction) {
+            kind = ClassGraph.Kind.forFunction(((PFunction)parent).getName());
+        } else if (parent instanceof PClass && ((PClass)parent).getInherits() == ref) {
+            kind = ClassGraph.Kind.INHERITS;
+        } else if (parent instanceof PResource) {
+            kind = ClassGraph.Kind.RESOURCE;
+        } else {
+            kind = ClassGraph.Kind.REFERENCE;
+        }
+        String from = getContainerName(ref);
+        if (from == null) {
+            //top scope, eg. include in site.pp
+            from = getTopScopeName(file);
+        }
+        String to = ref.getName();
+        int offset = ref.getNameIdentifier().getOffset();
+        if (to.startsWith("::")) {
+            //the offset points at the stripped name, the length of which consumers use
+            to = to.substring(2);
+            offset = offset + 2;
+        }
+        return new ClassGraph.Edge(kind, from, to, file, offset);
+    }
+
+    /**
+     * @param file url of the manifest
+     * @return source of class graph edges outside of any class, define or node, <code>file site.pp</code>
+     */
+    public static String getTopScopeName(String file) {
+        return "file " + file.substring(file.lastIndexOf('/') + 1); //NOI18N
+    }
+
+    /**
+     * name of the closest class, define or node containing the element,
+     * nodes are represented as <code>node name1, name2</code>
+     * @param el
+     * @return
+     */
+    public static String getContainerName(PElement el) {
+        PElement parent = el.getParent();
+        while (parent != null) {
+            if (parent.isType(PElement.CLASS)) {
+                return ((PClass)parent).getName();
+            }
+            if (parent.isType(PElement.DEFINE)) {
+                return ((PDefine)parent).getName();
+            }
+            if (parent.isType(PElement.NODE)) {
+                return getNodeName((PNode)parent);
+            }
+            parent = parent.getParent();
+        }
+        return null;
+    }
+
+    /**
+     * the literal title elements of the resource, array titles are expanded,
+     * variables and other computed titles are skipped.
+     * @param resource
+     * @return list of PString or PClassRef elements
+     */
+    public static List<PElement> getResourceTitles(PResource resource) {
+        List<PElement> toRet = new ArrayList<>();
+        PElement title = resource.getTitle();
+        if (title == null) {
+            return toRet;
+        }
+        if (title.isType(PElement.CLASS_REF) || isLiteralString(title)) {
+            toRet.add(title);
+        } else if (title.isType(PElement.BLOB)) {
+            for (PElement ch : title.getChildren()) {
+                if (isLiteralString(ch)) {
+                    toRet.add(ch);
+                }
+            }
+        }
+        return toRet;
+    }
+
+    /**
+     * @param element
+     * @return true if the element is inside an if, unless or case statement
+     */
+    public static boolean isConditional(PElement element) {
+        PElement parent = element.getParent();
+        while (parent != null) {
+            if (parent instanceof PCondition || parent instanceof PCase) {
+                return true;
+            }
+            parent = parent.getParent();
+        }
+        return false;
+    }
+
+    private static boolean isLiteralString(PElement el) {
+        //interpolated strings have variable children
+        return el.isType(PElement.STRING) && el.getChildren().isEmpty() && !((PString)el).getValue().isEmpty();
+    }
+
+    public static String getTitleValue(PElement title) {
+        if (title.isType(PElement.CLASS_REF)) {
+            String name = ((PClassRef)title).getName();
+            return name.startsWith("::") ? name.substring(2) : name;
+        }
+        return ((PString)title).getValue();
+    }
+
+    /**
+     * normalized form of a resource reference as stored in {@link #FLD_RESOURCE_REF}
+     * @param type resource type as written in the manifest
+     * @param title resource title without quotes
+     * @return
+     */
+    public static String toResourceRef(String type, String title) {
+        return type.toLowerCase(Locale.ENGLISH) + "[" + title + "]";
+    }
+
+    /**
+     * @param resource
+     * @return the class or define whose parameters the attributes set, null for builtin types and
+     * class declarations without a literal title
+     */
+    public static String getAttributeTarget(PResource resource) {
+        String type = resource.getResourceType().toLowerCase(Locale.ENGLISH);
+        if ("class".equals(type)) { //NOI18N
+            PElement title = resource.getTitle();
+            return title != null && title.isType(PElement.CLASS_REF) ? getTitleValue(title) : null;
+        }
+        type = type.startsWith("::") ? type.substring(2) : type;
+        return BuiltinTypes.getDefault().getType(type) != null ? null : type;
+    }
+
+    /**
+     * @param param
+     * @param text source text of the file
+     * @return value stored in {@link #FLD_PARAM_SIG}, <code>name|type|default</code>
+     */
+    static String paramSignature(PClassParam param, CharSequence text) {
+        return stripDollar(param.getVariable()) + "|" //NOI18N
+                + (param.getTypeType() != null ? param.getTypeType() : "") + "|" //NOI18N
+                + describeValue(param.getDefaultValue(), text);
+    }
+
+    /**
+     * short textual form of a parameter default value
+     * @param value
+     * @param text source text of the file the value was parsed from
+     * @return empty string for null
+     */
+    public static String describeValue(PElement value, CharSequence text) {
+        if (value == null) {
+            return "";
+        }
+        if (value.getType() == PElement.BLOB) {
+            //defaults are parsed as blobs spanning from the = to the terminating , or )
+            String source = sourceOf((PBlob) value, text);
+            if (source != null) {
+                return source;
+            }
+            if (value.getChildren().size() == 1) {
+                return describeValue(value.getChildren().get(0), text);
+            }
+        }
+        switch (value.getType()) {
+            case PElement.STRING:
+                return "'" + ((PString)value).getValue() + "'";
+            case PElement.VARIABLE:
+                return ((PVariable)value).getName();
+            case PElement.IDENTIFIER:
+                return ((PIdentifier)value).getName();
+            case PElement.CLASS_REF:
+                return ((PClassRef)value).getName();
+            case PElement.ARRAY:
+                return "[...]";
+            case PElement.HASH:
+                return "{...}";
+            default:
+                return "...";
+        }
+    }
+
+    private static final int MAX_VALUE_LENGTH = 40;
+
+    private static String sourceOf(PBlob blob, CharSequence text) {
+        int start = blob.getOffset();
+        int end = Math.min(blob.getEndOffset(), text.length());
+        if (start < 0 || start >= end) {
+            return null;
+        }
+        String source = text.subSequence(start, end).toString().trim();
+        if (source.startsWith("=")) { //NOI18N
+            source = source.substring(1);
+        }
+        if (source.endsWith(",") || source.endsWith(")")) { //NOI18N
+            source = source.substring(0, source.length() - 1);
+        }
+        source = source.trim().replaceAll("\\s+", " "); //NOI18N
+        if (source.isEmpty() || source.length() > MAX_VALUE_LENGTH) {
+            return null;
+        }
+        return source;
+    }
+
+    /**
+     * @param node
+     * @return name of the node as used in the class graph, <code>node name1, name2</code>
+     */
+    public static String getNodeName(PNode node) {
+        StringBuilder sb = new StringBuilder("node ");
+        String[] names = node.getNames();
+        for (int i = 0; i < names.length; i++) {
+            sb.append(i > 0 ? ", " : "").append(names[i]);
+        }
+        return sb.toString();
     }
 
     private String stripDollar(String s) {
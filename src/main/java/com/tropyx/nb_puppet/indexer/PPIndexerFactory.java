@@ -21,39 +21,102 @@ import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.text.Document;
 import org.netbeans.api.java.classpath.ClassPath;
 import org.netbeans.api.java.classpath.GlobalPathRegistry;
 import org.netbeans.modules.editor.NbEditorUtilities;
-import org.netbeans.modules.parsing.api.Snapshot;
+import org.netbeans.modules.parsing.api.Source;
 import org.netbeans.modules.parsing.spi.indexing.Context;
-import org.netbeans.modules.parsing.spi.indexing.EmbeddingIndexer;
-import org.netbeans.modules.parsing.spi.indexing.EmbeddingIndexerFactory;
+import org.netbeans.modules.parsing.spi.indexing.CustomIndexer;
+import org.netbeans.modules.parsing.spi.indexing.CustomIndexerFactory;
 import org.netbeans.modules.parsing.spi.indexing.Indexable;
 import org.netbeans.modules.parsing.spi.indexing.support.IndexingSupport;
 import org.netbeans.modules.parsing.spi.indexing.support.QuerySupport;
 import org.openide.filesystems.FileObject;
+import org.openide.filesystems.URLMapper;
 
-public class PPIndexerFactory extends EmbeddingIndexerFactory {
+/**
+ * custom indexer factory, the infrastructure hands us all changed manifests of a root at once
+ * and {@link PPIndexer} parses them in parallel.
+ * @author mkleint
+ */
+public class PPIndexerFactory extends CustomIndexerFactory {
     public static final String INDEXER_TYPE = "puppet";
-    public static final int INDEXER_VERSION = 1;
+    public static final int INDEXER_VERSION = 18;
 
     private static final Logger LOG = Logger.getLogger(PPIndexerFactory.class.getName());
 
+    /**
+     * incremented whenever documents were written or removed, see {@link #getIndexStamp()}
+     */
+    private static final AtomicLong STAMP = new AtomicLong();
+
+    private final AtomicInteger indexedFiles = new AtomicInteger();
+    private final AtomicInteger skippedFiles = new AtomicInteger();
+    private final AtomicLong indexingTime = new AtomicLong();
+    /**
+     * urls of files whose documents were marked dirty, these have to be rewritten on next indexing
+     */
+    private final Set<String> markedDirty = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
     public PPIndexerFactory() {
     }
 
     @Override
     public void scanFinished(Context context) {
         super.scanFinished(context);
+        int files = indexedFiles.getAndSet(0);
+        int skipped = skippedFiles.getAndSet(0);
+        long time = indexingTime.getAndSet(0);
+        if (files + skipped > 0 && LOG.isLoggable(Level.FINE)) {
+            LOG.log(Level.FINE, "Indexed {0} manifests, {1} unchanged skipped, in {2} ms ({3} files/s) under {4}",
+                    new Object[] {files, skipped, time, time > 0 ? (files + skipped) * 1000 / time : files + skipped, context.getRootURI()});
+        }
     }
 
     @Override
     public boolean scanStarted(Context context) {
+        indexedFiles.set(0);
+        skippedFiles.set(0);
+        indexingTime.set(0);
         return super.scanStarted(context);
     }
+
+    /**
+     * @return a value that changes whenever the content of the index changes,
+     * for caches built from query results
+     */
+    public static long getIndexStamp() {
+        return STAMP.get();
+    }
+
+    /**
+     * @param count files whose documents were rewritten
+     * @param changed rewritten files with changed names, references or parameters
+     * @param skipped unchanged files, not rewritten
+     * @param millis
+     */
+    void filesIndexed(int count, int changed, int skipped, long millis) {
+        if (changed > 0) {
+            STAMP.incrementAndGet();
+        }
+        indexedFiles.addAndGet(count);
+        skippedFiles.addAndGet(skipped);
+        indexingTime.addAndGet(millis);
+    }
+
+    /**
+     * @return true if the file's documents were marked dirty since it was last indexed
+     */
+    boolean clearDirty(Indexable indexable) {
+        return markedDirty.remove(indexable.getURL().toString());
+    }
     
 
     @Override
@@ -62,7 +125,10 @@ public class PPIndexerFactory extends EmbeddingIndexerFactory {
             IndexingSupport is = IndexingSupport.getInstance(context);
             for (Indexable i : deleted) {
                 is.removeDocuments(i);
+                markedDirty.remove(i.getURL().toString());
+                ClassGraph.getDefault().remove(i.getURL().toString());
             }
+            STAMP.incrementAndGet();
         } catch (IOException ioe) {
             LOG.log(Level.WARNING, null, ioe);
         }
@@ -72,14 +138,29 @@ public class PPIndexerFactory extends EmbeddingIndexerFactory {
     public void filesDirty(Iterable<? extends Indexable> dirty, Context context) {
         try {
             IndexingSupport is = IndexingSupport.getInstance(context);
+            QuerySupport qs = PPIndexer.querySupport(context);
             for (Indexable i : dirty) {
+                //saved without change or checked out the same content again
+                String[] hashes = PPIndexer.loadStoredHashes(qs, i);
+                if (hashes != null && hashes[0] != null && hashes[0].equals(currentHash(i))) {
+                    continue;
+                }
                 is.markDirtyDocuments(i);
+                markedDirty.add(i.getURL().toString());
             }
         } catch (IOException ioe) {
             LOG.log(Level.WARNING, null, ioe);
         }
     }
 
+    private static String currentHash(Indexable indexable) {
+        FileObject fo = URLMapper.findFileObject(indexable.getURL());
+        if (fo == null || !fo.isValid()) {
+            return null;
+        }
+        return PPIndexer.contentHash(Source.create(fo).createSnapshot().getText());
+    }
+
     @Override
     public String getIndexerName() {
         return INDEXER_TYPE;
@@ -91,11 +172,25 @@ public class PPIndexerFactory extends EmbeddingIndexerFactory {
     }
 
     @Override
-    public EmbeddingIndexer createIndexer(Indexable indexable, Snapshot snapshot) {
-        return new PPIndexer();
+    public CustomIndexer createIndexer() {
+        return new PPIndexer(this);
+    }
+
+    @Override
+    public boolean supportsEmbeddedIndexers() {
+        return false;
     }
     
     public static QuerySupport getQuerySupportFor(final Document document, boolean allOpenProjects) throws IOException {
+        return QuerySupport.forRoots(PPIndexerFactory.INDEXER_TYPE, PPIndexerFactory.INDEXER_VERSION, getRootsFor(document, allOpenProjects));
+    }
+
+    /**
+     * @param document
+     * @param allOpenProjects
+     * @return source roots of the document's project or of all open projects
+     */
+    public static FileObject[] getRootsFor(final Document document, boolean allOpenProjects) {
         FileObject fo = NbEditorUtilities.getFileObject(document);
         Collection<FileObject> roots;
         if (allOpenProjects) {
@@ -108,7 +203,7 @@ public class PPIndexerFactory extends EmbeddingIndexerFactory {
                 roots = Collections.emptyList();
             }
         }
-        return QuerySupport.forRoots(PPIndexerFactory.INDEXER_TYPE, PPIndexerFactory.INDEXER_VERSION, roots.toArray(new FileObject[0]));
+        return roots.toArray(new FileObject[0]);
     }
 
 
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2015 mkleint
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tropyx.nb_puppet.indexer;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * named thing declared in a manifest, as stored in {@link PPIndexer#FLD_SYMBOL}
+ * (kind|offset|name length|name|container). Enough to show and open it without touching the file.
+ * @author mkleint
+ */
+public final class Symbol {
+
+    public enum Kind {
+        CLASS, DEFINE, NODE, PARAM, VARIABLE,
+        /**
+         * resource with a literal title, the name is the normalized reference, eg. file[/etc/motd]
+         */
+        RESOURCE
+    }
+
+    private final Kind kind;
+    private final String name;
+    private final String container;
+    private final int offset;
+
+    public Symbol(Kind kind, String name, String container, int offset) {
+        this.kind = kind;
+        this.name = name;
+        this.container = container;
+        this.offset = offset;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return enclosing class, define or node name, empty string for top level declarations
+     */
+    public String getContainer() {
+        return container;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the names the symbol can be found by, resources also by their title alone
+     */
+    public List<String> getSearchNames() {
+        if (kind == Kind.RESOURCE) {
+            int idx = name.indexOf('[');
+            if (idx != -1 && name.endsWith("]")) {
+                return Arrays.asList(name, name.substring(idx + 1, name.length() - 1));
+            }
+        }
+        return Collections.singletonList(name);
+    }
+
+    String toIndexValue() {
+        return kind.name() + "|" + offset + "|" + name.length() + "|" + name + "|" + container;
+    }
+
+    /**
+     * resource titles and node regexps can contain the separator, so the name
+     * is length prefixed and the container comes last
+     * @param value
+     * @return null for malformed values
+     */
+    public static Symbol fromIndexValue(String value) {
+        int first = value.indexOf('|');
+        int second = first != -1 ? value.indexOf('|', first + 1) : -1;
+        int third = second != -1 ? value.indexOf('|', second + 1) : -1;
+        if (third == -1) {
+            return null;
+        }
+        try {
+            int nameEnd = third + 1 + Integer.parseInt(value.substring(second + 1, third));
+            if (nameEnd < third + 1 || nameEnd >= value.length() || value.charAt(nameEnd) != '|') {
+                return null;
+            }
+            return new Symbol(Kind.valueOf(value.substring(0, first)), value.substring(third + 1, nameEnd),
+                    value.substring(nameEnd + 1), Integer.parseInt(value.substring(first + 1, second)));
+        } catch (IllegalArgumentException ex) {
+            //NumberFormatException included
+            return null;
+        }
+    }
+}
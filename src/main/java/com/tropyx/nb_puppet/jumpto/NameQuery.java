@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2015 mkleint
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tropyx.nb_puppet.jumpto;
+
+import com.tropyx.nb_puppet.indexer.PPIndexer;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+import org.netbeans.modules.parsing.spi.indexing.support.IndexResult;
+import org.netbeans.modules.parsing.spi.indexing.support.QuerySupport;
+import org.netbeans.spi.jumpto.type.SearchType;
+
+/**
+ * translates Go to Type/Symbol searches into prefix or exact queries over a name field
+ * and its lowercase and initials companions, see {@link PPIndexer#FLD_ROOT_LOWER}. Candidates are
+ * then filtered by {@link #matches(java.lang.String) }.
+ * @author mkleint
+ */
+final class NameQuery {
+    private final SearchType type;
+    private final String text;
+    private final Pattern pattern;
+    private final List<String> camelSegments;
+
+    NameQuery(SearchType type, String text) {
+        this.type = type;
+        this.text = text;
+        if (type == SearchType.REGEXP || type == SearchType.CASE_INSENSITIVE_REGEXP) {
+            String regexp = wildcardsToRegexp(text);
+            this.pattern = type == SearchType.REGEXP ? Pattern.compile(regexp) : Pattern.compile(regexp, Pattern.CASE_INSENSITIVE);
+        } else {
+            this.pattern = null;
+        }
+        this.camelSegments = type == SearchType.CAMEL_CASE ? camelSegments(text) : null;
+    }
+
+    /**
+     * @param qs
+     * @param field stored name field
+     * @param lowerField lowercase companion of field
+     * @param initialsField initials companion of field
+     * @param retrieve fields to load
+     * @return candidates, to be checked with {@link #matches(java.lang.String) } as documents hold several names
+     */
+    Collection<? extends IndexResult> execute(QuerySupport qs, String field, String lowerField, String initialsField, String... retrieve) throws IOException {
+        switch (type) {
+            case EXACT_NAME:
+                return qs.query(field, text, QuerySupport.Kind.EXACT, retrieve);
+            case PREFIX:
+                return qs.query(field, text, QuerySupport.Kind.PREFIX, retrieve);
+            case CASE_INSENSITIVE_EXACT_NAME:
+                return qs.query(lowerField, text.toLowerCase(Locale.ENGLISH), QuerySupport.Kind.EXACT, retrieve);
+            case CASE_INSENSITIVE_PREFIX:
+                return qs.query(lowerField, text.toLowerCase(Locale.ENGLISH), QuerySupport.Kind.PREFIX, retrieve);
+            case CAMEL_CASE:
+                StringBuilder initials = new StringBuilder();
+                for (String seg : camelSegments) {
+                    initials.append(seg.charAt(0));
+                }
+                return qs.query(initialsField, initials.toString(), QuerySupport.Kind.PREFIX, retrieve);
+            default:
+                //regexp, narrow down by the literal prefix before the first wildcard if there is one
+                String prefix = literalPrefix(text);
+                if (prefix.isEmpty()) {
+                    return qs.query(type == SearchType.REGEXP ? field : lowerField, "", QuerySupport.Kind.PREFIX, retrieve);
+                }
+                return type == SearchType.REGEXP
+                        ? qs.query(field, prefix, QuerySupport.Kind.PREFIX, retrieve)
+                        : qs.query(lowerField, prefix.toLowerCase(Locale.ENGLISH), QuerySupport.Kind.PREFIX, retrieve);
+        }
+    }
+
+    boolean matches(String name) {
+        switch (type) {
+            case EXACT_NAME:
+                return name.equals(text);
+            case PREFIX:
+                return name.startsWith(text);
+            case CASE_INSENSITIVE_EXACT_NAME:
+                return name.equalsIgnoreCase(text);
+            case CASE_INSENSITIVE_PREFIX:
+                return name.toLowerCase(Locale.ENGLISH).startsWith(text.toLowerCase(Locale.ENGLISH));
+            case CAMEL_CASE:
+                List<String> segs = PPIndexer.segments(name);
+                if (segs.size() < camelSegments.size()) {
+                    return false;
+                }
+                for (int i = 0; i < camelSegments.size(); i++) {
+                    if (!segs.get(i).toLowerCase(Locale.ENGLISH).startsWith(camelSegments.get(i))) {
+                        return false;
+                    }
+                }
+                return true;
+            default:
+                return pattern.matcher(name).matches();
+        }
+    }
+
+    /**
+     * @return lowercase humps, <code>ProBa</code> or <code>pro::ba</code> -> pro, ba
+     */
+    static List<String> camelSegments(String text) {
+        List<String> toRet = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        for (char ch : text.toCharArray()) {
+            if (ch == ':' || ch == '_' || Character.isUpperCase(ch)) {
+                if (current.length() > 0) {
+                    toRet.add(current.toString());
+                    current.setLength(0);
+                }
+                if (ch == ':' || ch == '_') {
+                    continue;
+                }
+            }
+            current.append(Character.toLowerCase(ch));
+        }
+        if (current.length() > 0) {
+            toRet.add(current.toString());
+        }
+        return toRet;
+    }
+
+    private static String literalPrefix(String text) {
+        int index = 0;
+        while (index < text.length() && text.charAt(index) != '*' && text.charAt(index) != '?') {
+            index++;
+        }
+        return text.substring(0, index);
+    }
+
+    private static String wildcardsToRegexp(String text) {
+        StringBuilder sb = new StringBuilder();
+        for (char ch : text.toCharArray()) {
+            if (ch == '*') {
+                sb.append(".*");
+            } else if (ch == '?') {
+                sb.append('.');
+            } else {
+                sb.append(Pattern.quote(String.valueOf(ch)));
+            }
+        }
+        return sb.toString();
+    }
+}
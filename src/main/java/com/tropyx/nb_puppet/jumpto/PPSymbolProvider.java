@@ -20,11 +20,11 @@ import com.tropyx.nb_puppet.PPConstants;
 import com.tropyx.nb_puppet.hyperlink.PHyperlinkProvider;
 import com.tropyx.nb_puppet.indexer.PPIndexer;
 import com.tropyx.nb_puppet.indexer.PPIndexerFactory;
+import com.tropyx.nb_puppet.indexer.Symbol;
 import com.tropyx.nb_puppet.refactoring.PPWhereUsedQueryPlugin;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.regex.Pattern;
 import javax.swing.Icon;
 import javax.swing.text.StyledDocument;
 import org.netbeans.api.project.FileOwnerQuery;
@@ -64,22 +64,19 @@ public class PPSymbolProvider implements SymbolProvider{
         Collection<FileObject> roots = PPTypeProvider.getIndexerRoots(context.getProject());
         if (cancelled.get()) return;
         try {
-            String text = context.getText();
-            if (SearchType.CASE_INSENSITIVE_EXACT_NAME == type) {
-                text = text.toLowerCase();
-            }
-            if (SearchType.CASE_INSENSITIVE_REGEXP == type  || SearchType.REGEXP == type) {
-                text = text.replace("*", ".*").replace("?", ".?");
-            }
+            NameQuery query = new NameQuery(type, context.getText());
             QuerySupport qs = QuerySupport.forRoots(PPIndexerFactory.INDEXER_TYPE, PPIndexerFactory.INDEXER_VERSION, roots.toArray(new FileObject[0]));
             if (cancelled.get()) return;
-            for ( IndexResult r :qs.query(PPIndexer.FLD_VAR, text, PPTypeProvider.searchType2Kind(type), PPIndexer.FLD_ROOT, PPIndexer.FLD_VAR)) {
+            for ( IndexResult r : query.execute(qs, PPIndexer.FLD_SYMBOL_NAME, PPIndexer.FLD_SYMBOL_LOWER, PPIndexer.FLD_SYMBOL_INITIALS, PPIndexer.FLD_SYMBOL)) {
                 if (cancelled.get()) return;
-                final String root = r.getValue(PPIndexer.FLD_ROOT);
-                for (String v : r.getValues(PPIndexer.FLD_VAR)) {
-                    if (cancelled.get()) return;
-                    if (matches(v, type, text)) {
-                        result.addResult(new PPSymbolProvider.SymbolDescriptorImpl(v, root, r.getFile(), 0));
+                String[] values = r.getValues(PPIndexer.FLD_SYMBOL);
+                if (values == null) {
+                    continue;
+                }
+                for (String value : values) {
+                    Symbol symbol = Symbol.fromIndexValue(value);
+                    if (symbol != null && matches(query, symbol)) {
+                        result.addResult(new PPSymbolProvider.SymbolDescriptorImpl(symbol, r.getFile()));
                     }
                 }
             }
@@ -98,53 +95,47 @@ public class PPSymbolProvider implements SymbolProvider{
     public void cleanup() {
     }
 
-    private boolean matches(String v, SearchType type, String text) {
-        switch (type) {
-            case CASE_INSENSITIVE_EXACT_NAME:
-                return v.toLowerCase().equals(text.toLowerCase());
-            case CASE_INSENSITIVE_PREFIX:
-                return v.toLowerCase().startsWith(text.toLowerCase());
-            case EXACT_NAME:
-                return v.equals(text);
-            case PREFIX:
-                return v.startsWith(text);
-            case REGEXP:
-                return Pattern.matches(text, v);
-            case CASE_INSENSITIVE_REGEXP:
-                return Pattern.matches(text.toLowerCase(), v.toLowerCase());
-            case CAMEL_CASE:
+    private static boolean matches(NameQuery query, Symbol symbol) {
+        for (String name : symbol.getSearchNames()) {
+            if (query.matches(name)) {
+                return true;
+            }
         }
         return false;
     }
 
     private static class SymbolDescriptorImpl extends SymbolDescriptor {
-        private final String var;
-        private final String root;
+        private final Symbol symbol;
         private final FileObject file;
-        private final int offset;
         private final Project project;
 
-        public SymbolDescriptorImpl(String var, String root, FileObject file, int offset) {
-            this.var = var;
-            this.root = root;
+        public SymbolDescriptorImpl(Symbol symbol, FileObject file) {
+            this.symbol = symbol;
             this.file = file;
-            this.offset = offset;
             this.project = FileOwnerQuery.getOwner(file);
         }
 
         @Override
         public Icon getIcon() {
-            return ImageUtilities.loadImageIcon(PPConstants.VARIABLE_ICON, true);
+            switch (symbol.getKind()) {
+                case PARAM:
+                case VARIABLE:
+                    return ImageUtilities.loadImageIcon(PPConstants.VARIABLE_ICON, true);
+                case RESOURCE:
+                    return ImageUtilities.loadImageIcon(PPConstants.RESOURCE_ICON, true);
+                default:
+                    return ImageUtilities.loadImageIcon(PPConstants.ICON_PUPPET_FILE, true);
+            }
         }
 
         @Override
         public String getSymbolName() {
-            return var;
+            return symbol.getName();
         }
 
         @Override
         public String getOwnerName() {
-            return root;
+            return symbol.getContainer();
         }
 
         @Override
@@ -164,8 +155,7 @@ public class PPSymbolProvider implements SymbolProvider{
 
         @Override
         public int getOffset() {
-            //TODO
-            return offset;
+            return symbol.getOffset();
         }
 
         @Override
@@ -174,7 +164,7 @@ public class PPSymbolProvider implements SymbolProvider{
             if (ces != null) {
                 try {
                     StyledDocument doc = ces.openDocument();
-                    PHyperlinkProvider.showAtOffset((BaseDocument)doc, offset);
+                    PHyperlinkProvider.showAtOffset((BaseDocument)doc, symbol.getOffset());
                 } catch (IOException ex) {
                     Exceptions.printStackTrace(ex);
                 }
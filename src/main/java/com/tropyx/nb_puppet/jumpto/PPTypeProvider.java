@@ -68,35 +68,16 @@ public class PPTypeProvider implements TypeProvider {
         Collection<FileObject> roots = getIndexerRoots(context.getProject());
         if (cancelled.get()) return;
         try {
-            String text = context.getText();
-            boolean prependSep = false;
-            if (SearchType.CAMEL_CASE == type) {
-                StringBuilder sb = new StringBuilder();
-                for (char ch : text.toCharArray()) {
-                    if (Character.isUpperCase(ch)) {
-                        if (prependSep) {
-                            sb.append("*\\:\\:");
-                        } else {
-                            prependSep = true;
-                        }
-                    }
-                    sb.append(Character.toLowerCase(ch));
-                }
-                sb.append("*");
-                text = sb.toString();
-                type = SearchType.CASE_INSENSITIVE_REGEXP;
-            }
-            if (SearchType.CASE_INSENSITIVE_EXACT_NAME == type) {
-                text = text.toLowerCase();
-            }
-            if (SearchType.CASE_INSENSITIVE_REGEXP == type  || SearchType.REGEXP == type) {
-                text = text.replace("*", ".*").replace("?", ".?");
-            }
+            NameQuery query = new NameQuery(type, context.getText());
             QuerySupport qs = QuerySupport.forRoots(PPIndexerFactory.INDEXER_TYPE, PPIndexerFactory.INDEXER_VERSION, roots.toArray(new FileObject[0]));
             if (cancelled.get()) return;
-            for ( IndexResult r :qs.query(PPIndexer.FLD_ROOT, text, searchType2Kind(type), PPIndexer.FLD_ROOT)) {
+            for ( IndexResult r : query.execute(qs, PPIndexer.FLD_ROOT, PPIndexer.FLD_ROOT_LOWER, PPIndexer.FLD_ROOT_INITIALS, PPIndexer.FLD_ROOT)) {
                 if (cancelled.get()) return;
-                result.addResult(new TypeDescriptorImpl(r.getValue(PPIndexer.FLD_ROOT), r.getFile(), 0));
+                for (String root : r.getValues(PPIndexer.FLD_ROOT)) {
+                    if (query.matches(root)) {
+                        result.addResult(new TypeDescriptorImpl(root, r.getFile(), 0));
+                    }
+                }
             }
         } catch (IOException ex) {
             Exceptions.printStackTrace(ex);
@@ -104,19 +85,6 @@ public class PPTypeProvider implements TypeProvider {
 
     }
 
-    static QuerySupport.Kind searchType2Kind(SearchType type) {
-        switch (type) {
-            case CAMEL_CASE : return QuerySupport.Kind.CAMEL_CASE;
-            case PREFIX : return QuerySupport.Kind.PREFIX;
-            case EXACT_NAME : return QuerySupport.Kind.EXACT;
-            case REGEXP : return QuerySupport.Kind.REGEXP;
-            case CASE_INSENSITIVE_EXACT_NAME : return QuerySupport.Kind.EXACT;
-            case CASE_INSENSITIVE_PREFIX : return QuerySupport.Kind.CASE_INSENSITIVE_PREFIX;
-            case CASE_INSENSITIVE_REGEXP : return QuerySupport.Kind.CASE_INSENSITIVE_REGEXP;
-            default: return QuerySupport.Kind.EXACT;
-        }
-    }
-
     static Collection<FileObject> getIndexerRoots(Project prj) {
         Collection<FileObject> roots;
         if (prj == null) {
@@ -54,5 +54,12 @@ public enum LintCheck
     public String getDisableParam() {
         return disableParam;
     }
+
+    /**
+     * @return the check name as puppet-lint reports it, eg. <code>80chars</code>
+     */
+    public String getCheckName() {
+        return disableParam.substring("--no-".length(), disableParam.length() - "-check".length());
+    }
     
 }
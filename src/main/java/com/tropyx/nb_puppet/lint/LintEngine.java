@@ -0,0 +1,864 @@
+/*
+ * Copyright (C) 2015 mkleint
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tropyx.nb_puppet.lint;
+
+import com.tropyx.nb_puppet.lexer.PTokenId;
+import com.tropyx.nb_puppet.parser.PClass;
+import com.tropyx.nb_puppet.parser.PClassParam;
+import com.tropyx.nb_puppet.parser.PDefine;
+import com.tropyx.nb_puppet.parser.PElement;
+import com.tropyx.nb_puppet.parser.PParamContainer;
+import com.tropyx.nb_puppet.parser.PResource;
+import com.tropyx.nb_puppet.parser.PResourceAttribute;
+import com.tropyx.nb_puppet.parser.PString;
+import com.tropyx.nb_puppet.parser.PVariable;
+import com.tropyx.nb_puppet.parser.PVariableDefinition;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.netbeans.api.lexer.Token;
+import org.netbeans.api.lexer.TokenSequence;
+
+/**
+ * the puppet-lint checks of {@link LintCheck}, run in process on the token sequence and the parse tree
+ * of a snapshot. Messages and check names are the ones of puppet-lint so that the fixes keyed by check
+ * name apply to both.
+ * @author mkleint
+ */
+final class LintEngine {
+
+    static final class Problem {
+        private final LintCheck check;
+        private final boolean error;
+        private final int start;
+        private final int end;
+        private final String message;
+
+        Problem(LintCheck check, boolean error, int start, int end, String message) {
+            this.check = check;
+            this.error = error;
+            this.start = start;
+            this.end = end;
+            this.message = message;
+        }
+
+        LintCheck getCheck() {
+            return check;
+        }
+
+        boolean isError() {
+            return error;
+        }
+
+        int getStartOffset() {
+            return start;
+        }
+
+        int getEndOffset() {
+            return end;
+        }
+
+        String getMessage() {
+            return message;
+        }
+    }
+
+    private static final Pattern ONLY_VARIABLE = Pattern.compile("\"\\$(\\{[\\w:]+\\}|[\\w:]+)\""); //NOI18N
+    private static final Pattern NOT_ENCLOSED = Pattern.compile("(?<!\\\\)\\$[a-zA-Z_]"); //NOI18N
+    private static final Pattern OCTAL_MODE = Pattern.compile("[0-7]{4}"); //NOI18N
+    private static final Pattern SYMBOLIC_MODE = Pattern.compile("([ugoa]*[-=+][-=+rstwxXugo]*)(,[ugoa]*[-=+][-=+rstwxXugo]*)*"); //NOI18N
+    private static final Pattern REGEXP_MATCH = Pattern.compile("\\$[0-9]+"); //NOI18N
+    private static final Set<String> BUILTIN_VARIABLES = new HashSet<>(Arrays.asList(
+        "name", "title", "module_name", "caller_module_name", "facts", "trusted", "server_facts", //NOI18N
+        "environment", "clientcert", "clientversion", "servername", "serverip", "serverversion", //NOI18N
+        "settings" //NOI18N
+    ));
+    /**
+     * checks that only look at the line or token they report, an edit cannot change their result elsewhere
+     */
+    private static final Set<LintCheck> LINE_CHECKS = EnumSet.of(
+        LintCheck.TRAILING_WHITESPACE, LintCheck.CHARS_80, LintCheck.HARD_TABS, LintCheck.SP2_SOFT_TABS,
+        LintCheck.QUOTED_BOOLEANS, LintCheck.SINGLE_QUOTE_STRING_WITH_VARS, LintCheck.ONLY_VARIABLE_STRING,
+        LintCheck.DOUBLE_QUOTED_STRINGS, LintCheck.VARIABLES_NOT_ENCLOSED, LintCheck.VARIABLE_CONTAINS_DASH,
+        LintCheck.STAR_COMMENTS, LintCheck.SLASH_COMMENTS, LintCheck.RIGHT_TO_LEFT_RELATIONSHIP
+    );
+    private static final Set<String> ENSURE_VALUES = new HashSet<>(Arrays.asList(
+        "present", "absent", "file", "directory", "link" //NOI18N
+    ));
+
+    private final CharSequence text;
+    private final Set<LintCheck> enabled;
+    private final List<Problem> problems = new ArrayList<>();
+    //collected in the token pass, used by the tree checks
+    private final List<Integer> selectors = new ArrayList<>();
+    //collected from the whole file, a recheck of a range reports the same variable_scope problems as a full check
+    private final Set<String> blockParams = new HashSet<>();
+    //problems are only reported in these ranges, everything on a full check
+    private int lineFrom = 0;
+    private int lineTo = Integer.MAX_VALUE;
+    private int treeFrom = 0;
+    private int treeTo = Integer.MAX_VALUE;
+
+    private LintEngine(CharSequence text, Set<LintCheck> enabled) {
+        this.text = text;
+        this.enabled = enabled;
+    }
+
+    /**
+     * @param text the snapshot text
+     * @param ts token sequence of the snapshot
+     * @param root parse tree of the snapshot
+     * @param enabled checks to run
+     * @param path path of the file with forward slashes, for the autoloader layout check, can be null
+     * @param relative true if the module directory name doesn't have to match the module name
+     * @param cancel stops the checks early when set
+     * @return problems found, sorted by offset
+     */
+    static List<Problem> check(CharSequence text, TokenSequence<PTokenId> ts, PElement root, Set<LintCheck> enabled,
+            String path, boolean relative, Cancel cancel) {
+        LintEngine engine = new LintEngine(text, enabled);
+        engine.checkLines(0, text.length());
+        if (cancel.isCancelled()) {
+            return Collections.emptyList();
+        }
+        engine.collectBlockParams(ts);
+        engine.checkTokens(ts, 0, text.length());
+        if (cancel.isCancelled()) {
+            return Collections.emptyList();
+        }
+        if (root != null) {
+            engine.checkTree(root.getChildren(), path, relative);
+        }
+        sort(engine.problems);
+        return engine.problems;
+    }
+
+    /**
+     * checks an edited text again, reusing the problems of the previous check. The line checks run for the
+     * changed lines only, the other checks for the top level constructs touching them, problems elsewhere
+     * are taken over from the previous check with offsets moved by the edit.
+     * @param text the snapshot text after the edit
+     * @param ts token sequence of the snapshot
+     * @param root parse tree of the snapshot
+     * @param enabled checks to run, the same as for the previous problems
+     * @param path
+     * @param relative
+     * @param previous problems of the text before the edit
+     * @param changeStart first changed offset
+     * @param oldChangeEnd end of the replaced text in the text before the edit
+     * @param newChangeEnd end of the inserted text in the new text
+     * @param cancel
+     * @return problems found, sorted by offset
+     */
+    static List<Problem> recheck(CharSequence text, TokenSequence<PTokenId> ts, PElement root, Set<LintCheck> enabled,
+            String path, boolean relative, List<Problem> previous, int changeStart, int oldChangeEnd, int newChangeEnd,
+            Cancel cancel) {
+        LintEngine engine = new LintEngine(text, enabled);
+        engine.lineFrom = engine.lineStart(changeStart);
+        engine.lineTo = engine.nextLineStart(newChangeEnd);
+        //strings and comments can span lines, all their lines are rechecked. Whitespace spans lines too
+        //but is checked per line.
+        boolean grown = true;
+        while (grown) {
+            grown = false;
+            ts.move(engine.lineFrom);
+            if (ts.moveNext() && ts.offset() < engine.lineFrom && ts.token().id() != PTokenId.WHITESPACE) {
+                engine.lineFrom = engine.lineStart(ts.offset());
+                grown = true;
+            }
+            if (engine.lineTo > 0) {
+                ts.move(engine.lineTo - 1);
+                if (ts.moveNext() && ts.offset() + ts.token().length() > engine.lineTo && ts.token().id() != PTokenId.WHITESPACE) {
+                    engine.lineTo = engine.nextLineStart(ts.offset() + ts.token().length());
+                    grown = true;
+                }
+            }
+        }
+        //top level constructs, each reaching to the start of the next one, the ones touching the changed lines
+        //and the one after them, its documentation can be what changed
+        List<PElement> elements = new ArrayList<>();
+        List<PElement> affected = new ArrayList<>();
+        if (root != null) {
+            elements.addAll(root.getChildren());
+            Collections.sort(elements, new Comparator<PElement>() {
+                @Override
+                public int compare(PElement o1, PElement o2) {
+                    return Integer.compare(o1.getOffset(), o2.getOffset());
+                }
+            });
+        }
+        engine.treeFrom = -1;
+        int rangeStart = 0;
+        for (int i = 0; i <= elements.size(); i++) {
+            //the range before element i, owned by element i - 1
+            int rangeEnd = i < elements.size() ? elements.get(i).getOffset() : text.length();
+            if (engine.treeFrom == -1 && (rangeEnd > engine.lineFrom || rangeEnd >= engine.lineTo)) {
+                engine.treeFrom = rangeStart;
+            }
+            if (engine.treeFrom != -1 && i > 0) {
+                affected.add(elements.get(i - 1));
+            }
+            if (rangeEnd >= engine.lineTo) {
+                if (i < elements.size()) {
+                    affected.add(elements.get(i));
+                    engine.treeTo = i + 1 < elements.size() ? elements.get(i + 1).getOffset() : text.length();
+                } else {
+                    engine.treeTo = text.length();
+                }
+                break;
+            }
+            rangeStart = rangeEnd;
+        }
+        engine.checkLines(engine.lineFrom, engine.lineTo);
+        if (cancel.isCancelled()) {
+            return Collections.emptyList();
+        }
+        engine.collectBlockParams(ts);
+        engine.checkTokens(ts, engine.treeFrom, engine.treeTo);
+        if (cancel.isCancelled()) {
+            return Collections.emptyList();
+        }
+        engine.checkTree(affected, path, relative);
+        int delta = newChangeEnd - oldChangeEnd;
+        for (Problem p : previous) {
+            if (p.start >= changeStart && p.start < oldChangeEnd) {
+                //the text was replaced
+                continue;
+            }
+            int start = p.start >= oldChangeEnd ? p.start + delta : p.start;
+            int end = p.end <= changeStart ? p.end : p.end >= oldChangeEnd ? p.end + delta : newChangeEnd;
+            if (!engine.inRange(p.check, start)) {
+                engine.problems.add(start == p.start && end == p.end ? p : new Problem(p.check, p.error, start, end, p.message));
+            }
+        }
+        sort(engine.problems);
+        return engine.problems;
+    }
+
+    private static void sort(List<Problem> problems) {
+        Collections.sort(problems, new Comparator<Problem>() {
+            @Override
+            public int compare(Problem o1, Problem o2) {
+                return Integer.compare(o1.start, o2.start);
+            }
+        });
+    }
+
+    interface Cancel {
+        boolean isCancelled();
+    }
+
+    private void add(LintCheck check, boolean error, int start, int end, String message) {
+        if (enabled.contains(check) && inRange(check, start)) {
+            problems.add(new Problem(check, error, start, Math.max(start + 1, end), message));
+        }
+    }
+
+    /**
+     * @return true if a problem of the check at offset is reported by this run
+     */
+    private boolean inRange(LintCheck check, int offset) {
+        if (LINE_CHECKS.contains(check)) {
+            return offset >= lineFrom && offset < lineTo;
+        }
+        return offset >= treeFrom && offset < treeTo;
+    }
+
+    private void checkLines(int from, int to) {
+        int lineStart = from;
+        int length = Math.min(to, text.length());
+        for (int i = from; i <= length; i++) {
+            if (i == length || text.charAt(i) == '\n') {
+                int lineEnd = i > lineStart && text.charAt(i - 1) == '\r' ? i - 1 : i;
+                int ws = lineEnd;
+                while (ws > lineStart && (text.charAt(ws - 1) == ' ' || text.charAt(ws - 1) == '\t')) {
+                    ws--;
+                }
+                if (ws < lineEnd) {
+                    add(LintCheck.TRAILING_WHITESPACE, true, ws, lineEnd, "trailing whitespace found"); //NOI18N
+                }
+                if (lineEnd - lineStart > 80) {
+                    add(LintCheck.CHARS_80, false, lineStart + 80, lineEnd, "line has more than 80 characters"); //NOI18N
+                }
+                lineStart = i + 1;
+            }
+        }
+    }
+
+    private void checkTokens(TokenSequence<PTokenId> ts, int from, int to) {
+        //one entry per open brace, the arrows in that block
+        Deque<List<int[]>> arrowBlocks = new ArrayDeque<>();
+        Token<PTokenId> previous = null;
+        int previousOffset = -1;
+        //end of the significant token before the current one
+        int lastEnd = 0;
+        ts.move(from);
+        while (ts.moveNext() && ts.offset() < to) {
+            Token<PTokenId> token = ts.token();
+            int offset = ts.offset();
+            int end = offset + token.length();
+            switch (token.id()) {
+                case WHITESPACE:
+                    checkWhitespace(token.text(), offset, previous == null || endsWithNewline(previous.text()));
+                    break;
+                case STRING_LITERAL:
+                    checkString(token.text().toString(), offset);
+                    break;
+                case VARIABLE:
+                    if (token.text().toString().indexOf('-') != -1) {
+                        add(LintCheck.VARIABLE_CONTAINS_DASH, false, offset, end, "variable contains a dash"); //NOI18N
+                    }
+                    break;
+                case COMMENT:
+                    if (token.text().toString().startsWith("/*")) { //NOI18N
+                        add(LintCheck.STAR_COMMENTS, false, offset, end, "/* */ comment found"); //NOI18N
+                    }
+                    break;
+                case REGEXP_LITERAL:
+                    //the lexer doesn't know // comments, they start as an empty regexp
+                    if (token.text().toString().startsWith("//") && isLineStart(offset)) { //NOI18N
+                        add(LintCheck.SLASH_COMMENTS, false, offset, lineEnd(offset), "// comment found"); //NOI18N
+                    }
+                    break;
+                case OPERATOR:
+                    if (previous != null && previousOffset + previous.length() == offset && previous.id() == PTokenId.OPERATOR
+                            && "<".equals(previous.text().toString()) //NOI18N
+                            && ("-".equals(token.text().toString()) || "~".equals(token.text().toString()))) { //NOI18N
+                        add(LintCheck.RIGHT_TO_LEFT_RELATIONSHIP, false, previousOffset, end, "right-to-left (<-) relationship"); //NOI18N
+                    }
+                    break;
+                case QUESTIONMARK:
+                    selectors.add(offset);
+                    break;
+                case CASE:
+                    checkCaseDefault(ts, offset, end);
+                    break;
+                case NODE:
+                    checkNodeNames(ts);
+                    break;
+                case CLASS:
+                case DEFINE:
+                    checkDocumented(ts, token.id(), offset, end);
+                    break;
+                case LBRACE:
+                    arrowBlocks.push(new ArrayList<int[]>());
+                    break;
+                case RBRACE:
+                    if (!arrowBlocks.isEmpty()) {
+                        checkArrows(arrowBlocks.pop());
+                    }
+                    break;
+                case PARAM_ASSIGN:
+                    if (!arrowBlocks.isEmpty() && isFirstArrowOnLine(offset)) {
+                        //arrow offset and where it should start at the least, one space after the attribute name
+                        arrowBlocks.peek().add(new int[] {offset, column(lastEnd) + 1});
+                    }
+                    break;
+                default:
+            }
+            if (token.id() != PTokenId.WHITESPACE && token.id() != PTokenId.COMMENT && token.id() != PTokenId.LINE_COMMENT) {
+                lastEnd = end;
+            }
+            previous = token;
+            previousOffset = offset;
+        }
+    }
+
+    /**
+     * names of the lambda parameters between pipes anywhere in the file
+     */
+    private void collectBlockParams(TokenSequence<PTokenId> ts) {
+        boolean inPipes = false;
+        ts.moveStart();
+        while (ts.moveNext()) {
+            Token<PTokenId> token = ts.token();
+            if (token.id() == PTokenId.PIPE) {
+                inPipes = !inPipes;
+            } else if (inPipes && token.id() == PTokenId.VARIABLE) {
+                blockParams.add(token.text().toString().substring(1));
+            }
+        }
+    }
+
+    private static boolean endsWithNewline(CharSequence text) {
+        return text.length() > 0 && text.charAt(text.length() - 1) == '\n';
+    }
+
+    private void checkWhitespace(CharSequence ws, int offset, boolean atLineStart) {
+        boolean lineStart = atLineStart;
+        int segment = 0;
+        for (int i = 0; i <= ws.length(); i++) {
+            if (i == ws.length() || ws.charAt(i) == '\n') {
+                if (lineStart && i == ws.length() && i > segment) {
+                    //indentation of a line with content
+                    int spaces = 0;
+                    for (int j = segment; j < i && ws.charAt(j) == ' '; j++) {
+                        spaces++;
+                    }
+                    if (spaces == i - segment && spaces % 2 != 0) {
+                        add(LintCheck.SP2_SOFT_TABS, true, offset + segment, offset + i, "two-space soft tabs not used"); //NOI18N
+                    }
+                }
+                segment = i + 1;
+                lineStart = true;
+            } else if (ws.charAt(i) == '\t') {
+                add(LintCheck.HARD_TABS, true, offset + i, offset + i + 1, "tab character found"); //NOI18N
+            }
+        }
+    }
+
+    private void checkString(String value, int offset) {
+        int end = offset + value.length();
+        if (value.length() < 2) {
+            return;
+        }
+        String content = value.substring(1, value.length() - 1);
+        if ("true".equals(content) || "false".equals(content)) { //NOI18N
+            add(LintCheck.QUOTED_BOOLEANS, false, offset, end, "quoted boolean value found"); //NOI18N
+        }
+        if (value.charAt(0) == '\'') {
+            if (content.contains("${")) { //NOI18N
+                add(LintCheck.SINGLE_QUOTE_STRING_WITH_VARS, true, offset, end, "single quoted string containing a variable found"); //NOI18N
+            }
+            return;
+        }
+        if (value.charAt(0) != '"') {
+            return;
+        }
+        if (ONLY_VARIABLE.matcher(value).matches()) {
+            add(LintCheck.ONLY_VARIABLE_STRING, false, offset, end, "string containing only a variable"); //NOI18N
+            return;
+        }
+        if (content.indexOf('$') == -1 && content.indexOf('\\') == -1 && content.indexOf('\'') == -1) {
+            add(LintCheck.DOUBLE_QUOTED_STRINGS, false, offset, end, "double quoted string containing no variables"); //NOI18N
+        }
+        Matcher m = NOT_ENCLOSED.matcher(content);
+        while (m.find()) {
+            add(LintCheck.VARIABLES_NOT_ENCLOSED, false, offset + 1 + m.start(), offset + 1 + m.end(), "variable not enclosed in {}"); //NOI18N
+        }
+    }
+
+    private void checkCaseDefault(TokenSequence<PTokenId> ts, int offset, int end) {
+        int index = ts.index();
+        try {
+            int depth = 0;
+            while (ts.moveNext()) {
+                PTokenId id = ts.token().id();
+                if (id == PTokenId.LBRACE) {
+                    depth++;
+                } else if (id == PTokenId.RBRACE) {
+                    depth--;
+                    if (depth == 0) {
+                        add(LintCheck.CASE_WITHOUT_DEFAULT, false, offset, end, "case statement without a default case"); //NOI18N
+                        return;
+                    }
+                } else if (id == PTokenId.DEFAULT && depth == 1) {
+                    return;
+                }
+            }
+        } finally {
+            ts.moveIndex(index);
+            ts.moveNext();
+        }
+    }
+
+    private void checkNodeNames(TokenSequence<PTokenId> ts) {
+        int index = ts.index();
+        try {
+            while (ts.moveNext()) {
+                Token<PTokenId> token = ts.token();
+                if (token.id() == PTokenId.LBRACE || token.id() == PTokenId.INHERITS) {
+                    return;
+                }
+                if (token.id() == PTokenId.IDENTIFIER) {
+                    add(LintCheck.UNQUOTED_NODE_NAME, false, ts.offset(), ts.offset() + token.length(), "unquoted node name found"); //NOI18N
+                }
+            }
+        } finally {
+            ts.moveIndex(index);
+            ts.moveNext();
+        }
+    }
+
+    private void checkDocumented(TokenSequence<PTokenId> ts, PTokenId keyword, int offset, int end) {
+        int index = ts.index();
+        try {
+            Token<PTokenId> next = null;
+            while (ts.moveNext()) {
+                if (ts.token().id() != PTokenId.WHITESPACE) {
+                    next = ts.token();
+                    break;
+                }
+            }
+            if (next == null || next.id() == PTokenId.LBRACE) {
+                //class { 'foo': } is a resource
+                return;
+            }
+            ts.moveIndex(index);
+            while (ts.movePrevious()) {
+                PTokenId id = ts.token().id();
+                if (id == PTokenId.WHITESPACE) {
+                    continue;
+                }
+                if (id == PTokenId.COMMENT || id == PTokenId.LINE_COMMENT) {
+                    return;
+                }
+                break;
+            }
+            add(LintCheck.DOCUMENTATION, false, offset, end,
+                    keyword == PTokenId.CLASS ? "class not documented" : "defined type not documented"); //NOI18N
+        } finally {
+            ts.moveIndex(index);
+            ts.moveNext();
+        }
+    }
+
+    private void checkArrows(List<int[]> arrows) {
+        if (arrows.size() < 2) {
+            return;
+        }
+        int expected = 0;
+        for (int[] arrow : arrows) {
+            expected = Math.max(expected, arrow[1]);
+        }
+        for (int[] arrow : arrows) {
+            if (column(arrow[0]) != expected) {
+                add(LintCheck.ARROW_ALIGNMENT, false, arrow[0], arrow[0] + 2, "indentation of => is not properly aligned"); //NOI18N
+            }
+        }
+    }
+
+    private boolean isFirstArrowOnLine(int offset) {
+        for (int i = offset - 1; i >= 0; i--) {
+            char c = text.charAt(i);
+            if (c == '\n') {
+                return true;
+            }
+            if (c == '>' && i > 0 && text.charAt(i - 1) == '=') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isLineStart(int offset) {
+        for (int i = offset - 1; i >= 0; i--) {
+            char c = text.charAt(i);
+            if (c == '\n') {
+                return true;
+            }
+            if (c != ' ' && c != '\t') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int lineEnd(int offset) {
+        int i = offset;
+        while (i < text.length() && text.charAt(i) != '\n' && text.charAt(i) != '\r') {
+            i++;
+        }
+        return i;
+    }
+
+    private int lineStart(int offset) {
+        int i = Math.min(offset, text.length());
+        while (i > 0 && text.charAt(i - 1) != '\n') {
+            i--;
+        }
+        return i;
+    }
+
+    private int nextLineStart(int offset) {
+        int i = offset;
+        while (i < text.length() && text.charAt(i) != '\n') {
+            i++;
+        }
+        return Math.min(i + 1, text.length());
+    }
+
+    private int column(int offset) {
+        int i = offset;
+        while (i > 0 && text.charAt(i - 1) != '\n') {
+            i--;
+        }
+        return offset - i;
+    }
+
+    private void checkTree(List<PElement> elements, String path, boolean relative) {
+        for (PClass c : collect(elements, PClass.class)) {
+            if (c.getNameIdentifier() == null) {
+                continue;
+            }
+            int start = c.getNameIdentifier().getOffset();
+            int end = start + c.getName().length();
+            if (c.getName().indexOf('-') != -1) {
+                add(LintCheck.NAME_CONTAINING_DASH, true, start, end, "class name containing a dash"); //NOI18N
+            }
+            if (isNested(c)) {
+                add(LintCheck.NESTED_CLASSES_OR_DEFINES, false, start, end, "class defined inside a class"); //NOI18N
+            } else {
+                checkAutoloader(c.getName(), start, end, path, relative);
+            }
+            if (c.getInherits() != null && c.getInherits().getName() != null) {
+                String parent = stripColons(c.getInherits().getName());
+                int iStart = c.getInherits().getOffset();
+                int iEnd = iStart + c.getInherits().getName().length();
+                if (parent.endsWith("::params")) { //NOI18N
+                    add(LintCheck.CLASS_INHERITS_FROM_PARAMS_CLASS, false, iStart, iEnd, "class inheriting from params class"); //NOI18N
+                }
+                if (!firstSegment(parent).equals(firstSegment(stripColons(c.getName())))) {
+                    add(LintCheck.INHERITS_ACROSS_NAMESPACES, false, iStart, iEnd, "class inherits across module namespaces"); //NOI18N
+                }
+            }
+            for (PClassParam p : c.getParams()) {
+                if (p.getDefaultValue() == null) {
+                    add(LintCheck.CLASS_PARAMETER_DEFAULTS, false, p.getOffset(), p.getOffset() + p.getVariable().length(),
+                            "parameterised class parameter without a default value"); //NOI18N
+                }
+            }
+            checkParameterOrder(c);
+        }
+        for (PDefine d : collect(elements, PDefine.class)) {
+            if (d.getName() == null) {
+                continue;
+            }
+            int start = d.getOffset();
+            int end = start + "define".length(); //NOI18N
+            if (d.getName().indexOf('-') != -1) {
+                add(LintCheck.NAME_CONTAINING_DASH, true, start, end, "defined type name containing a dash"); //NOI18N
+            }
+            if (isNested(d)) {
+                add(LintCheck.NESTED_CLASSES_OR_DEFINES, false, start, end, "define defined inside a class"); //NOI18N
+            } else {
+                checkAutoloader(d.getName(), start, end, path, relative);
+            }
+            checkParameterOrder(d);
+        }
+        for (PResource r : collect(elements, PResource.class)) {
+            checkResource(r);
+        }
+        checkVariableScope(elements);
+    }
+
+    /**
+     * @return the elements of the type and all their descendants of the type
+     */
+    private static <T extends PElement> List<T> collect(List<PElement> elements, Class<T> clazz) {
+        List<T> toRet = new ArrayList<>();
+        for (PElement el : elements) {
+            if (clazz.equals(el.getClass())) {
+                toRet.add(clazz.cast(el));
+            }
+            toRet.addAll(el.getChildrenOfType(clazz, true));
+        }
+        return toRet;
+    }
+
+    private static boolean isNested(PElement el) {
+        PElement parent = el.getParent();
+        while (parent != null) {
+            if (parent.isType(PElement.CLASS)) {
+                return true;
+            }
+            parent = parent.getParent();
+        }
+        return false;
+    }
+
+    private static String stripColons(String name) {
+        return name.startsWith("::") ? name.substring(2) : name; //NOI18N
+    }
+
+    private static String firstSegment(String name) {
+        int index = name.indexOf("::"); //NOI18N
+        return index == -1 ? name : name.substring(0, index);
+    }
+
+    private void checkAutoloader(String name, int start, int end, String path, boolean relative) {
+        if (path == null) {
+            return;
+        }
+        int manifests = path.lastIndexOf("/manifests/"); //NOI18N
+        if (manifests == -1 || !path.endsWith(".pp")) { //NOI18N
+            return;
+        }
+        String rel = path.substring(manifests + "/manifests/".length(), path.length() - ".pp".length()).replace("/", "::"); //NOI18N
+        String module = path.substring(path.lastIndexOf('/', manifests - 1) + 1, manifests);
+        String expected = "init".equals(rel) ? module : module + "::" + rel; //NOI18N
+        String actual = stripColons(name);
+        if (relative) {
+            //only the part after the module name has to match
+            String expectedRest = expected.contains("::") ? expected.substring(expected.indexOf("::")) : ""; //NOI18N
+            String actualRest = actual.contains("::") ? actual.substring(actual.indexOf("::")) : ""; //NOI18N
+            if (expectedRest.equals(actualRest)) {
+                return;
+            }
+        } else if (expected.equals(actual)) {
+            return;
+        }
+        add(LintCheck.AUTOLOADER_LAYOUT, true, start, end, actual + " not in autoload module layout"); //NOI18N
+    }
+
+    private void checkParameterOrder(PParamContainer container) {
+        boolean optional = false;
+        for (PClassParam p : container.getParams()) {
+            if (p.getDefaultValue() != null) {
+                optional = true;
+            } else if (optional) {
+                add(LintCheck.PARAMETER_ORDER, false, p.getOffset(), p.getOffset() + p.getVariable().length(),
+                        "optional parameter listed before required parameter"); //NOI18N
+            }
+        }
+    }
+
+    private void checkResource(PResource r) {
+        PElement title = r.getTitle();
+        if (title instanceof PString && title.getOffset() < text.length()) {
+            char c = text.charAt(title.getOffset());
+            if (c != '"' && c != '\'') {
+                int end = title.getOffset();
+                while (end < text.length() && !Character.isWhitespace(text.charAt(end)) && text.charAt(end) != ':') {
+                    end++;
+                }
+                add(LintCheck.UNQUOTED_RESOURCE_TITLE, false, title.getOffset(), end, "unquoted resource title"); //NOI18N
+            }
+        }
+        List<PResourceAttribute> attrs = r.getAtributes();
+        Set<String> seen = new HashSet<>();
+        for (int i = 0; i < attrs.size(); i++) {
+            PResourceAttribute attr = attrs.get(i);
+            int start = attr.getOffset();
+            int end = start + attr.getName().length();
+            if (!seen.add(attr.getName())) {
+                add(LintCheck.DUPLICATE_PARAMS, true, start, end, "duplicate parameter found in resource"); //NOI18N
+            }
+            if ("ensure".equals(attr.getName()) && i > 0) { //NOI18N
+                add(LintCheck.ENSURE_FIRST_PARAM, false, start, end, "ensure found on line but it's not the first attribute"); //NOI18N
+            }
+            PElement value = attr.getValue();
+            if (value == null) {
+                continue;
+            }
+            for (int sel : selectors) {
+                if (sel > value.getOffset() && sel < value.getEndOffset()) {
+                    add(LintCheck.SELECTOR_INSIDE_RESOURCE, false, start, end, "selector inside resource block"); //NOI18N
+                    break;
+                }
+            }
+            if ("file".equals(r.getResourceType())) { //NOI18N
+                checkFileAttribute(attr.getName(), valueText(value), start, end);
+            }
+        }
+    }
+
+    private void checkFileAttribute(String name, String value, int start, int end) {
+        if (value.isEmpty() || value.startsWith("$")) { //NOI18N
+            return;
+        }
+        boolean quoted = value.length() > 1 && (value.charAt(0) == '"' || value.charAt(0) == '\'');
+        String unquoted = quoted ? value.substring(1, value.length() - 1) : value;
+        if ("mode".equals(name)) { //NOI18N
+            if (!quoted) {
+                add(LintCheck.UNQUOTED_FILE_MODE, false, start, end, "unquoted file mode"); //NOI18N
+            }
+            if (!unquoted.contains("$") && !OCTAL_MODE.matcher(unquoted).matches() && !SYMBOLIC_MODE.matcher(unquoted).matches()) { //NOI18N
+                add(LintCheck.FILE_MODE, false, start, end, "mode should be represented as a 4 digit octal value or symbolic mode"); //NOI18N
+            }
+        } else if ("ensure".equals(name) && quoted && !ENSURE_VALUES.contains(unquoted) && unquoted.startsWith("/")) { //NOI18N
+            add(LintCheck.ENSURE_NOT_SYMLINK_TARGET, false, start, end, "symlink target specified in ensure attr"); //NOI18N
+        }
+    }
+
+    /**
+     * @return source text of an attribute value without the terminating comma or brace
+     */
+    private String valueText(PElement value) {
+        int start = Math.min(value.getOffset(), text.length());
+        int end = Math.min(value.getEndOffset(), text.length());
+        String val = end > start ? text.subSequence(start, end).toString().trim() : ""; //NOI18N
+        if (val.endsWith(",") || val.endsWith("}")) { //NOI18N
+            val = val.substring(0, val.length() - 1).trim();
+        }
+        return val;
+    }
+
+    /**
+     * unqualified variables used in a class or define that are not defined there
+     */
+    private void checkVariableScope(List<PElement> elements) {
+        if (!enabled.contains(LintCheck.VARIABLE_SCOPE)) {
+            return;
+        }
+        Map<PElement, Set<String>> locals = new HashMap<>();
+        for (PVariableDefinition vd : collect(elements, PVariableDefinition.class)) {
+            PElement scope = scopeOf(vd);
+            if (scope != null) {
+                Set<String> names = locals.get(scope);
+                if (names == null) {
+                    names = new HashSet<>();
+                    locals.put(scope, names);
+                }
+                names.add(vd.getName().substring(1));
+            }
+        }
+        for (PVariable v : collect(elements, PVariable.class)) {
+            String name = v.getName().substring(1);
+            if (name.contains("::") || BUILTIN_VARIABLES.contains(name) || blockParams.contains(name) //NOI18N
+                    || REGEXP_MATCH.matcher(v.getName()).matches()) {
+                continue;
+            }
+            PElement scope = scopeOf(v);
+            if (scope == null) {
+                continue;
+            }
+            Set<String> names = locals.get(scope);
+            if (names == null || !names.contains(name)) {
+                int start = v.getOffset();
+                if (start < text.length() && text.charAt(start) == '{') {
+                    start = start - 1;
+                }
+                add(LintCheck.VARIABLE_SCOPE, false, start, v.getOffset() + v.getName().length(),
+                        "top-scope variable being used without an explicit namespace"); //NOI18N
+            }
+        }
+    }
+
+    private static PElement scopeOf(PElement el) {
+        PElement parent = el.getParent();
+        while (parent != null) {
+            if (parent.isType(PElement.CLASS) || parent.isType(PElement.DEFINE)) {
+                return parent;
+            }
+            parent = parent.getParent();
+        }
+        return null;
+    }
+}
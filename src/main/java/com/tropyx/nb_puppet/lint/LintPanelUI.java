@@ -71,6 +71,8 @@ public class LintPanelUI extends javax.swing.JPanel {
         prefs = project.getLookup().lookup(AuxiliaryProperties.class);
         boolean readRakefile = RakefileExtractor.isUseRakefile(prefs);
         cbReadRakefile.setSelected(readRakefile);
+        cbExternalLint.setSelected("true".equals(prefs.get(StatusProvider.EXTERNAL_LINT, true)));
+        cbLintWorker.setSelected("true".equals(prefs.get(StatusProvider.LINT_WORKER, true)));
         createCheckBoxes(readRakefile);
     }
 
@@ -105,6 +107,8 @@ public class LintPanelUI extends javax.swing.JPanel {
     private void initComponents() {
 
         cbReadRakefile = new javax.swing.JCheckBox();
+        cbExternalLint = new javax.swing.JCheckBox();
+        cbLintWorker = new javax.swing.JCheckBox();
         jLabel1 = new javax.swing.JLabel();
         jScrollPane1 = new javax.swing.JScrollPane();
         plnChecks = new javax.swing.JPanel();
@@ -116,6 +120,10 @@ public class LintPanelUI extends javax.swing.JPanel {
             }
         });
 
+        org.openide.awt.Mnemonics.setLocalizedText(cbExternalLint, org.openide.util.NbBundle.getMessage(LintPanelUI.class, "LintPanelUI.cbExternalLint.text")); // NOI18N
+
+        org.openide.awt.Mnemonics.setLocalizedText(cbLintWorker, org.openide.util.NbBundle.getMessage(LintPanelUI.class, "LintPanelUI.cbLintWorker.text")); // NOI18N
+
         org.openide.awt.Mnemonics.setLocalizedText(jLabel1, org.openide.util.NbBundle.getMessage(LintPanelUI.class, "LintPanelUI.jLabel1.text")); // NOI18N
 
         plnChecks.setLayout(new java.awt.GridLayout(LintCheck.values().length, 1));
@@ -132,6 +140,8 @@ public class LintPanelUI extends javax.swing.JPanel {
                     .addGroup(layout.createSequentialGroup()
                         .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
                             .addComponent(cbReadRakefile)
+                            .addComponent(cbExternalLint)
+                            .addComponent(cbLintWorker)
                             .addComponent(jLabel1))
                         .addGap(0, 0, Short.MAX_VALUE))))
         );
@@ -141,6 +151,10 @@ public class LintPanelUI extends javax.swing.JPanel {
                 .addContainerGap()
                 .addComponent(cbReadRakefile)
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(cbExternalLint)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(cbLintWorker)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                 .addComponent(jLabel1)
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                 .addComponent(jScrollPane1, javax.swing.GroupLayout.DEFAULT_SIZE, 243, Short.MAX_VALUE))
@@ -156,6 +170,8 @@ public class LintPanelUI extends javax.swing.JPanel {
 
 
     // Variables declaration - do not modify//GEN-BEGIN:variables
+    private javax.swing.JCheckBox cbExternalLint;
+    private javax.swing.JCheckBox cbLintWorker;
     private javax.swing.JCheckBox cbReadRakefile;
     private javax.swing.JLabel jLabel1;
     private javax.swing.JScrollPane jScrollPane1;
@@ -164,6 +180,8 @@ public class LintPanelUI extends javax.swing.JPanel {
 
     private void doSave() {
         prefs.put(RakefileExtractor.USE_RAKEFILE, cbReadRakefile.isSelected() ? null : "false", true);
+        prefs.put(StatusProvider.EXTERNAL_LINT, cbExternalLint.isSelected() ? "true" : null, true);
+        prefs.put(StatusProvider.LINT_WORKER, cbLintWorker.isSelected() ? "true" : null, true);
         for (Component a : plnChecks.getComponents()) {
             if (a instanceof JCheckBox) {
                 JCheckBox aa = (JCheckBox)a;
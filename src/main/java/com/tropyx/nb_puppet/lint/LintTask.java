@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2015 mkleint
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tropyx.nb_puppet.lint;
+
+import com.tropyx.nb_puppet.PPConstants;
+import com.tropyx.nb_puppet.lexer.PTokenId;
+import com.tropyx.nb_puppet.parser.PuppetParserResult;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import org.netbeans.api.editor.mimelookup.MimeRegistration;
+import org.netbeans.api.lexer.TokenHierarchy;
+import org.netbeans.api.lexer.TokenSequence;
+import org.netbeans.api.project.FileOwnerQuery;
+import org.netbeans.api.project.Project;
+import org.netbeans.editor.BaseDocument;
+import org.netbeans.editor.Utilities;
+import org.netbeans.modules.parsing.api.Snapshot;
+import org.netbeans.modules.parsing.spi.ParserResultTask;
+import org.netbeans.modules.parsing.spi.Scheduler;
+import org.netbeans.modules.parsing.spi.SchedulerEvent;
+import org.netbeans.modules.parsing.spi.SchedulerTask;
+import org.netbeans.modules.parsing.spi.TaskFactory;
+import org.netbeans.spi.editor.hints.ErrorDescription;
+import org.netbeans.spi.editor.hints.ErrorDescriptionFactory;
+import org.netbeans.spi.editor.hints.HintsController;
+import org.netbeans.spi.editor.hints.Severity;
+import org.openide.filesystems.FileObject;
+
+/**
+ * runs the {@link LintEngine} checks after each parse, unless the project runs the puppet-lint executable,
+ * see {@link StatusProvider}. The text and problems of the last run are kept with the document, the next run
+ * only rechecks the region that differs from that text.
+ * @author mkleint
+ */
+public class LintTask extends ParserResultTask<PuppetParserResult> {
+
+    private final AtomicBoolean cancelled = new AtomicBoolean(false);
+
+    @Override
+    public void run(PuppetParserResult result, SchedulerEvent event) {
+        cancelled.set(false);
+        Snapshot snapshot = result.getSnapshot();
+        final Document doc = snapshot.getSource().getDocument(false);
+        if (!(doc instanceof BaseDocument)) {
+            return;
+        }
+        FileObject fo = snapshot.getSource().getFileObject();
+        Project project = fo != null ? FileOwnerQuery.getOwner(fo) : null;
+        if (StatusProvider.isExternalLint(project)) {
+            return;
+        }
+        Set<LintCheck> enabled = EnumSet.allOf(LintCheck.class);
+        enabled.removeAll(StatusProvider.disabledChecks(project));
+        TokenHierarchy<?> th = snapshot.getTokenHierarchy();
+        @SuppressWarnings("unchecked")
+        TokenSequence<PTokenId> ts = (TokenSequence<PTokenId>) th.tokenSequence();
+        if (ts == null) {
+            return;
+        }
+        String text = snapshot.getText().toString();
+        String path = fo != null ? fo.getPath() : null;
+        boolean relative = StatusProvider.isRelative(project);
+        LintEngine.Cancel cancel = new LintEngine.Cancel() {
+            @Override
+            public boolean isCancelled() {
+                return cancelled.get();
+            }
+        };
+        LastRun last = (LastRun) doc.getProperty(LastRun.class);
+        List<LintEngine.Problem> problems;
+        if (last != null && last.enabled.equals(enabled) && last.relative == relative
+                && (path == null ? last.path == null : path.equals(last.path))) {
+            if (last.text.equals(text)) {
+                problems = last.problems;
+            } else {
+                int length = Math.min(last.text.length(), text.length());
+                int prefix = 0;
+                while (prefix < length && last.text.charAt(prefix) == text.charAt(prefix)) {
+                    prefix++;
+                }
+                int suffix = 0;
+                while (suffix < length - prefix
+                        && last.text.charAt(last.text.length() - 1 - suffix) == text.charAt(text.length() - 1 - suffix)) {
+                    suffix++;
+                }
+                problems = LintEngine.recheck(text, ts, result.getRootNode(), enabled, path, relative, last.problems,
+                        prefix, last.text.length() - suffix, text.length() - suffix, cancel);
+            }
+        } else {
+            problems = LintEngine.check(text, ts, result.getRootNode(), enabled, path, relative, cancel);
+        }
+        if (cancelled.get()) {
+            return;
+        }
+        doc.putProperty(LastRun.class, new LastRun(text, problems, enabled, path, relative));
+        final List<ErrorDescription> errors = createErrors(result, doc, problems);
+        if (errors != null && !cancelled.get()) {
+            HintsController.setErrors(doc, StatusProvider.LAYER_ERRORS, errors);
+        }
+    }
+
+    /**
+     * @return null if the document was edited since the snapshot, the parse of the edit will publish the hints
+     */
+    private List<ErrorDescription> createErrors(final PuppetParserResult result, final Document doc, final List<LintEngine.Problem> problems) {
+        final List<ErrorDescription> errors = new ArrayList<>();
+        final boolean[] current = new boolean[1];
+        //snapshot offsets only apply while the document has the snapshot's content
+        doc.render(new Runnable() {
+            @Override
+            public void run() {
+                if (!result.isSnapshotOf(doc)) {
+                    return;
+                }
+                for (LintEngine.Problem p : problems) {
+                    if (cancelled.get()) {
+                        return;
+                    }
+                    try {
+                        int line = Utilities.getLineOffset((BaseDocument) doc, p.getStartOffset()) + 1;
+                        errors.add(ErrorDescriptionFactory.createErrorDescription(p.isError() ? Severity.ERROR : Severity.WARNING,
+                                p.getMessage(), StatusProvider.findFixesForType(p.getCheck().getCheckName(), doc, line), doc,
+                                doc.createPosition(p.getStartOffset()), doc.createPosition(p.getEndOffset())));
+                    } catch (BadLocationException ex) {
+                        return;
+                    }
+                }
+                current[0] = true;
+            }
+        });
+        return current[0] ? errors : null;
+    }
+
+    /**
+     * the problems published for a text and the settings they were computed with
+     */
+    private static final class LastRun {
+        private final String text;
+        private final List<LintEngine.Problem> problems;
+        private final Set<LintCheck> enabled;
+        private final String path;
+        private final boolean relative;
+
+        LastRun(String text, List<LintEngine.Problem> problems, Set<LintCheck> enabled, String path, boolean relative) {
+            this.text = text;
+            this.problems = problems;
+            this.enabled = enabled;
+            this.path = path;
+            this.relative = relative;
+        }
+    }
+
+    @Override
+    public int getPriority() {
+        return 300;
+    }
+
+    @Override
+    public Class<? extends Scheduler> getSchedulerClass() {
+        return Scheduler.EDITOR_SENSITIVE_TASK_SCHEDULER;
+    }
+
+    @Override
+    public void cancel() {
+        cancelled.set(true);
+    }
+
+    @MimeRegistration(mimeType = PPConstants.MIME_TYPE, service = TaskFactory.class)
+    public static class Factory extends TaskFactory {
+
+        @Override
+        public Collection<? extends SchedulerTask> create(Snapshot snapshot) {
+            return Collections.singleton(new LintTask());
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2015 mkleint
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tropyx.nb_puppet.lint;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.netbeans.api.extexecution.ExternalProcessBuilder;
+import org.openide.filesystems.FileUtil;
+import org.openide.util.RequestProcessor;
+
+/**
+ * one long running ruby process with puppet-lint loaded, see puppet-lint-worker.rb. Saves the interpreter
+ * and gem startup of running the puppet-lint executable for each check. A worker that dies or hangs is
+ * replaced on the next request, after a few failed starts in a row callers are told to run puppet-lint themselves.
+ * @author mkleint
+ */
+final class LintWorker {
+
+    private static final Logger LOG = Logger.getLogger(LintWorker.class.getName());
+    private static final RequestProcessor RP = new RequestProcessor(LintWorker.class.getName());
+    //the stderr drain of a destroyed worker may still be running while its replacement starts
+    private static final RequestProcessor STDERR_RP = new RequestProcessor(LintWorker.class.getName() + ".stderr", 2); //NOI18N
+    //ends each response, a marker no problem line or ruby output can be mistaken for
+    private static final String END_OF_RESPONSE = "\0DONE"; //NOI18N
+    private static final String SCRIPT = "puppet-lint-worker.rb"; //NOI18N
+    //the first request also loads puppet-lint
+    private static final int TIMEOUT = 30000;
+    private static final int MAX_FAILURES = 3;
+    private static final LintWorker INSTANCE = new LintWorker();
+
+    private File script;
+    private Process process;
+    private BufferedWriter requests;
+    private BufferedReader responses;
+    private int failures;
+
+    private LintWorker() {
+    }
+
+    static LintWorker getDefault() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param basedir directory to run puppet-lint in
+     * @param path file to check, relative to basedir
+     * @param options puppet-lint options, only <code>--relative</code> and <code>--no-*-check</code> are understood
+     * @return lines in the <code>%{line}||%{kind}||%{check}||%{message}</code> format,
+     *         null if the worker is not available and puppet-lint has to be run directly
+     */
+    synchronized List<String> check(File basedir, String path, Collection<String> options) {
+        if (failures >= MAX_FAILURES) {
+            return null;
+        }
+        StringBuilder request = new StringBuilder();
+        request.append(basedir.getAbsolutePath()).append('\t').append(path);
+        for (String option : options) {
+            request.append('\t').append(option);
+        }
+        if (request.indexOf("\n") != -1 || request.indexOf("\r") != -1) { //NOI18N
+            return null;
+        }
+        try {
+            if (process == null) {
+                start();
+            }
+            final Process p = process;
+            //a hanging worker is killed, the read below then ends
+            RequestProcessor.Task kill = RP.post(new Runnable() {
+                @Override
+                public void run() {
+                    p.destroy();
+                }
+            }, TIMEOUT);
+            try {
+                requests.write(request.toString());
+                requests.newLine();
+                requests.flush();
+                List<String> toRet = new ArrayList<>();
+                String line = responses.readLine();
+                while (line != null && !END_OF_RESPONSE.equals(line)) {
+                    toRet.add(line);
+                    line = responses.readLine();
+                }
+                if (line == null) {
+                    throw new IOException("puppet-lint worker exited: " + toRet); //NOI18N
+                }
+                failures = 0;
+                return toRet;
+            } finally {
+                kill.cancel();
+            }
+        } catch (IOException ex) {
+            LOG.log(Level.INFO, "puppet-lint worker failed, restarting", ex); //NOI18N
+            stop();
+            failures++;
+            return null;
+        }
+    }
+
+    private void start() throws IOException {
+        if (script == null || !script.isFile()) {
+            script = File.createTempFile("puppet-lint-worker", ".rb"); //NOI18N
+            script.deleteOnExit();
+            try (InputStream in = LintWorker.class.getResourceAsStream(SCRIPT);
+                    OutputStream out = new FileOutputStream(script)) {
+                FileUtil.copy(in, out);
+            }
+        }
+        //the worker ends by itself when its stdin closes with the IDE
+        process = new ExternalProcessBuilder("ruby") //NOI18N
+                .addArgument(script.getAbsolutePath())
+                .call();
+        requests = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), "UTF-8")); //NOI18N
+        responses = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8")); //NOI18N
+        //warnings of ruby and puppet-lint stay out of the responses, a full pipe would block the worker
+        final InputStream err = process.getErrorStream();
+        STDERR_RP.post(new Runnable() {
+            @Override
+            public void run() {
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(err, "UTF-8"))) { //NOI18N
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        LOG.log(Level.FINE, "puppet-lint worker: {0}", line); //NOI18N
+                    }
+                } catch (IOException ex) {
+                    //the worker was destroyed
+                }
+            }
+        });
+    }
+
+    private void stop() {
+        if (process != null) {
+            process.destroy();
+        }
+        process = null;
+        requests = null;
+        responses = null;
+    }
+}
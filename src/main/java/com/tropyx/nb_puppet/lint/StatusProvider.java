@@ -1,5 +1,6 @@
 package com.tropyx.nb_puppet.lint;
 
+import com.tropyx.nb_puppet.EditorTasks;
 import com.tropyx.nb_puppet.PPConstants;
 import com.tropyx.nb_puppet.PuppetProject;
 import com.tropyx.nb_puppet.lexer.PLanguageProvider;
@@ -12,11 +13,16 @@ import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
+import java.util.prefs.PreferenceChangeEvent;
+import java.util.prefs.PreferenceChangeListener;
 import java.util.prefs.Preferences;
 import javax.swing.text.Document;
 import org.netbeans.api.editor.mimelookup.MimeRegistration;
@@ -36,12 +42,13 @@ import org.netbeans.spi.editor.hints.HintsController;
 import org.netbeans.spi.editor.hints.Severity;
 import org.netbeans.spi.project.AuxiliaryProperties;
 import org.openide.filesystems.FileChangeAdapter;
+import org.openide.filesystems.FileChangeListener;
 import org.openide.filesystems.FileEvent;
 import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileRenameEvent;
 import org.openide.filesystems.FileUtil;
 import org.openide.util.Exceptions;
 import org.openide.util.NbPreferences;
-import org.openide.util.RequestProcessor;
 
 /**
  *
@@ -50,10 +57,53 @@ import org.openide.util.RequestProcessor;
 @MimeRegistration(mimeType=PPConstants.MIME_TYPE, service=UpToDateStatusProviderFactory.class)
 public final class StatusProvider implements UpToDateStatusProviderFactory {
 
-    private static final String LAYER_ERRORS = "puppet-plugin-errors"; //NOI18N
-    private static final RequestProcessor RP = new RequestProcessor(StatusProvider.class); //NOI18N
+    static final String LAYER_ERRORS = "puppet-plugin-errors"; //NOI18N
+    /**
+     * project property, "true" to run the puppet-lint executable instead of {@link LintTask}
+     */
+    static final String EXTERNAL_LINT = "lint.external"; //NOI18N
+    /**
+     * project property, "true" to keep a puppet-lint process running between checks, see {@link LintWorker}
+     */
+    static final String LINT_WORKER = "lint.worker"; //NOI18N
+    private static final int LINT_DELAY = 200;
     private static final Logger LOG = Logger.getLogger(StatusProvider.class.getName());
 
+    //disabledChecks runs on every parse, reading the Rakefile each time is too slow
+    private static final Map<Project, Set<LintCheck>> disabledCache = new WeakHashMap<>();
+    private static final Set<File> watchedFiles = new HashSet<>();
+    private static long cacheGeneration;
+    private static final FileChangeListener invalidateOnChange = new FileChangeAdapter() {
+        @Override
+        public void fileDataCreated(FileEvent fe) {
+            invalidateDisabledChecks();
+        }
+
+        @Override
+        public void fileChanged(FileEvent fe) {
+            invalidateDisabledChecks();
+        }
+
+        @Override
+        public void fileDeleted(FileEvent fe) {
+            invalidateDisabledChecks();
+        }
+
+        @Override
+        public void fileRenamed(FileRenameEvent fe) {
+            invalidateDisabledChecks();
+        }
+    };
+
+    static {
+        NbPreferences.forModule(StatusProvider.class).node("lint").addPreferenceChangeListener(new PreferenceChangeListener() {
+            @Override
+            public void preferenceChange(PreferenceChangeEvent evt) {
+                invalidateDisabledChecks();
+            }
+        });
+    }
+
     @Override
     public UpToDateStatusProvider createUpToDateStatusProvider(Document document) {
         return new StatusProviderImpl(document);
@@ -62,7 +112,6 @@ public final class StatusProvider implements UpToDateStatusProviderFactory {
     static class StatusProviderImpl extends UpToDateStatusProvider {
         private final Document document;
         private final AtomicBoolean dirty = new AtomicBoolean(true);
-        private final AtomicBoolean running = new AtomicBoolean(false);
         private final Project project;
 
         StatusProviderImpl(Document doc) {
@@ -83,20 +132,20 @@ public final class StatusProvider implements UpToDateStatusProviderFactory {
         @Override
         public UpToDateStatus getUpToDate() {
             final FileObject fo = NbEditorUtilities.getFileObject(document);
-            //TODO do this in other thread??
+            if (!isExternalLint(project)) {
+                //the built-in checks run as a parser task
+                return UpToDateStatus.UP_TO_DATE_OK;
+            }
             if (fo.isValid() && dirty.compareAndSet(true, false)) {
-                if (running.compareAndSet(false, true)) {
-                    RP.post(new Runnable()
-                    {
+                EditorTasks.schedule(document, EditorTasks.LINT, LINT_DELAY, new Runnable()
+                {
 
-                        @Override
-                        public void run()
-                        {
-                            HintsController.setErrors(document, LAYER_ERRORS, checkErrors(fo));
-                            running.set(false);
-                        }
-                    });
-                } 
+                    @Override
+                    public void run()
+                    {
+                        HintsController.setErrors(document, LAYER_ERRORS, checkErrors(fo));
+                    }
+                });
                 return UpToDateStatus.UP_TO_DATE_PROCESSING;
             }
             return UpToDateStatus.UP_TO_DATE_OK; 
@@ -110,14 +159,36 @@ public final class StatusProvider implements UpToDateStatusProviderFactory {
                 //is in zip file?
                 return toRet;
             }
+            String path = FileUtil.getRelativePath(basedir, fo);
+            Set<String> options = skipChecks(project);
+            List<String> lines = isLintWorker(project) ? LintWorker.getDefault().check(folder, path, options) : null;
+            if (lines == null) {
+                lines = runPuppetLint(folder, path, options);
+            }
+            for (String line : lines) {
+                String[] vals = line.split("\\|\\|");
+                if (vals.length == 4) {
+                    int lineNum = Integer.parseInt(vals[0]);
+                    Severity level = "warning".equals(vals[1]) ? Severity.WARNING : Severity.ERROR;
+                    String type = vals[2];
+                    String message = vals[3];
+                    ErrorDescription err = ErrorDescriptionFactory.createErrorDescription(level, message, findFixesForType(type, document, lineNum), document, lineNum);
+                    toRet.add(err);
+                }
+            }
+            return toRet;
+        }
+
+        private List<String> runPuppetLint(File folder, String path, Set<String> options) {
+            List<String> toRet = new ArrayList<>();
             ExternalProcessBuilder builder = new ExternalProcessBuilder("puppet-lint")
                 .workingDirectory(folder)
                 .redirectErrorStream(true)
-                .addArgument(FileUtil.getRelativePath(basedir, fo))
+                .addArgument(path)
                 .addArgument("--log-format")
                 .addArgument("%{line}||%{kind}||%{check}||%{message}");
             
-            for (String skip : skipChecks()) {
+            for (String skip : options) {
                 builder = builder.addArgument(skip);
             }
             
@@ -131,15 +202,7 @@ public final class StatusProvider implements UpToDateStatusProviderFactory {
                 BufferedReader br = new BufferedReader(new InputStreamReader(os));
                 String line = br.readLine();
                 while (line != null) {
-                    String[] vals = line.split("\\|\\|");
-                    if (vals.length == 4) {
-                        int lineNum = Integer.parseInt(vals[0]);
-                        Severity level = "warning".equals(vals[1]) ? Severity.WARNING : Severity.ERROR;
-                        String type = vals[2];
-                        String message = vals[3];
-                        ErrorDescription err = ErrorDescriptionFactory.createErrorDescription(level, message, findFixesForType(type, document, lineNum), document, lineNum);
-                        toRet.add(err);
-                    }
+                    toRet.add(line);
                     line = br.readLine();
                 }
             } catch (IOException | InterruptedException ex)
@@ -160,44 +223,145 @@ public final class StatusProvider implements UpToDateStatusProviderFactory {
             return toRet;
         }
 
-        private Set<String> skipChecks()
-        {
-            Set<String> toRet = new HashSet<>();
-            //global prefs
-            Preferences nd = NbPreferences.forModule(StatusProvider.class).node("lint");
-            AuxiliaryProperties p = null;
-            if (project != null) {
-                p = project.getLookup().lookup(AuxiliaryProperties.class);
-                final PuppetProject pp = project.getLookup().lookup(PuppetProject.class);
-                if (pp != null && pp.isModule()) {
-                    toRet.add("--relative");
+    }
+
+    /**
+     * @param project can be null
+     * @return true if the project is set up to run the puppet-lint executable instead of the built-in checks
+     */
+    static boolean isExternalLint(Project project) {
+        if (project == null) {
+            return false;
+        }
+        AuxiliaryProperties p = project.getLookup().lookup(AuxiliaryProperties.class);
+        return p != null && "true".equals(p.get(EXTERNAL_LINT, true)); //NOI18N
+    }
+
+    /**
+     * @param project can be null
+     * @return true if the puppet-lint executable is replaced by a long running worker process
+     */
+    static boolean isLintWorker(Project project) {
+        if (project == null) {
+            return false;
+        }
+        AuxiliaryProperties p = project.getLookup().lookup(AuxiliaryProperties.class);
+        return p != null && "true".equals(p.get(LINT_WORKER, true)); //NOI18N
+    }
+
+    /**
+     * @param project can be null
+     * @return true if only the part of class names after the module name is checked against the file layout
+     */
+    static boolean isRelative(Project project) {
+        if (project == null) {
+            return false;
+        }
+        PuppetProject pp = project.getLookup().lookup(PuppetProject.class);
+        return pp != null && pp.isModule();
+    }
+
+    /**
+     * checks disabled in the project, globally or in the Rakefile
+     * @param project can be null
+     * @return
+     */
+    static Set<LintCheck> disabledChecks(Project project) {
+        long generation;
+        synchronized (disabledCache) {
+            Set<LintCheck> cached = disabledCache.get(project);
+            if (cached != null) {
+                return cached;
+            }
+            generation = cacheGeneration;
+        }
+        watchSettings(project);
+        Set<String> params = skipChecks(project);
+        Set<LintCheck> toRet = EnumSet.noneOf(LintCheck.class);
+        for (LintCheck lc : LintCheck.values()) {
+            if (params.contains(lc.getDisableParam())) {
+                toRet.add(lc);
+            }
+        }
+        toRet = Collections.unmodifiableSet(toRet);
+        synchronized (disabledCache) {
+            //settings changed while reading them, don't keep the old state
+            if (generation == cacheGeneration) {
+                disabledCache.put(project, toRet);
+            }
+        }
+        return toRet;
+    }
+
+    private static void invalidateDisabledChecks() {
+        synchronized (disabledCache) {
+            disabledCache.clear();
+            cacheGeneration++;
+        }
+    }
+
+    /**
+     * the Rakefile and the project properties, including the parent project's ones that modules inherit
+     */
+    private static void watchSettings(Project project) {
+        if (project == null) {
+            return;
+        }
+        File dir = FileUtil.toFile(project.getProjectDirectory());
+        if (dir == null) {
+            return;
+        }
+        List<File> files = new ArrayList<>();
+        files.add(new File(dir, "Rakefile")); //NOI18N
+        files.add(new File(dir, "nb-project.properties")); //NOI18N
+        if (dir.getParentFile() != null) {
+            files.add(new File(dir.getParentFile(), "nb-project.properties")); //NOI18N
+        }
+        for (File f : files) {
+            File normalized = FileUtil.normalizeFile(f);
+            synchronized (watchedFiles) {
+                if (!watchedFiles.add(normalized)) {
+                    continue;
                 }
-                if (RakefileExtractor.isUseRakefile(p)) {
-                    FileObject fo = project.getProjectDirectory().getFileObject("Rakefile");
-                    if (fo != null) {
-                        try {
-                            toRet.addAll(Arrays.asList(RakefileExtractor.getConfiguration(fo)));
-                        } catch (IOException ex) {
-                            Exceptions.printStackTrace(ex);
-                        }
+            }
+            FileUtil.addFileChangeListener(invalidateOnChange, normalized);
+        }
+    }
+
+    private static Set<String> skipChecks(Project project)
+    {
+        Set<String> toRet = new HashSet<>();
+        //global prefs
+        Preferences nd = NbPreferences.forModule(StatusProvider.class).node("lint");
+        AuxiliaryProperties p = null;
+        if (project != null) {
+            p = project.getLookup().lookup(AuxiliaryProperties.class);
+            if (isRelative(project)) {
+                toRet.add("--relative");
+            }
+            if (RakefileExtractor.isUseRakefile(p)) {
+                FileObject fo = project.getProjectDirectory().getFileObject("Rakefile");
+                if (fo != null) {
+                    try {
+                        toRet.addAll(Arrays.asList(RakefileExtractor.getConfiguration(fo)));
+                    } catch (IOException ex) {
+                        Exceptions.printStackTrace(ex);
                     }
                 }
             }
-            for (LintCheck lc : LintCheck.values()) {
-                if (p != null && "false".equals(p.get("lint." + lc.name(), true))) {
-                    toRet.add(lc.getDisableParam());
-                }
-                else if (!nd.getBoolean(lc.name(), true)) {
-                    toRet.add(lc.getDisableParam());
-                }
+        }
+        for (LintCheck lc : LintCheck.values()) {
+            if (p != null && "false".equals(p.get("lint." + lc.name(), true))) {
+                toRet.add(lc.getDisableParam());
+            }
+            else if (!nd.getBoolean(lc.name(), true)) {
+                toRet.add(lc.getDisableParam());
             }
-            return toRet;
         }
-
+        return toRet;
     }
 
-    private static List<Fix> findFixesForType(String type, final Document document, int lineNum) {
-        System.out.println("type:" + type);
+    static List<Fix> findFixesForType(String type, final Document document, int lineNum) {
         final int startindex = Utilities.getRowStartFromLineOffset((BaseDocument) document, lineNum - 1);
         final int endindex = Utilities.getRowStartFromLineOffset((BaseDocument) document, lineNum);
         if ("double_quoted_strings".equals(type)) {
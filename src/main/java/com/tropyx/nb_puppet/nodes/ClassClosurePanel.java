@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2015 mkleint
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tropyx.nb_puppet.nodes;
+
+import com.tropyx.nb_puppet.EditorTasks;
+import com.tropyx.nb_puppet.PPConstants;
+import com.tropyx.nb_puppet.hyperlink.PHyperlinkProvider;
+import com.tropyx.nb_puppet.indexer.ClassGraph;
+import com.tropyx.nb_puppet.indexer.PPIndexer;
+import com.tropyx.nb_puppet.parser.PClass;
+import com.tropyx.nb_puppet.parser.PElement;
+import com.tropyx.nb_puppet.parser.PNode;
+import com.tropyx.nb_puppet.parser.PuppetParserResult;
+import com.tropyx.nb_puppet.refactoring.PPWhereUsedQueryPlugin;
+import java.awt.BorderLayout;
+import java.awt.event.ActionEvent;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import javax.swing.AbstractAction;
+import javax.swing.Action;
+import javax.swing.SwingUtilities;
+import javax.swing.text.StyledDocument;
+import org.netbeans.api.java.classpath.ClassPath;
+import org.netbeans.api.java.classpath.GlobalPathRegistry;
+import org.netbeans.editor.BaseDocument;
+import org.netbeans.modules.parsing.api.ParserManager;
+import org.netbeans.modules.parsing.api.ResultIterator;
+import org.netbeans.modules.parsing.api.Source;
+import org.netbeans.modules.parsing.api.UserTask;
+import org.netbeans.modules.parsing.spi.ParseException;
+import org.netbeans.modules.parsing.spi.Parser;
+import org.openide.explorer.ExplorerManager;
+import org.openide.explorer.view.BeanTreeView;
+import org.openide.filesystems.FileChangeAdapter;
+import org.openide.filesystems.FileEvent;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.URLMapper;
+import org.openide.loaders.DataObject;
+import org.openide.nodes.AbstractNode;
+import org.openide.nodes.ChildFactory;
+import org.openide.nodes.Children;
+import org.openide.nodes.Node;
+import org.openide.text.CloneableEditorSupport;
+import org.openide.util.Exceptions;
+
+/**
+ * tree of classes pulled in by the nodes and classes declared in the current manifest,
+ * backed by {@link ClassGraph}.
+ * @author mkleint
+ */
+public class ClassClosurePanel extends javax.swing.JPanel implements ExplorerManager.Provider, Runnable {
+
+    private final transient ExplorerManager explorerManager = new ExplorerManager();
+    private final BeanTreeView treeView;
+    private DataObject current;
+    private final FileChangeAdapter adapter = new FileChangeAdapter(){
+            @Override
+            public void fileChanged(FileEvent fe) {
+                showWaitNode();
+                EditorTasks.schedule(ClassClosurePanel.this, EditorTasks.NAVIGATOR, 0, ClassClosurePanel.this);
+            }
+        };
+
+    public ClassClosurePanel() {
+        setLayout(new BorderLayout());
+        treeView = new BeanTreeView();
+        add(treeView, BorderLayout.CENTER);
+    }
+
+    @Override
+    public ExplorerManager getExplorerManager() {
+        return explorerManager;
+    }
+
+    void navigate(DataObject d) {
+        if (current != null) {
+            current.getPrimaryFile().removeFileChangeListener(adapter);
+        }
+        current = d;
+        current.getPrimaryFile().addFileChangeListener(adapter);
+        showWaitNode();
+        EditorTasks.schedule(this, EditorTasks.NAVIGATOR, 0, this);
+    }
+
+    @Override
+    public void run() {
+        DataObject cur = current;
+        if (cur != null && PPConstants.MIME_TYPE.equals(cur.getPrimaryFile().getMIMEType())) {
+            FileObject fo = cur.getPrimaryFile();
+            ClassPath cp = ClassPath.getClassPath(fo, ClassPath.SOURCE);
+            Collection<FileObject> roots = cp != null ? Arrays.asList(cp.getRoots()) : GlobalPathRegistry.getDefault().getSourceRoots();
+            ClassGraph.getDefault().ensureLoaded(roots);
+            final List<String> names = findRootNames(fo);
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    treeView.setRootVisible(false);
+                    explorerManager.setRootContext(new AbstractNode(Children.create(new ClassChildFactory(names), true)));
+                }
+            });
+        }
+    }
+
+    private static List<String> findRootNames(FileObject fo) {
+        final List<String> toRet = new ArrayList<>();
+        try {
+            ParserManager.parse(Collections.singleton(Source.create(fo)), new UserTask() {
+                @Override
+                public void run(ResultIterator resultIterator) throws Exception {
+                    Parser.Result result = resultIterator.getParserResult();
+                    if (result instanceof PuppetParserResult) {
+                        for (PElement ch : ((PuppetParserResult)result).getRootNode().getChildren()) {
+                            if (ch.isType(PElement.CLASS)) {
+                                toRet.add(((PClass)ch).getName());
+                            } else if (ch.isType(PElement.NODE)) {
+                                toRet.add(PPIndexer.getNodeName((PNode)ch));
+                            }
+                        }
+                    }
+                }
+            });
+        } catch (ParseException ex) {
+            Exceptions.printStackTrace(ex);
+        }
+        return toRet;
+    }
+
+    void release() {
+        if (current != null) {
+            current.getPrimaryFile().removeFileChangeListener(adapter);
+        }
+        current = null;
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+               treeView.setRootVisible(false);
+               explorerManager.setRootContext(new AbstractNode(Children.LEAF));
+            }
+        });
+    }
+
+    public void showWaitNode() {
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+               treeView.setRootVisible(true);
+               AbstractNode an = new AbstractNode(Children.LEAF);
+               an.setDisplayName("Please wait...");
+               explorerManager.setRootContext(an);
+            }
+        });
+    }
+
+    /**
+     * top level keys are the names from the file, nested ones the classes included by the parent.
+     * Keys are created in background, the graph is locked while the indexer writes.
+     */
+    private static class ClassChildFactory extends ChildFactory<ClassKey> {
+        private final List<String> rootNames;
+        private final String parent;
+        private final Set<String> path;
+
+        ClassChildFactory(List<String> rootNames) {
+            this.rootNames = rootNames;
+            this.parent = null;
+            this.path = Collections.emptySet();
+        }
+
+        ClassChildFactory(String parent, Set<String> path) {
+            this.rootNames = null;
+            this.parent = parent;
+            this.path = path;
+        }
+
+        @Override
+        protected boolean createKeys(List<ClassKey> toPopulate) {
+            ClassGraph graph = ClassGraph.getDefault();
+            if (rootNames != null) {
+                for (String name : rootNames) {
+                    toPopulate.add(new ClassKey(name, null, false, !graph.getOutgoing(name).isEmpty(),
+                            graph.getClosure(name).size()));
+                }
+                return true;
+            }
+            //one node per included class, first edge wins
+            Map<String, ClassGraph.Kind> targets = new LinkedHashMap<>();
+            for (ClassGraph.Edge e : graph.getOutgoing(parent)) {
+                if (e.getKind() != ClassGraph.Kind.REFERENCE && !targets.containsKey(e.getTo())) {
+                    targets.put(e.getTo(), e.getKind());
+                }
+            }
+            for (Map.Entry<String, ClassGraph.Kind> target : targets.entrySet()) {
+                String name = target.getKey();
+                boolean cycle = path.contains(name);
+                toPopulate.add(new ClassKey(name, target.getValue(), cycle,
+                        !cycle && !graph.getOutgoing(name).isEmpty(), -1));
+            }
+            return true;
+        }
+
+        @Override
+        protected Node createNodeForKey(ClassKey key) {
+            return new ClassNode(key, path);
+        }
+    }
+
+    /**
+     * everything the node shows, computed with the keys
+     */
+    private static final class ClassKey {
+        private final String name;
+        //null for the classes and nodes of the file
+        private final ClassGraph.Kind kind;
+        private final boolean cycle;
+        private final boolean hasChildren;
+        //-1 for included classes
+        private final int closureSize;
+
+        ClassKey(String name, ClassGraph.Kind kind, boolean cycle, boolean hasChildren, int closureSize) {
+            this.name = name;
+            this.kind = kind;
+            this.cycle = cycle;
+            this.hasChildren = hasChildren;
+            this.closureSize = closureSize;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ClassKey)) {
+                return false;
+            }
+            ClassKey other = (ClassKey) obj;
+            return name.equals(other.name) && kind == other.kind;
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode() * 31 + (kind != null ? kind.hashCode() : 0);
+        }
+    }
+
+    private static class ClassNode extends AbstractNode {
+        private final ClassKey key;
+
+        ClassNode(ClassKey key, Set<String> path) {
+            super(key.hasChildren
+                    ? Children.create(new ClassChildFactory(key.name, extend(path, key.name)), true)
+                    : Children.LEAF);
+            this.key = key;
+            setName(key.name);
+            setIconBaseWithExtension(PPConstants.ICON_PUPPET_FILE);
+        }
+
+        private static Set<String> extend(Set<String> path, String name) {
+            Set<String> toRet = new HashSet<>(path);
+            toRet.add(name);
+            return toRet;
+        }
+
+        @Override
+        public String getHtmlDisplayName() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(key.kind == null ? "<b>" + key.name + "</b>" : key.name);
+            sb.append(" <font color='!controlShadow'>");
+            if (key.kind != null) {
+                sb.append(key.kind.name().toLowerCase(Locale.ENGLISH)).append(' ');
+            }
+            if (key.cycle) {
+                sb.append("(cycle)");
+            } else if (key.closureSize >= 0) {
+                sb.append("(").append(key.closureSize).append(" classes)");
+            }
+            sb.append("</font>");
+            return sb.toString();
+        }
+
+        @Override
+        public Action getPreferredAction() {
+            return new AbstractAction() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    openDeclaration(key.name);
+                }
+            };
+        }
+    }
+
+    private static void openDeclaration(String name) {
+        Iterator<ClassGraph.Declaration> it = ClassGraph.getDefault().getDeclarations(name).iterator();
+        if (!it.hasNext()) {
+            return;
+        }
+        ClassGraph.Declaration decl = it.next();
+        try {
+            FileObject fo = URLMapper.findFileObject(new URL(decl.getFile()));
+            CloneableEditorSupport ces = fo != null ? PPWhereUsedQueryPlugin.getEditorSupport(fo) : null;
+            if (ces != null) {
+                StyledDocument doc = ces.openDocument();
+                PHyperlinkProvider.showAtOffset((BaseDocument)doc, decl.getOffset());
+            }
+        } catch (IOException ex) {
+            Exceptions.printStackTrace(ex);
+        }
+    }
+
+}
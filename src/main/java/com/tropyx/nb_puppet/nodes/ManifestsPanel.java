@@ -17,6 +17,7 @@
 
 package com.tropyx.nb_puppet.nodes;
 
+import com.tropyx.nb_puppet.EditorTasks;
 import com.tropyx.nb_puppet.PuppetProject;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -54,7 +55,7 @@ public class ManifestsPanel extends javax.swing.JPanel implements ExplorerManage
             @Override
             public void fileChanged(FileEvent fe) {
                 showWaitNode();
-                RequestProcessor.getDefault().post(ManifestsPanel.this);
+                EditorTasks.schedule(ManifestsPanel.this, EditorTasks.NAVIGATOR, 0, ManifestsPanel.this);
             }
         };
 
@@ -75,7 +76,7 @@ public class ManifestsPanel extends javax.swing.JPanel implements ExplorerManage
         current = d;
         current.getPrimaryFile().addFileChangeListener(adapter);
         showWaitNode();
-        RequestProcessor.getDefault().post(this);
+        EditorTasks.schedule(this, EditorTasks.NAVIGATOR, 0, this);
     }
     
     @Override
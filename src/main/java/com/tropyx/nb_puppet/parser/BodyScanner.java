@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2015 mkleint
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tropyx.nb_puppet.parser;
+
+/**
+ * finds the curly braces of a class, define or node body in plain text, skipping strings, comments
+ * and hash default values in the parameter list.
+ * @author mkleint
+ */
+public final class BodyScanner {
+
+    private BodyScanner() {
+    }
+
+    /**
+     * @param text
+     * @param offset start of the class, define or node
+     * @return offset after the opening curly brace of the body, -1 if not found
+     */
+    public static int findBodyStart(CharSequence text, int offset) {
+        return scan(text, offset, false);
+    }
+
+    /**
+     * @param text
+     * @param offset start of the class, define or node
+     * @return offset of the curly brace closing the body, the end of text if not closed
+     */
+    public static int findBodyEnd(CharSequence text, int offset) {
+        return scan(text, offset, true);
+    }
+
+    private static int scan(CharSequence text, int offset, boolean toEnd) {
+        int depth = 0;
+        boolean body = false;
+        char quote = 0;
+        for (int i = offset; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quote != 0) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == quote) {
+                    quote = 0;
+                }
+                continue;
+            }
+            switch (c) {
+                case '"':
+                case '\'':
+                    quote = c;
+                    break;
+                case '#':
+                    while (i < text.length() && text.charAt(i) != '\n') {
+                        i++;
+                    }
+                    break;
+                case '(':
+                case '[':
+                    depth++;
+                    break;
+                case ')':
+                case ']':
+                    depth--;
+                    break;
+                case '{':
+                    //hash default values are inside the parameter list parens
+                    if (!body && depth == 0) {
+                        if (!toEnd) {
+                            return i + 1;
+                        }
+                        body = true;
+                    }
+                    depth++;
+                    break;
+                case '}':
+                    depth--;
+                    if (body && depth == 0) {
+                        return i;
+                    }
+                    break;
+                default:
+            }
+        }
+        return toEnd ? text.length() : -1;
+    }
+}
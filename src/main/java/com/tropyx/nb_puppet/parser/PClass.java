@@ -30,6 +30,10 @@ public class PClass extends PElement implements PParamContainer {
         return name.getName();
     }
 
+    public PIdentifier getNameIdentifier() {
+        return name;
+    }
+
     void setName(PIdentifier name) {
         this.name = name;
     }
@@ -19,6 +19,7 @@ package com.tropyx.nb_puppet.parser;
 
 public class PDefine extends PElement implements PParamContainer {
     private String name;
+    private int nameOffset;
     private PClassParam[] params = new PClassParam[0];
     
     public PDefine(PElement parent, int offset) {
@@ -33,6 +34,17 @@ public class PDefine extends PElement implements PParamContainer {
         this.name = name;
     }
 
+    /**
+     * @return offset of the name, {@link #getOffset()} is the <code>define</code> keyword
+     */
+    public int getNameOffset() {
+        return nameOffset;
+    }
+
+    void setNameOffset(int nameOffset) {
+        this.nameOffset = nameOffset;
+    }
+
     @Override
     public PClassParam[] getParams() {
         return params;
@@ -22,7 +22,7 @@ import java.util.regex.Pattern;
 
 public class PString extends PElement {
     private final String value;
-    final static Pattern VAR = Pattern.compile("\\$\\{([a-zA-Z_:]+?)\\}");
+    final static Pattern VAR = Pattern.compile("\\$\\{([a-zA-Z_:]+?)\\}|(?<!\\\\)\\$((?:::)?[a-z_][a-zA-Z0-9_]*(?:::[a-z_][a-zA-Z0-9_]*)*)");
     
     public PString(PElement parent, int offset, String value) {
         super(STRING, parent, offset);
@@ -32,9 +32,13 @@ public class PString extends PElement {
             if (value.startsWith("\"") && value.endsWith("\"")) {
                 Matcher m = VAR.matcher(value);
                 while (m.find()) {
-                    String var = m.group(1);
-                    //+1 for the ${ character
-                    new PVariable(this, offset + m.start() + 1, "$" + var);
+                    if (m.group(1) != null) {
+                        //+1 for the ${ character
+                        new PVariable(this, offset + m.start() + 1, "$" + m.group(1));
+                    } else {
+                        //$x without braces
+                        new PVariable(this, offset + m.start(), "$" + m.group(2));
+                    }
                 }
                 this.value = value.substring(1, value.length() - 1);
             }
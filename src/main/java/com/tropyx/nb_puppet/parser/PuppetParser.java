@@ -22,6 +22,7 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 import javax.swing.event.ChangeListener;
+import javax.swing.text.Document;
 import org.netbeans.api.annotations.common.NonNull;
 import org.netbeans.api.annotations.common.NullAllowed;
 import org.netbeans.api.lexer.Token;
@@ -45,7 +46,10 @@ class PuppetParser extends Parser {
     public void parse(Snapshot snapshot, Task task, SourceModificationEvent event) throws ParseException {
 //        System.out.println("text" + snapshot.getText().toString());
         result = doParse(snapshot, task);
-        System.out.println("AST:" + result.getRootNode().toStringRecursive());
+        Document doc = snapshot.getSource().getDocument(false);
+        if (doc != null) {
+            PuppetParserResult.setLastResult(doc, result);
+        }
     }
 
     @Override
@@ -84,9 +88,12 @@ class PuppetParser extends Parser {
                 parseNode(root, ts);
             } else if (token.id() == PTokenId.DEFINE) {
                 parseDefine(root, ts);
+            } else if (token.id() == PTokenId.INCLUDE || token.id() == PTokenId.REQUIRE || token.id() == PTokenId.CONTAIN) {
+                //top scope, eg. in site.pp
+                parseTopScopeInclude(root, ts);
             }
             token = nextSkipWhitespaceComment(ts);
-            //TODO what about site.pp (without define/class/node)?
+            //TODO what about the other top scope statements in site.pp (without define/class/node)?
         }
 
         return new PuppetParserResult(snapshot, root);
@@ -319,9 +326,11 @@ class PuppetParser extends Parser {
         if (null == nextSkipWhitespaceComment(ts)) {
             return;
         }
+        int nameOffset = ts.offset();
         String name = collectText(ts, PTokenId.WHITESPACE, PTokenId.LBRACE, PTokenId.LPAREN);
         if (name != null) {
             pc.setName(name);
+            pc.setNameOffset(nameOffset);
             token = skipWhitespaceComment(ts);
             if (token != null && token.id() == PTokenId.LPAREN) {
                 //params
@@ -603,6 +612,35 @@ class PuppetParser extends Parser {
         fastForward(pTypeReference, ts, PTokenId.RBRACKET);
     }
 
+    /**
+     * include/require/contain outside of class, define and node, leaves the sequence before the first
+     * token not belonging to it
+     */
+    private void parseTopScopeInclude(PElement root, TokenSequence<PTokenId> ts) {
+        int offs = ts.offset();
+        String f = ts.token().text().toString();
+        Token<PTokenId> token = nextSkipWhitespaceComment(ts);
+        if (token == null) {
+            return;
+        }
+        boolean bracket = token.id() == PTokenId.LBRACKET;
+        if (bracket) {
+            token = nextSkipWhitespaceComment(ts);
+            if (token == null) {
+                return;
+            }
+        }
+        if (token.id() != PTokenId.IDENTIFIER) {
+            prevBackoffWhitespaceComment(ts);
+            return;
+        }
+        parseReqList(new PFunction(root, offs, f), ts);
+        token = ts.token();
+        if (token != null && !(bracket && token.id() == PTokenId.RBRACKET)) {
+            prevBackoffWhitespaceComment(ts);
+        }
+    }
+
     private void parseReqList(PFunction reqFunc, TokenSequence<PTokenId> ts) {
         Token<PTokenId> token = ts.token();
 
@@ -17,11 +17,24 @@
 
 package com.tropyx.nb_puppet.parser;
 
+import java.lang.ref.Reference;
+import com.tropyx.nb_puppet.lexer.PTokenId;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+import org.netbeans.api.lexer.TokenHierarchy;
+import org.netbeans.api.lexer.TokenId;
+import org.netbeans.api.lexer.TokenSequence;
 import org.netbeans.modules.parsing.api.Snapshot;
 import org.netbeans.modules.parsing.spi.Parser;
 
 public class PuppetParserResult extends Parser.Result {
     private final PElement root;
+    private List<int[]> bodies;
+    private VariableOccurrences variableOccurrences;
 
     public PuppetParserResult(Snapshot _snapshot, PElement root) {
         super(_snapshot);
@@ -37,4 +50,136 @@ public class PuppetParserResult extends Parser.Result {
         return root;
     }
 
+    /**
+     * scope resolved variable occurrences, computed on first use and kept for the lifetime of the result
+     * @return
+     */
+    public synchronized VariableOccurrences getVariableOccurrences() {
+        if (variableOccurrences == null) {
+            variableOccurrences = VariableOccurrences.create(root, getSnapshot().getText());
+        }
+        return variableOccurrences;
+    }
+
+    static void setLastResult(Document doc, PuppetParserResult result) {
+        doc.putProperty(PuppetParserResult.class, new SoftReference<>(result));
+    }
+
+    /**
+     * the result of the last parse of the document, it can be older than the document content,
+     * see {@link #isClassHeaderUpToDate(javax.swing.text.Document)}
+     * @param doc
+     * @return null if the document was not parsed yet
+     */
+    public static PuppetParserResult getLastResult(Document doc) {
+        Object ref = doc.getProperty(PuppetParserResult.class);
+        return ref instanceof Reference ? (PuppetParserResult) ((Reference<?>) ref).get() : null;
+    }
+
+    /**
+     * compares the document with the parsed snapshot, offsets of the result are only valid in the document
+     * if it still has the same content. Must be called under document read lock.
+     * @param doc
+     * @return false if the document was edited since the snapshot was taken
+     */
+    public boolean isSnapshotOf(Document doc) {
+        CharSequence parsed = getSnapshot().getText();
+        if (doc.getLength() != parsed.length()) {
+            return false;
+        }
+        Segment segment = new Segment();
+        segment.setPartialReturn(true);
+        try {
+            int offset = 0;
+            while (offset < parsed.length()) {
+                doc.getText(offset, parsed.length() - offset, segment);
+                for (int i = 0; i < segment.count; i++) {
+                    if (segment.array[segment.offset + i] != parsed.charAt(offset + i)) {
+                        return false;
+                    }
+                }
+                offset += segment.count;
+            }
+            return true;
+        } catch (BadLocationException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * checks that the names, parameters and inherits of all top level classes, defines and nodes
+     * are the same in the document as in the parsed snapshot. The one region that differs between the two
+     * has to be inside one of the bodies, or the tokens around it other than whitespace and comments
+     * have to be the same. Must be called under document read lock.
+     * @param doc
+     * @return false if a header could have changed
+     */
+    public boolean isClassHeaderUpToDate(Document doc) {
+        CharSequence parsed = getSnapshot().getText();
+        String current;
+        try {
+            current = doc.getText(0, doc.getLength());
+        } catch (BadLocationException ex) {
+            return false;
+        }
+        int length = Math.min(parsed.length(), current.length());
+        int prefix = 0;
+        while (prefix < length && parsed.charAt(prefix) == current.charAt(prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < length - prefix
+                && parsed.charAt(parsed.length() - 1 - suffix) == current.charAt(current.length() - 1 - suffix)) {
+            suffix++;
+        }
+        int parsedEnd = parsed.length() - suffix;
+        for (int[] body : getBodies()) {
+            if (body[0] <= prefix && parsedEnd <= body[1]) {
+                return true;
+            }
+        }
+        List<String> before = significantTokens(getSnapshot().getTokenHierarchy(), prefix, parsedEnd);
+        List<String> after = significantTokens(TokenHierarchy.get(doc), prefix, current.length() - suffix);
+        return before != null && before.equals(after);
+    }
+
+    /**
+     * @return text of the tokens other than whitespace and comments touching the region,
+     * tokens merged or split by the edit show up too, null if not lexed
+     */
+    private static List<String> significantTokens(TokenHierarchy<?> th, int start, int end) {
+        TokenSequence<?> ts = th != null ? th.tokenSequence() : null;
+        if (ts == null) {
+            return null;
+        }
+        List<String> toRet = new ArrayList<>();
+        ts.move(Math.max(0, start - 1));
+        while (ts.moveNext() && ts.offset() <= end) {
+            TokenId id = ts.token().id();
+            if (id != PTokenId.WHITESPACE && id != PTokenId.COMMENT && id != PTokenId.LINE_COMMENT) {
+                toRet.add(id.name() + ":" + ts.token().text());
+            }
+        }
+        return toRet;
+    }
+
+    /**
+     * @return start (after the opening brace) and end (the closing brace) of the top level bodies
+     */
+    private synchronized List<int[]> getBodies() {
+        if (bodies == null) {
+            CharSequence text = getSnapshot().getText();
+            bodies = new ArrayList<>();
+            for (PElement ch : root.getChildren()) {
+                if (ch.isType(PElement.CLASS) || ch.isType(PElement.DEFINE) || ch.isType(PElement.NODE)) {
+                    int bodyStart = BodyScanner.findBodyStart(text, ch.getOffset());
+                    if (bodyStart != -1) {
+                        bodies.add(new int[] {bodyStart, BodyScanner.findBodyEnd(text, ch.getOffset())});
+                    }
+                }
+            }
+        }
+        return bodies;
+    }
+
 }
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2015 mkleint
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tropyx.nb_puppet.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * variable occurrences of one parse result, grouped by the scope the name resolves to.
+ * <code>$x</code> in class <code>a</code> defining <code>$x</code> is the same variable as
+ * <code>$a::x</code> elsewhere in the file, an unqualified name not defined in the class is looked up
+ * in the inherited class and then in top scope. Built once per parse, caret lookups are a binary search.
+ * @author mkleint
+ */
+public final class VariableOccurrences {
+
+    private static final int[] NONE = new int[0];
+
+    private final int[] starts;
+    private final int[] ends;
+    private final String[] keys;
+    /**
+     * key to flattened start/end pairs, in document order
+     */
+    private final Map<String, int[]> spans;
+
+    private VariableOccurrences(int[] starts, int[] ends, String[] keys, Map<String, int[]> spans) {
+        this.starts = starts;
+        this.ends = ends;
+        this.keys = keys;
+        this.spans = spans;
+    }
+
+    /**
+     * @param caret
+     * @return start and end offsets of all occurrences of the variable at caret, flattened,
+     *         empty when the caret is not on a variable
+     */
+    public int[] getSpansAt(int caret) {
+        int index = Arrays.binarySearch(starts, caret);
+        if (index < 0) {
+            //last span starting before caret
+            index = -index - 2;
+        }
+        if (index < 0 || caret > ends[index]) {
+            return NONE;
+        }
+        return spans.get(keys[index]);
+    }
+
+    static VariableOccurrences create(PElement root, CharSequence text) {
+        Resolver resolver = new Resolver(root);
+        List<Occurrence> found = new ArrayList<>();
+        for (PVariableDefinition vd : root.getChildrenOfType(PVariableDefinition.class, true)) {
+            found.add(new Occurrence(vd.getOffset(), vd.getOffset() + vd.getName().length(), resolver.resolve(vd, vd.getName())));
+        }
+        for (PVariable v : root.getChildrenOfType(PVariable.class, true)) {
+            int start = v.getOffset();
+            int end = start + v.getName().length();
+            if (start < text.length() && text.charAt(start) == '{') {
+                //${x} in a string, the offset points at the brace
+                start = start - 1;
+                end = end + 1;
+            }
+            found.add(new Occurrence(start, end, resolver.resolve(v, v.getName())));
+        }
+        Collections.sort(found, new Comparator<Occurrence>() {
+            @Override
+            public int compare(Occurrence o1, Occurrence o2) {
+                return Integer.compare(o1.start, o2.start);
+            }
+        });
+        int[] starts = new int[found.size()];
+        int[] ends = new int[found.size()];
+        String[] keys = new String[found.size()];
+        Map<String, List<Occurrence>> byKey = new HashMap<>();
+        for (int i = 0; i < found.size(); i++) {
+            Occurrence o = found.get(i);
+            starts[i] = o.start;
+            ends[i] = o.end;
+            keys[i] = o.key;
+            List<Occurrence> list = byKey.get(o.key);
+            if (list == null) {
+                list = new ArrayList<>();
+                byKey.put(o.key, list);
+            }
+            list.add(o);
+        }
+        Map<String, int[]> spans = new HashMap<>();
+        for (Map.Entry<String, List<Occurrence>> e : byKey.entrySet()) {
+            int[] s = new int[e.getValue().size() * 2];
+            for (int i = 0; i < e.getValue().size(); i++) {
+                s[i * 2] = e.getValue().get(i).start;
+                s[i * 2 + 1] = e.getValue().get(i).end;
+            }
+            spans.put(e.getKey(), s);
+        }
+        return new VariableOccurrences(starts, ends, keys, spans);
+    }
+
+    private static final class Occurrence {
+        private final int start;
+        private final int end;
+        private final String key;
+
+        Occurrence(int start, int end, String key) {
+            this.start = start;
+            this.end = end;
+            this.key = key;
+        }
+    }
+
+    /**
+     * maps a variable name as written to the fully qualified name it refers to
+     */
+    private static final class Resolver {
+        private final Map<PElement, Set<String>> locals = new HashMap<>();
+        private final Map<String, PClass> classes = new HashMap<>();
+
+        Resolver(PElement root) {
+            for (PClass c : root.getChildrenOfType(PClass.class, true)) {
+                if (c.getNameIdentifier() != null) {
+                    classes.put(c.getName(), c);
+                }
+            }
+            for (PVariableDefinition vd : root.getChildrenOfType(PVariableDefinition.class, true)) {
+                String name = vd.getName().substring(1);
+                if (name.contains("::")) { //NOI18N
+                    continue;
+                }
+                PElement scope = scopeOf(vd);
+                if (scope != null) {
+                    Set<String> names = locals.get(scope);
+                    if (names == null) {
+                        names = new HashSet<>();
+                        locals.put(scope, names);
+                    }
+                    names.add(name);
+                }
+            }
+        }
+
+        String resolve(PElement el, String variable) {
+            String name = variable.startsWith("$") ? variable.substring(1) : variable; //NOI18N
+            if (name.startsWith("::")) { //NOI18N
+                String rest = name.substring(2);
+                return rest.contains("::") ? rest : name; //NOI18N
+            }
+            if (name.contains("::")) { //NOI18N
+                return name;
+            }
+            return resolveIn(scopeOf(el), name, new HashSet<PElement>());
+        }
+
+        private String resolveIn(PElement scope, String name, Set<PElement> visited) {
+            if (scope == null || !visited.add(scope)) {
+                return "::" + name; //NOI18N
+            }
+            Set<String> names = locals.get(scope);
+            if (names != null && names.contains(name)) {
+                if (scope.isType(PElement.CLASS)) {
+                    return ((PClass)scope).getName() + "::" + name; //NOI18N
+                }
+                //define and node variables cannot be referenced from outside
+                return "@" + scope.getOffset() + "::" + name; //NOI18N
+            }
+            if (scope.isType(PElement.CLASS)) {
+                PClassRef inherits = ((PClass)scope).getInherits();
+                if (inherits != null && inherits.getName() != null) {
+                    String parent = inherits.getName().startsWith("::") ? inherits.getName().substring(2) : inherits.getName(); //NOI18N
+                    PClass parentClass = classes.get(parent);
+                    if (parentClass == null) {
+                        //not in this file, best guess
+                        return parent + "::" + name; //NOI18N
+                    }
+                    return resolveIn(parentClass, name, visited);
+                }
+            }
+            return "::" + name; //NOI18N
+        }
+
+        private static PElement scopeOf(PElement el) {
+            PElement parent = el.getParent();
+            while (parent != null) {
+                if (parent.isType(PElement.CLASS) || parent.isType(PElement.DEFINE) || parent.isType(PElement.NODE)) {
+                    return parent;
+                }
+                parent = parent.getParent();
+            }
+            return null;
+        }
+    }
+}
@@ -4,14 +4,20 @@ package com.tropyx.nb_puppet.refactoring;
 import com.tropyx.nb_puppet.PPConstants;
 import com.tropyx.nb_puppet.lexer.PLanguageProvider;
 import com.tropyx.nb_puppet.parser.PuppetParserResult;
+import java.awt.BorderLayout;
 import java.awt.Component;
 import java.awt.EventQueue;
 import java.util.Collections;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JTextField;
+import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.text.Document;
 import javax.swing.text.JTextComponent;
 import javax.swing.text.StyledDocument;
@@ -24,6 +30,7 @@ import org.netbeans.modules.parsing.spi.ParseException;
 import org.netbeans.modules.parsing.spi.Parser;
 import org.netbeans.modules.refactoring.api.AbstractRefactoring;
 import org.netbeans.modules.refactoring.api.Problem;
+import org.netbeans.modules.refactoring.api.RenameRefactoring;
 import org.netbeans.modules.refactoring.api.WhereUsedQuery;
 import org.netbeans.modules.refactoring.spi.ui.ActionsImplementationProvider;
 import org.netbeans.modules.refactoring.spi.ui.CustomRefactoringPanel;
@@ -79,6 +86,128 @@ public class PPActionsImplementationProvider extends ActionsImplementationProvid
         return false;
     }
 
+    @Override
+    public boolean canRename(Lookup lookup) {
+        return canFindUsages(lookup);
+    }
+
+    @Override
+    public void doRename(Lookup lookup) {
+        EditorCookie ec = lookup.lookup(EditorCookie.class);
+        if (ec != null) {
+            StyledDocument doc = ec.getDocument();
+            FileObject fo = NbEditorUtilities.getFileObject(doc);
+            if (fo != null && PPConstants.MIME_TYPE.equals(fo.getMIMEType())) {
+
+                RP.post(new TextComponentTask(ec) {
+                    //editor element context
+                    @Override
+                    protected RefactoringUI createRefactoringUI(PPElementContext context) {
+                        //finding the target queries the index, do it once here and not from the dialog
+                        PPRenamePlugin.Target target = PPRenamePlugin.Target.find(context);
+                        return target != null ? new RenameUI(context, target) : null;
+                    }
+                });
+            }
+        }
+    }
+
+    private static class RenameUI implements RefactoringUI {
+
+        private final JTextField newName = new JTextField(30);
+        private final Lookup lookup;
+        private final RenameRefactoring refactoring;
+        private final String oldName;
+        private final String displayName;
+
+        public RenameUI(PPElementContext context, PPRenamePlugin.Target target) {
+            this.lookup = Lookups.fixed(context, target);
+            this.refactoring = new RenameRefactoring(lookup);
+            this.displayName = target.getDisplayName();
+            this.oldName = target.name;
+            newName.setText(oldName);
+            newName.selectAll();
+        }
+
+        @Override
+        public String getName() {
+            return "Rename " + displayName;
+        }
+
+        @Override
+        public String getDescription() {
+            return "Rename " + oldName + " to " + newName.getText();
+        }
+
+        @Override
+        public boolean isQuery() {
+            return false;
+        }
+
+        @Override
+        public CustomRefactoringPanel getPanel(final ChangeListener parent) {
+            return new CustomRefactoringPanel() {
+                private JPanel panel;
+
+                @Override
+                public void initialize() {
+                }
+
+                @Override
+                public Component getComponent() {
+                    if (panel == null) {
+                        panel = new JPanel(new BorderLayout(6, 0));
+                        panel.add(new JLabel("New Name:"), BorderLayout.WEST);
+                        panel.add(newName, BorderLayout.CENTER);
+                        newName.getDocument().addDocumentListener(new DocumentListener() {
+                            @Override
+                            public void insertUpdate(DocumentEvent e) {
+                                parent.stateChanged(new ChangeEvent(RenameUI.this));
+                            }
+
+                            @Override
+                            public void removeUpdate(DocumentEvent e) {
+                                parent.stateChanged(new ChangeEvent(RenameUI.this));
+                            }
+
+                            @Override
+                            public void changedUpdate(DocumentEvent e) {
+                            }
+                        });
+                    }
+                    return panel;
+                }
+            };
+        }
+
+        @Override
+        public Problem setParameters() {
+            refactoring.setNewName(newName.getText().trim());
+            return refactoring.checkParameters();
+        }
+
+        @Override
+        public Problem checkParameters() {
+            refactoring.setNewName(newName.getText().trim());
+            return refactoring.fastCheckParameters();
+        }
+
+        @Override
+        public boolean hasParameters() {
+            return true;
+        }
+
+        @Override
+        public AbstractRefactoring getRefactoring() {
+            return refactoring;
+        }
+
+        @Override
+        public HelpCtx getHelpCtx() {
+            return HelpCtx.DEFAULT_HELP;
+        }
+    }
+
     private static class WhereUsedUI implements RefactoringUI {
 
         private final CustomRefactoringPanel panel = new CustomRefactoringPanel() {
@@ -0,0 +1,90 @@
+package com.tropyx.nb_puppet.refactoring;
+
+import java.io.IOException;
+import org.netbeans.modules.refactoring.spi.SimpleRefactoringElementImplementation;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileUtil;
+import org.openide.loaders.DataFolder;
+import org.openide.loaders.DataObject;
+import org.openide.text.PositionBounds;
+import org.openide.util.Exceptions;
+import org.openide.util.Lookup;
+import org.openide.util.lookup.Lookups;
+
+/**
+ * moves a manifest to the location the autoloader expects for the renamed class,
+ * done through the data object so that open editors and pending text changes follow the file
+ * @author mkleint
+ */
+public class PPMoveFileElement extends SimpleRefactoringElementImplementation {
+    private final FileObject manifests;
+    private final String oldPath;
+    private final String newPath;
+    private FileObject file;
+
+    /**
+     * @param file the manifest
+     * @param manifests the module's manifests folder
+     * @param newPath new path relative to manifests, without extension
+     */
+    public PPMoveFileElement(FileObject file, FileObject manifests, String newPath) {
+        this.file = file;
+        this.manifests = manifests;
+        this.oldPath = FileUtil.getRelativePath(manifests, file).replaceAll("\\.pp$", ""); //NOI18N
+        this.newPath = newPath;
+    }
+
+    @Override
+    public String getText() {
+        return "Move " + oldPath + ".pp to " + newPath + ".pp";
+    }
+
+    @Override
+    public String getDisplayText() {
+        return getText();
+    }
+
+    @Override
+    public void performChange() {
+        move(newPath);
+    }
+
+    @Override
+    public void undoChange() {
+        move(oldPath);
+    }
+
+    private void move(String path) {
+        try {
+            int index = path.lastIndexOf('/');
+            FileObject folder = index == -1 ? manifests : FileUtil.createFolder(manifests, path.substring(0, index));
+            DataObject dob = DataObject.find(file);
+            if (folder != file.getParent()) {
+                dob.move(DataFolder.findFolder(folder));
+            }
+            String name = path.substring(index + 1);
+            if (!name.equals(dob.getPrimaryFile().getName())) {
+                dob.rename(name);
+            }
+            file = dob.getPrimaryFile();
+        } catch (IOException ex) {
+            Exceptions.printStackTrace(ex);
+        }
+    }
+
+    @Override
+    public Lookup getLookup() {
+        return Lookups.singleton(file);
+    }
+
+    @Override
+    public FileObject getParentFile() {
+        return file;
+    }
+
+    @Override
+    public PositionBounds getPosition() {
+        return null;
+    }
+
+}
@@ -0,0 +1,106 @@
+package com.tropyx.nb_puppet.refactoring;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.netbeans.modules.refactoring.api.AbstractRefactoring;
+import org.netbeans.modules.refactoring.api.Problem;
+import org.netbeans.modules.refactoring.spi.ProgressProviderAdapter;
+import org.netbeans.modules.refactoring.spi.RefactoringElementImplementation;
+import org.netbeans.modules.refactoring.spi.RefactoringElementsBag;
+import org.netbeans.modules.refactoring.spi.RefactoringPlugin;
+import org.openide.util.RequestProcessor;
+
+/**
+ * common base of the puppet refactoring plugins, processes candidate files in parallel
+ * with progress and cancellation
+ * @author mkleint
+ */
+abstract class PPRefactoringPlugin extends ProgressProviderAdapter implements RefactoringPlugin {
+    private static final Logger LOG = Logger.getLogger(PPRefactoringPlugin.class.getName());
+    /**
+     * candidate files are processed in parallel, bounded to keep the IDE responsive
+     */
+    private static final RequestProcessor RP = new RequestProcessor(PPRefactoringPlugin.class.getName(),
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors())), true);
+
+    private final AbstractRefactoring refactoring;
+    private final AtomicBoolean cancelled = new AtomicBoolean(false);
+
+    PPRefactoringPlugin(AbstractRefactoring refactoring) {
+        this.refactoring = refactoring;
+    }
+
+    @Override
+    public Problem preCheck() {
+        return null;
+    }
+
+    @Override
+    public void cancelRequest() {
+        cancelled.set(true);
+    }
+
+    protected final boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    /**
+     * runs the per file tasks on the bounded pool, reporting progress and stopping
+     * early when the request is cancelled
+     */
+    protected final void runInParallel(List<Runnable> tasks) {
+        fireProgressListenerStart(AbstractRefactoring.PREPARE, tasks.size());
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (final Runnable task : tasks) {
+                futures.add(RP.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!cancelled.get()) {
+                            task.run();
+                        }
+                        progressStep();
+                    }
+                }));
+            }
+            for (Future<?> f : futures) {
+                if (cancelled.get()) {
+                    break;
+                }
+                try {
+                    f.get();
+                } catch (ExecutionException ex) {
+                    LOG.log(Level.INFO, null, ex.getCause());
+                }
+            }
+        } catch (InterruptedException ex) {
+            cancelled.set(true);
+        } finally {
+            if (cancelled.get()) {
+                for (Future<?> f : futures) {
+                    f.cancel(true);
+                }
+            }
+            fireProgressListenerStop();
+        }
+    }
+
+    private synchronized void progressStep() {
+        fireProgressListenerStep();
+    }
+
+    /**
+     * the bag is not thread safe
+     */
+    protected final void add(RefactoringElementsBag elements, RefactoringElementImplementation element) {
+        synchronized (elements) {
+            elements.add(refactoring, element);
+        }
+    }
+
+}
@@ -0,0 +1,74 @@
+package com.tropyx.nb_puppet.refactoring;
+
+import java.io.IOException;
+import javax.swing.text.BadLocationException;
+import org.netbeans.modules.refactoring.spi.SimpleRefactoringElementImplementation;
+import org.openide.filesystems.FileObject;
+import org.openide.text.PositionBounds;
+import org.openide.util.Exceptions;
+import org.openide.util.Lookup;
+import org.openide.util.lookup.Lookups;
+
+/**
+ * replaces the text at the given bounds
+ * @author mkleint
+ */
+public class PPRenameElement extends SimpleRefactoringElementImplementation {
+    private final PositionBounds bounds;
+    private final FileObject file;
+    private final String displayText;
+    private final String oldText;
+    private final String newText;
+
+    public PPRenameElement(String displayText, FileObject file, PositionBounds bounds, String oldText, String newText) {
+        this.displayText = displayText;
+        this.file = file;
+        this.bounds = bounds;
+        this.oldText = oldText;
+        this.newText = newText;
+    }
+
+    @Override
+    public String getText() {
+        return "Rename " + oldText + " to " + newText;
+    }
+
+    @Override
+    public String getDisplayText() {
+        return displayText;
+    }
+
+    @Override
+    public void performChange() {
+        setText(newText);
+    }
+
+    @Override
+    public void undoChange() {
+        setText(oldText);
+    }
+
+    private void setText(String text) {
+        try {
+            bounds.setText(text);
+        } catch (IOException | BadLocationException ex) {
+            Exceptions.printStackTrace(ex);
+        }
+    }
+
+    @Override
+    public Lookup getLookup() {
+        return Lookups.singleton(file);
+    }
+
+    @Override
+    public FileObject getParentFile() {
+        return file;
+    }
+
+    @Override
+    public PositionBounds getPosition() {
+        return bounds;
+    }
+
+}
@@ -0,0 +1,515 @@
+package com.tropyx.nb_puppet.refactoring;
+
+import com.tropyx.nb_puppet.indexer.ClassGraph;
+import com.tropyx.nb_puppet.indexer.PPIndexer;
+import com.tropyx.nb_puppet.indexer.PPIndexerFactory;
+import com.tropyx.nb_puppet.parser.BodyScanner;
+import com.tropyx.nb_puppet.parser.PClass;
+import com.tropyx.nb_puppet.parser.PClassParam;
+import com.tropyx.nb_puppet.parser.PDefine;
+import com.tropyx.nb_puppet.parser.PElement;
+import com.tropyx.nb_puppet.parser.PParamContainer;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import javax.swing.text.BadLocationException;
+import org.netbeans.api.java.classpath.GlobalPathRegistry;
+import org.netbeans.modules.parsing.api.Source;
+import org.netbeans.modules.parsing.spi.indexing.support.IndexResult;
+import org.netbeans.modules.parsing.spi.indexing.support.QuerySupport;
+import org.netbeans.modules.parsing.spi.indexing.support.QuerySupport.Query;
+import org.netbeans.modules.refactoring.api.Problem;
+import org.netbeans.modules.refactoring.api.RenameRefactoring;
+import org.netbeans.modules.refactoring.spi.RefactoringElementsBag;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileUtil;
+import org.openide.filesystems.URLMapper;
+import org.openide.util.Exceptions;
+
+/**
+ * renames classes, parameters and variables. All edits are computed from the occurrence offsets
+ * in the index and the class graph, files are only read, never parsed. Files where the index is
+ * not up to date make the refactoring fail instead of producing wrong edits.
+ * @author mkleint
+ */
+public class PPRenamePlugin extends PPRefactoringPlugin {
+    private static final Pattern VARIABLE_NAME = Pattern.compile("[a-z_][a-zA-Z0-9_]*"); //NOI18N
+    private static final Pattern CLASS_NAME = Pattern.compile("[a-z][a-z0-9_]*(::[a-z][a-z0-9_]*)*"); //NOI18N
+
+    private final RenameRefactoring refactoring;
+
+    public PPRenamePlugin(RenameRefactoring refactoring) {
+        super(refactoring);
+        this.refactoring = refactoring;
+    }
+
+    /**
+     * the class or variable at the caret, computed once when the refactoring UI is created
+     * and passed in the refactoring source lookup, finding it queries the index
+     */
+    static final class Target {
+        final boolean isClass;
+        /**
+         * class name or unqualified variable name
+         */
+        final String name;
+        /**
+         * class or define the variable belongs to, empty for top scope variables
+         */
+        final String container;
+        final boolean param;
+
+        private Target(boolean isClass, String name, String container, boolean param) {
+            this.isClass = isClass;
+            this.name = name;
+            this.container = container;
+            this.param = param;
+        }
+
+        static Target find(PPElementContext context) {
+            String classRef = PPWhereUsedQueryPlugin.getClassRefName(context);
+            if (classRef != null) {
+                return new Target(true, classRef.startsWith("::") ? classRef.substring(2) : classRef, "", false);
+            }
+            String var = PPWhereUsedQueryPlugin.getVariableName(context);
+            if (var == null) {
+                return null;
+            }
+            var = var.substring(1);
+            PParamContainer current = getCurrentContainer(context);
+            String container;
+            if (var.startsWith("::") && var.lastIndexOf("::") == 0) {
+                container = "";
+            } else if (var.contains("::")) {
+                container = var.substring(0, var.lastIndexOf("::"));
+                container = container.startsWith("::") ? container.substring(2) : container;
+            } else {
+                container = current != null ? getName(current) : "";
+            }
+            String name = var.substring(var.lastIndexOf(':') + 1);
+            return new Target(false, name, container, isParam(context, current, container, name));
+        }
+
+        String getDisplayName() {
+            return isClass ? name : "$" + name;
+        }
+    }
+
+    private Target getTarget() {
+        Target target = refactoring.getRefactoringSource().lookup(Target.class);
+        if (target == null) {
+            target = Target.find(refactoring.getRefactoringSource().lookup(PPElementContext.class));
+        }
+        return target;
+    }
+
+    /**
+     * @return innermost class or define whose body encloses the caret, null for top scope
+     */
+    private static PParamContainer getCurrentContainer(PPElementContext context) {
+        CharSequence text;
+        try {
+            text = context.getDocument().getText(0, context.getDocument().getLength());
+        } catch (BadLocationException ex) {
+            return null;
+        }
+        int caret = context.getCaretOffset();
+        List<PElement> candidates = new ArrayList<>();
+        candidates.addAll(context.getRootNode().getChildrenOfType(PClass.class, true));
+        candidates.addAll(context.getRootNode().getChildrenOfType(PDefine.class, true));
+        PElement toRet = null;
+        for (PElement el : candidates) {
+            if (el.getOffset() <= caret && (toRet == null || el.getOffset() > toRet.getOffset())
+                    && caret <= BodyScanner.findBodyEnd(text, el.getOffset())) {
+                toRet = el;
+            }
+        }
+        return (PParamContainer)toRet;
+    }
+
+    private static String getName(PParamContainer container) {
+        return container instanceof PClass ? ((PClass)container).getName() : ((PDefine)container).getName();
+    }
+
+    private static boolean isParam(PPElementContext context, PParamContainer current, String container, String name) {
+        if (container.isEmpty()) {
+            return false;
+        }
+        if (current != null && container.equals(getName(current))) {
+            for (PClassParam p : current.getParams()) {
+                if (p.getVariable().equals("$" + name)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        try {
+            QuerySupport qs = PPIndexerFactory.getQuerySupportFor(context.getDocument(), true);
+            for (IndexResult res : qs.query(PPIndexer.FLD_ROOT, container, QuerySupport.Kind.EXACT, PPIndexer.FLD_PARAM)) {
+                String[] params = res.getValues(PPIndexer.FLD_PARAM);
+                if (params != null && Arrays.asList(params).contains(name)) {
+                    return true;
+                }
+            }
+        } catch (IOException ex) {
+            Exceptions.printStackTrace(ex);
+        }
+        return false;
+    }
+
+    @Override
+    public Problem fastCheckParameters() {
+        Target target = getTarget();
+        if (target == null) {
+            return new Problem(true, "Rename only works on classes, parameters and variables");
+        }
+        String newName = refactoring.getNewName();
+        if (newName == null || newName.isEmpty()) {
+            return new Problem(true, "New name is empty");
+        }
+        if (newName.equals(target.name)) {
+            return new Problem(true, "New name is the same as the old one");
+        }
+        if (target.isClass && !CLASS_NAME.matcher(newName).matches()) {
+            return new Problem(true, newName + " is not a valid class name");
+        }
+        if (!target.isClass && !VARIABLE_NAME.matcher(newName).matches()) {
+            return new Problem(true, newName + " is not a valid variable name");
+        }
+        return null;
+    }
+
+    @Override
+    public Problem checkParameters() {
+        return fastCheckParameters();
+    }
+
+    /**
+     * what is known about a candidate file
+     */
+    private static final class FileWork {
+        final FileObject file;
+        String hash;
+        final Set<String> occurrences = new HashSet<>();
+        final Set<String> roots = new HashSet<>();
+        final List<Integer> classOffsets = new ArrayList<>();
+
+        FileWork(FileObject file) {
+            this.file = file;
+        }
+    }
+
+    @Override
+    public Problem prepare(final RefactoringElementsBag elements) {
+        if (isCancelled()) {
+            return null;
+        }
+        final PPElementContext context = refactoring.getRefactoringSource().lookup(PPElementContext.class);
+        final Target target = getTarget();
+        final String newName = refactoring.getNewName();
+        final Map<String, FileWork> work = new LinkedHashMap<>();
+        final List<Problem> problems = Collections.synchronizedList(new ArrayList<Problem>());
+        final Set<String> qualifiedNames = new HashSet<>();
+        final Set<String> attributeNames = new HashSet<>();
+        try {
+            QuerySupport qs = PPIndexerFactory.getQuerySupportFor(context.getDocument(), true);
+            Query.Factory qf = qs.getQueryFactory();
+            if (target.isClass) {
+                ClassGraph graph = ClassGraph.getDefault();
+                graph.ensureLoaded(GlobalPathRegistry.getDefault().getSourceRoots());
+                for (ClassGraph.Declaration decl : graph.getDeclarations(target.name)) {
+                    addClassOffset(work, decl.getFile(), decl.getOffset());
+                }
+                for (ClassGraph.Edge edge : graph.getIncoming(target.name)) {
+                    addClassOffset(work, edge.getFile(), edge.getOffset());
+                }
+                //$name::var references
+                Query q = qf.or(
+                        qf.field(PPIndexer.FLD_VARREF, target.name + "::", QuerySupport.Kind.PREFIX),
+                        qf.field(PPIndexer.FLD_VARREF, "::" + target.name + "::", QuerySupport.Kind.PREFIX),
+                        qf.field(PPIndexer.FLD_CLASSREF, target.name, QuerySupport.Kind.EXACT),
+                        qf.field(PPIndexer.FLD_CLASSREF, "::" + target.name, QuerySupport.Kind.EXACT),
+                        qf.field(PPIndexer.FLD_CLASS, target.name, QuerySupport.Kind.EXACT)
+                );
+                addResults(work, q.execute(PPIndexer.FLD_OCCURRENCE, PPIndexer.FLD_CONTENT_HASH, PPIndexer.FLD_ROOT));
+                Problem p = addFileMove(elements, work, target.name, newName);
+                if (p != null) {
+                    problems.add(p);
+                }
+            } else {
+                Query q;
+                if (target.container.isEmpty()) {
+                    //top scope, unqualified references only count in the current file
+                    qualifiedNames.add("::" + target.name);
+                    q = qf.or(
+                            qf.field(PPIndexer.FLD_VARREF, "::" + target.name, QuerySupport.Kind.EXACT),
+                            qf.field(PPIndexer.FLD_VARREF, target.name, QuerySupport.Kind.EXACT)
+                    );
+                } else {
+                    qualifiedNames.add(target.container + "::" + target.name);
+                    qualifiedNames.add("::" + target.container + "::" + target.name);
+                    q = qf.or(
+                            qf.field(PPIndexer.FLD_VARREF, target.container + "::" + target.name, QuerySupport.Kind.EXACT),
+                            qf.field(PPIndexer.FLD_VARREF, "::" + target.container + "::" + target.name, QuerySupport.Kind.EXACT),
+                            qf.and(
+                                qf.field(PPIndexer.FLD_VARREF, target.name, QuerySupport.Kind.EXACT),
+                                qf.field(PPIndexer.FLD_ROOT, target.container, QuerySupport.Kind.EXACT)
+                            )
+                    );
+                }
+                addResults(work, q.execute(PPIndexer.FLD_OCCURRENCE, PPIndexer.FLD_CONTENT_HASH, PPIndexer.FLD_ROOT));
+                work.keySet().retainAll(filesWithQualifiedOrLocal(work, qualifiedNames, target, getFile(context)));
+                if (target.param) {
+                    attributeNames.add(target.container + "::" + target.name);
+                    addResults(work, qf.or(
+                            qf.field(PPIndexer.FLD_RESOURCE, target.container, QuerySupport.Kind.EXACT),
+                            qf.field(PPIndexer.FLD_CLASSREF, target.container, QuerySupport.Kind.EXACT),
+                            qf.field(PPIndexer.FLD_CLASSREF, "::" + target.container, QuerySupport.Kind.EXACT)
+                    ).execute(PPIndexer.FLD_OCCURRENCE, PPIndexer.FLD_CONTENT_HASH, PPIndexer.FLD_ROOT));
+                }
+            }
+        } catch (IOException ex) {
+            Exceptions.printStackTrace(ex);
+            return new Problem(true, "Cannot query the index: " + ex.getMessage());
+        }
+        final FileObject currentFile = getFile(context);
+        List<Runnable> tasks = new ArrayList<>();
+        for (final FileWork fw : work.values()) {
+            tasks.add(new Runnable() {
+                @Override
+                public void run() {
+                    Problem p = computeEdits(elements, fw, target, newName, qualifiedNames, attributeNames, fw.file.equals(currentFile));
+                    if (p != null) {
+                        problems.add(p);
+                    }
+                }
+            });
+        }
+        runInParallel(tasks);
+        return chain(problems);
+    }
+
+    private static FileObject getFile(PPElementContext context) {
+        return Source.create(context.getDocument()).getFileObject();
+    }
+
+    /**
+     * unqualified occurrences of the variable only count in files of the container, drop files
+     * that matched the broad unqualified query for no other reason
+     */
+    private static Set<String> filesWithQualifiedOrLocal(Map<String, FileWork> work, Set<String> qualifiedNames, Target target, FileObject current) {
+        Set<String> toRet = new HashSet<>();
+        for (Map.Entry<String, FileWork> e : work.entrySet()) {
+            FileWork fw = e.getValue();
+            if (fw.file.equals(current) || (!target.container.isEmpty() && fw.roots.contains(target.container))) {
+                toRet.add(e.getKey());
+                continue;
+            }
+            for (String occ : fw.occurrences) {
+                String name = occ.substring(occ.lastIndexOf('|') + 1);
+                if (qualifiedNames.contains(name)) {
+                    toRet.add(e.getKey());
+                    break;
+                }
+            }
+        }
+        return toRet;
+    }
+
+    private static void addClassOffset(Map<String, FileWork> work, String url, int offset) {
+        try {
+            FileObject file = URLMapper.findFileObject(new URL(url));
+            if (file != null) {
+                FileWork fw = getWork(work, file);
+                fw.classOffsets.add(offset);
+            }
+        } catch (MalformedURLException ex) {
+            Exceptions.printStackTrace(ex);
+        }
+    }
+
+    private static FileWork getWork(Map<String, FileWork> work, FileObject file) {
+        String key = file.toURL().toString();
+        FileWork fw = work.get(key);
+        if (fw == null) {
+            fw = new FileWork(file);
+            work.put(key, fw);
+        }
+        return fw;
+    }
+
+    private static void addResults(Map<String, FileWork> work, Collection<? extends IndexResult> results) {
+        for (IndexResult res : results) {
+            FileObject file = res.getFile();
+            if (file == null || !file.isValid()) {
+                continue;
+            }
+            FileWork fw = getWork(work, file);
+            fw.hash = res.getValue(PPIndexer.FLD_CONTENT_HASH);
+            String[] occurrences = res.getValues(PPIndexer.FLD_OCCURRENCE);
+            if (occurrences != null) {
+                fw.occurrences.addAll(Arrays.asList(occurrences));
+            }
+            String[] roots = res.getValues(PPIndexer.FLD_ROOT);
+            if (roots != null) {
+                fw.roots.addAll(Arrays.asList(roots));
+            }
+        }
+    }
+
+    private Problem computeEdits(RefactoringElementsBag elements, FileWork fw, Target target, String newName,
+            Set<String> qualifiedNames, Set<String> attributeNames, boolean currentFile) {
+        CharSequence text = Source.create(fw.file).createSnapshot().getText();
+        if (fw.hash != null && !fw.hash.equals(PPIndexer.contentHash(text))) {
+            return stale(fw.file);
+        }
+        boolean local = currentFile || (!target.container.isEmpty() && fw.roots.contains(target.container));
+        for (String occ : fw.occurrences) {
+            int first = occ.indexOf('|');
+            int second = occ.indexOf('|', first + 1);
+            if (first == -1 || second == -1) {
+                continue;
+            }
+            String kind = occ.substring(0, first);
+            int offset;
+            try {
+                offset = Integer.parseInt(occ.substring(first + 1, second));
+            } catch (NumberFormatException ex) {
+                continue;
+            }
+            String name = occ.substring(second + 1);
+            //variable occurrences point at the dollar sign or the brace of ${} in strings
+            int nameStart = offset + 1;
+            if (target.isClass) {
+                if (PPIndexer.OCCURRENCE_VARIABLE.equals(kind)) {
+                    String n = name.startsWith("::") ? name.substring(2) : name;
+                    if (n.startsWith(target.name + "::") && !n.substring(target.name.length() + 2).contains("::")) {
+                        int start = nameStart + (name.length() - n.length());
+                        if (!edit(elements, fw.file, text, start, target.name, newName)) {
+                            return stale(fw.file);
+                        }
+                    }
+                }
+            } else if (PPIndexer.OCCURRENCE_VARIABLE.equals(kind)) {
+                if (qualifiedNames.contains(name) || (local && name.equals(target.name))) {
+                    int start = nameStart + name.length() - target.name.length();
+                    if (!edit(elements, fw.file, text, start, target.name, newName)) {
+                        return stale(fw.file);
+                    }
+                }
+            } else if (PPIndexer.OCCURRENCE_ATTRIBUTE.equals(kind) && attributeNames.contains(name)) {
+                if (!edit(elements, fw.file, text, offset, target.name, newName)) {
+                    return stale(fw.file);
+                }
+            }
+        }
+        for (int offset : fw.classOffsets) {
+            int start = startsWith(text, offset, "::" + target.name) ? offset + 2 : offset;
+            if (!edit(elements, fw.file, text, start, target.name, newName)) {
+                return stale(fw.file);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return false if the text at the offset is not the old name
+     */
+    private boolean edit(RefactoringElementsBag elements, FileObject file, CharSequence text, int start, String oldName, String newName) {
+        if (!startsWith(text, start, oldName)) {
+            return false;
+        }
+        int end = start + oldName.length();
+        if (end < text.length() && (Character.isLetterOrDigit(text.charAt(end)) || text.charAt(end) == '_')) {
+            return false;
+        }
+        String line = PPWhereUsedQueryPlugin.createHightlightTextLine(text, start, oldName.length());
+        add(elements, new PPRenameElement(line.trim(), file, PPWhereUsedQueryPlugin.boundsForOffset(file, start, oldName), oldName, newName));
+        return true;
+    }
+
+    private static boolean startsWith(CharSequence text, int offset, String value) {
+        return offset >= 0 && offset + value.length() <= text.length()
+                && text.subSequence(offset, offset + value.length()).toString().equals(value);
+    }
+
+    private static Problem stale(FileObject file) {
+        return new Problem(true, file.getNameExt() + " changed since it was indexed, try again when scanning finishes");
+    }
+
+    /**
+     * moves the manifest declaring the class to where the autoloader expects it,
+     * only within the same module
+     */
+    private Problem addFileMove(RefactoringElementsBag elements, Map<String, FileWork> work, String oldName, String newName) {
+        for (FileWork fw : work.values()) {
+            if (!fw.roots.contains(oldName)) {
+                continue;
+            }
+            FileObject manifests = fw.file.getParent();
+            while (manifests != null && !"manifests".equals(manifests.getNameExt())) { //NOI18N
+                manifests = manifests.getParent();
+            }
+            if (manifests == null || manifests.getParent() == null) {
+                return null;
+            }
+            String module = manifests.getParent().getNameExt();
+            String path = FileUtil.getRelativePath(manifests, fw.file);
+            if (path == null || !path.equals(autoloaderPath(module, oldName) + ".pp")) {
+                //not an autoloaded layout, leave the file where it is
+                return null;
+            }
+            String newPath = autoloaderPath(module, newName);
+            if (newPath == null) {
+                return new Problem(false, "The file is not moved, " + newName + " does not belong to module " + module);
+            }
+            if (manifests.getFileObject(newPath + ".pp") != null) {
+                return new Problem(true, "File " + newPath + ".pp already exists in module " + module);
+            }
+            elements.addFileChange(refactoring, new PPMoveFileElement(fw.file, manifests, newPath));
+            return null;
+        }
+        return null;
+    }
+
+    /**
+     * @return path relative to the manifests folder without extension, null if the class belongs to another module
+     */
+    static String autoloaderPath(String module, String className) {
+        if (className.equals(module)) {
+            return "init"; //NOI18N
+        }
+        if (!className.startsWith(module + "::")) {
+            return null;
+        }
+        return className.substring(module.length() + 2).replace("::", "/");
+    }
+
+    private static Problem chain(List<Problem> problems) {
+        Problem toRet = null;
+        //fatal ones first
+        for (int i = problems.size() - 1; i >= 0; i--) {
+            Problem p = problems.get(i);
+            if (!p.isFatal()) {
+                toRet = new Problem(false, p.getMessage(), toRet);
+            }
+        }
+        for (int i = problems.size() - 1; i >= 0; i--) {
+            Problem p = problems.get(i);
+            if (p.isFatal()) {
+                toRet = new Problem(true, p.getMessage(), toRet);
+            }
+        }
+        return toRet;
+    }
+}
@@ -1,9 +1,11 @@
 
 package com.tropyx.nb_puppet.refactoring;
 
+import com.tropyx.nb_puppet.indexer.ClassGraph;
 import com.tropyx.nb_puppet.indexer.PPIndexer;
 import com.tropyx.nb_puppet.indexer.PPIndexerFactory;
 import com.tropyx.nb_puppet.parser.PClass;
+import com.tropyx.nb_puppet.parser.PClassRef;
 import com.tropyx.nb_puppet.parser.PElement;
 import com.tropyx.nb_puppet.parser.PFunction;
 import com.tropyx.nb_puppet.parser.PIdentifier;
@@ -11,11 +13,17 @@ import com.tropyx.nb_puppet.parser.PVariable;
 import com.tropyx.nb_puppet.parser.PVariableDefinition;
 import com.tropyx.nb_puppet.parser.PuppetParserResult;
 import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.Position;
+import org.netbeans.api.java.classpath.GlobalPathRegistry;
 import org.netbeans.editor.BaseDocument;
 import org.netbeans.editor.Utilities;
 import org.netbeans.modules.parsing.api.ParserManager;
@@ -30,8 +38,8 @@ import org.netbeans.modules.parsing.spi.indexing.support.QuerySupport.Query;
 import org.netbeans.modules.refactoring.api.Problem;
 import org.netbeans.modules.refactoring.api.WhereUsedQuery;
 import org.netbeans.modules.refactoring.spi.RefactoringElementsBag;
-import org.netbeans.modules.refactoring.spi.RefactoringPlugin;
 import org.openide.filesystems.FileObject;
+import org.openide.filesystems.URLMapper;
 import org.openide.loaders.DataObject;
 import org.openide.loaders.DataObjectNotFoundException;
 import org.openide.text.CloneableEditorSupport;
@@ -39,19 +47,14 @@ import org.openide.text.PositionBounds;
 import org.openide.text.PositionRef;
 import org.openide.util.Exceptions;
 
-public class PPWhereUsedQueryPlugin implements RefactoringPlugin {
+public class PPWhereUsedQueryPlugin extends PPRefactoringPlugin {
     private final WhereUsedQuery refactoring;
-    private boolean cancelled = false;
 
     public PPWhereUsedQueryPlugin(WhereUsedQuery refactoring) {
+        super(refactoring);
         this.refactoring = refactoring;
     }
 
-    @Override
-    public Problem preCheck() {
-        return null;
-    }
-
     public static String getDisplayName(PPElementContext context) {
         String toRet = getVariableName(context);
         if (toRet != null) {
@@ -68,7 +71,7 @@ public class PPWhereUsedQueryPlugin implements RefactoringPlugin {
         return null;
     }
 
-    private static String getVariableName(PPElementContext context) {
+    static String getVariableName(PPElementContext context) {
         final PElement caretNode = context.getCaretNode();
         if (caretNode.getType() == PElement.VARIABLE) {
             return  ((PVariable)caretNode).getName();
@@ -86,7 +89,7 @@ public class PPWhereUsedQueryPlugin implements RefactoringPlugin {
         return null;
     }
 
-    private static String getClassRefName(PPElementContext context) {
+    static String getClassRefName(PPElementContext context) {
         final PElement caretNode = context.getCaretNode();
         if (caretNode.isType(PElement.IDENTIFIER) &&
                 (caretNode.getParent().isType(PElement.CLASS) || caretNode.getParent().isType(PElement.CLASS_REF) )) {
@@ -98,7 +101,7 @@ public class PPWhereUsedQueryPlugin implements RefactoringPlugin {
 
     @Override
     public Problem prepare(final RefactoringElementsBag elements) {
-        if (cancelled) {
+        if (isCancelled()) {
             return null;
         }
 
@@ -109,24 +112,42 @@ public class PPWhereUsedQueryPlugin implements RefactoringPlugin {
             var = var.substring(1);
             try {
                 QuerySupport qs = PPIndexerFactory.getQuerySupportFor(context.getDocument(), true);
-                List<String> names = new ArrayList<>();
+                final List<String> names = new ArrayList<>();
                 Query q = collectVariableCandidateNames(qs, clazzDefineName, var, names);
 //                System.out.println("q:" + q.toString());
-                for (IndexResult res : q.execute(PPIndexer.FLD_ROOT)) {
-                    findVariableLocations(elements, res.getFile(), names);
+                List<Runnable> tasks = new ArrayList<>();
+                for (final IndexResult res : q.execute(PPIndexer.FLD_OCCURRENCE, PPIndexer.FLD_CONTENT_HASH)) {
+                    tasks.add(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!addIndexedOccurrences(elements, res, PPIndexer.OCCURRENCE_VARIABLE, names, "$")) {
+                                findVariableLocations(elements, res.getFile(), names);
+                            }
+                        }
+                    });
                 }
+                runInParallel(tasks);
             } catch (IOException ex) {
                 Exceptions.printStackTrace(ex);
             }
             return null;
         }
-        String func = getFunctionName(context);
+        final String func = getFunctionName(context);
         if (func != null) {
             try {
                 QuerySupport qs = PPIndexerFactory.getQuerySupportFor(context.getDocument(), true);
-                for (IndexResult res : qs.query(PPIndexer.FLD_FUNCTION, func, QuerySupport.Kind.EXACT, PPIndexer.FLD_ROOT)) {
-                    findFunctionLocations(elements, res.getFile(), func);
+                List<Runnable> tasks = new ArrayList<>();
+                for (final IndexResult res : qs.query(PPIndexer.FLD_FUNCTION, func, QuerySupport.Kind.EXACT, PPIndexer.FLD_OCCURRENCE, PPIndexer.FLD_CONTENT_HASH)) {
+                    tasks.add(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!addIndexedOccurrences(elements, res, PPIndexer.OCCURRENCE_FUNCTION, Collections.singleton(func), "")) {
+                                findFunctionLocations(elements, res.getFile(), func);
+                            }
+                        }
+                    });
                 }
+                runInParallel(tasks);
             } catch (IOException ex) {
                 Exceptions.printStackTrace(ex);
             }
@@ -134,18 +155,28 @@ public class PPWhereUsedQueryPlugin implements RefactoringPlugin {
         }
         String classRef = getClassRefName(context);
         if (classRef != null) {
-            try {
-                QuerySupport qs = PPIndexerFactory.getQuerySupportFor(context.getDocument(), true);
-                Query q = qs.getQueryFactory().or(
-                        qs.getQueryFactory().field(PPIndexer.FLD_CLASSREF, classRef, QuerySupport.Kind.EXACT),
-                        qs.getQueryFactory().field(PPIndexer.FLD_CLASS, classRef, QuerySupport.Kind.EXACT)
-                );
-                for (IndexResult res : q.execute(PPIndexer.FLD_ROOT)) {
-                    findClassRefLocations(elements, res.getFile(), classRef);
-                }
-            } catch (IOException ex) {
-                Exceptions.printStackTrace(ex);
+            classRef = classRef.startsWith("::") ? classRef.substring(2) : classRef;
+            ClassGraph graph = ClassGraph.getDefault();
+            graph.ensureLoaded(GlobalPathRegistry.getDefault().getSourceRoots());
+            //grouped by file, so that each file is read once
+            Map<String, List<Integer>> offsets = new LinkedHashMap<>();
+            for (ClassGraph.Declaration decl : graph.getDeclarations(classRef)) {
+                addOffset(offsets, decl.getFile(), decl.getOffset());
             }
+            for (ClassGraph.Edge edge : graph.getIncoming(classRef)) {
+                addOffset(offsets, edge.getFile(), edge.getOffset());
+            }
+            List<Runnable> tasks = new ArrayList<>();
+            final String name = classRef;
+            for (final Map.Entry<String, List<Integer>> entry : offsets.entrySet()) {
+                tasks.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        addClassRefElements(elements, entry.getKey(), entry.getValue(), name);
+                    }
+                });
+            }
+            runInParallel(tasks);
             return null;
         }
         return new Problem(true, "Where Used only works on variables, functions and class identifiers");
@@ -162,9 +193,13 @@ public class PPWhereUsedQueryPlugin implements RefactoringPlugin {
         return null;
     }
 
-    @Override
-    public void cancelRequest() {
-        cancelled = true;
+    private static void addOffset(Map<String, List<Integer>> offsets, String file, int offset) {
+        List<Integer> list = offsets.get(file);
+        if (list == null) {
+            list = new ArrayList<>();
+            offsets.put(file, list);
+        }
+        list.add(offset);
     }
 
     private String getCurrentName(PPElementContext context) {
@@ -231,6 +266,49 @@ public class PPWhereUsedQueryPlugin implements RefactoringPlugin {
         }
     }
 
+    /**
+     * adds the occurrences recorded in the index without parsing the file
+     * @param kind {@link PPIndexer#OCCURRENCE_VARIABLE} or {@link PPIndexer#OCCURRENCE_FUNCTION}
+     * @param prefix text preceding the name in the source
+     * @return false if the index is not up to date with the file and it has to be parsed
+     */
+    private boolean addIndexedOccurrences(RefactoringElementsBag elements, IndexResult res, String kind, Collection<String> names, String prefix) {
+        FileObject file = res.getFile();
+        if (file == null || !file.isValid()) {
+            return true;
+        }
+        String[] occurrences = res.getValues(PPIndexer.FLD_OCCURRENCE);
+        String hash = res.getValue(PPIndexer.FLD_CONTENT_HASH);
+        if (occurrences == null || hash == null) {
+            return false;
+        }
+        //the snapshot reflects unsaved changes in open documents as well
+        CharSequence text = Source.create(file).createSnapshot().getText();
+        if (!hash.equals(PPIndexer.contentHash(text))) {
+            return false;
+        }
+        for (String occurrence : occurrences) {
+            int first = occurrence.indexOf('|');
+            int second = occurrence.indexOf('|', first + 1);
+            if (first == -1 || second == -1 || !kind.equals(occurrence.substring(0, first))) {
+                continue;
+            }
+            String name = occurrence.substring(second + 1);
+            if (!names.contains(name)) {
+                continue;
+            }
+            try {
+                int offset = Integer.parseInt(occurrence.substring(first + 1, second));
+                String found = prefix + name;
+                String line = createHightlightTextLine(text, offset, found.length());
+                add(elements, new PPWhereUsedElement(line.trim(), file, boundsForOffset(file, offset, found)));
+            } catch (NumberFormatException | IndexOutOfBoundsException ex) {
+                //malformed, ignore
+            }
+        }
+        return true;
+    }
+
     private void findVariableLocations(final RefactoringElementsBag elements, final FileObject file, final List<String> names) {
         try {
             Source source = Source.create(file);
@@ -244,13 +322,13 @@ public class PPWhereUsedQueryPlugin implements RefactoringPlugin {
                             for (PVariable var : result.getRootNode().getChildrenOfType(PVariable.class, true)) {
                                 if (names.contains(var.getName().substring(1))) {
                                     String line = createHightlightTextLine(file, var.getOffset(), var.getName().length());
-                                    elements.add(refactoring, new PPWhereUsedElement(line.trim(), file, boundsForElement(file, var, var.getName())));
+                                    add(elements, new PPWhereUsedElement(line.trim(), file, boundsForElement(file, var, var.getName())));
                                 }
                             }
                             for (PVariableDefinition var : result.getRootNode().getChildrenOfType(PVariableDefinition.class, true)) {
                                 if (names.contains(var.getName().substring(1))) {
                                     String line = createHightlightTextLine(file, var.getOffset(), var.getName().length());
-                                    elements.add(refactoring, new PPWhereUsedElement(line.trim(), file, boundsForElement(file, var, var.getName())));
+                                    add(elements, new PPWhereUsedElement(line.trim(), file, boundsForElement(file, var, var.getName())));
                                 }
                             }
                         }
@@ -284,7 +362,7 @@ public class PPWhereUsedQueryPlugin implements RefactoringPlugin {
                             for (PFunction function : result.getRootNode().getChildrenOfType(PFunction.class, true)) {
                                 if (func.equals(function.getName())) {
                                     String line = createHightlightTextLine(file, function.getOffset(), func.length());
-                                    elements.add(refactoring, new PPWhereUsedElement(line.trim(), file, boundsForElement(file, function, func)));
+                                    add(elements, new PPWhereUsedElement(line.trim(), file, boundsForElement(file, function, func)));
                                 }
                             }
                         }
@@ -295,8 +373,40 @@ public class PPWhereUsedQueryPlugin implements RefactoringPlugin {
         }
     }
 
+    private void addClassRefElements(RefactoringElementsBag elements, String fileUrl, List<Integer> offsets, String classRef) {
+        try {
+            FileObject file = URLMapper.findFileObject(new URL(fileUrl));
+            if (file == null) {
+                return;
+            }
+            //the snapshot reflects unsaved changes in open documents as well
+            CharSequence text = Source.create(file).createSnapshot().getText();
+            for (int offset : offsets) {
+                if (!isNameAt(text, offset, classRef)) {
+                    //the class graph is not up to date with the file
+                    findClassRefLocations(elements, file, classRef);
+                    return;
+                }
+            }
+            for (int offset : offsets) {
+                String line = createHightlightTextLine(text, offset, classRef.length());
+                add(elements, new PPWhereUsedElement(line.trim(), file, boundsForOffset(file, offset, classRef)));
+            }
+        } catch (MalformedURLException ex) {
+            Exceptions.printStackTrace(ex);
+        }
+    }
+
+    private static boolean isNameAt(CharSequence text, int offset, String name) {
+        int end = offset + name.length();
+        if (offset < 0 || end > text.length() || !text.subSequence(offset, end).toString().equalsIgnoreCase(name)) {
+            return false;
+        }
+        return end == text.length() || !(Character.isLetterOrDigit(text.charAt(end)) || text.charAt(end) == '_' || text.charAt(end) == ':');
+    }
+
     private void findClassRefLocations(final RefactoringElementsBag elements, final FileObject file, final String classRef) {
-      try {
+        try {
             Source source = Source.create(file);
             ParserManager.parse(Collections.singleton(source), new UserTask() {
                 @Override
@@ -305,11 +415,30 @@ public class PPWhereUsedQueryPlugin implements RefactoringPlugin {
                     if (pr instanceof PuppetParserResult) {
                         PuppetParserResult result = (PuppetParserResult) pr;
                         if (result.getRootNode() != null) {
-                            for (PIdentifier id : result.getRootNode().getChildrenOfType(PIdentifier.class, true)) {
-                                if (classRef.equals(id.getName()) &&
-                                        (id.getParent().isType(PElement.CLASS) || id.getParent().isType(PElement.CLASS_REF))) {
-                                    String line = createHightlightTextLine(file, id.getOffset(), id.getName().length());
-                                    elements.add(refactoring, new PPWhereUsedElement(line.trim(), file, boundsForElement(file, id, id.getName())));
+                            CharSequence text = result.getSnapshot().getText();
+                            List<Integer> offsets = new ArrayList<>();
+                            for (PClass cl : result.getRootNode().getChildrenOfType(PClass.class, true)) {
+                                if (cl.getNameIdentifier() != null && classRef.equals(cl.getName())) {
+                                    offsets.add(cl.getNameIdentifier().getOffset());
+                                }
+                            }
+                            for (PClassRef ref : result.getRootNode().getChildrenOfType(PClassRef.class, true)) {
+                                if (ref.getNameIdentifier() != null) {
+                                    String name = ref.getName();
+                                    int offset = ref.getNameIdentifier().getOffset();
+                                    if (name.startsWith("::")) {
+                                        name = name.substring(2);
+                                        offset = offset + 2;
+                                    }
+                                    if (classRef.equalsIgnoreCase(name)) {
+                                        offsets.add(offset);
+                                    }
+                                }
+                            }
+                            for (int offset : offsets) {
+                                if (isNameAt(text, offset, classRef)) {
+                                    String line = createHightlightTextLine(text, offset, classRef.length());
+                                    add(elements, new PPWhereUsedElement(line.trim(), file, boundsForOffset(file, offset, classRef)));
                                 }
                             }
                         }
@@ -317,6 +446,7 @@ public class PPWhereUsedQueryPlugin implements RefactoringPlugin {
                 }
             });
         } catch (ParseException e) {
+            Exceptions.printStackTrace(e);
         }
     }
 
@@ -331,10 +461,27 @@ public class PPWhereUsedQueryPlugin implements RefactoringPlugin {
         return line;
     }
 
+    static String createHightlightTextLine(CharSequence text, int offset, int length) {
+        int rowStart = offset;
+        while (rowStart > 0 && text.charAt(rowStart - 1) != '\n') {
+            rowStart--;
+        }
+        int rowEnd = offset + length;
+        while (rowEnd < text.length() && text.charAt(rowEnd) != '\n') {
+            rowEnd++;
+        }
+        return text.subSequence(rowStart, offset) + "<b>" + text.subSequence(offset, offset + length)
+                + "</b>" + text.subSequence(offset + length, rowEnd);
+    }
+
     public PositionBounds boundsForElement(FileObject file, PElement var, String text) {
+        return boundsForOffset(file, var.getOffset(), text);
+    }
+
+    public static PositionBounds boundsForOffset(FileObject file, int offset, String text) {
         CloneableEditorSupport es = getEditorSupport(file);
-        PositionRef start = es.createPositionRef(var.getOffset(), Position.Bias.Forward);
-        PositionRef end = es.createPositionRef(var.getOffset() + text.length(), Position.Bias.Backward);
+        PositionRef start = es.createPositionRef(offset, Position.Bias.Forward);
+        PositionRef end = es.createPositionRef(offset + text.length(), Position.Bias.Backward);
         final PositionBounds positionBounds = new PositionBounds(start, end);
         return positionBounds;
     }
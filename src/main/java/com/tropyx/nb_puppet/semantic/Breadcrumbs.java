@@ -14,9 +14,15 @@ import com.tropyx.nb_puppet.parser.PFunction;
 import com.tropyx.nb_puppet.parser.PResource;
 import com.tropyx.nb_puppet.parser.PuppetParserResult;
 import java.awt.Image;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.swing.text.Document;
 import javax.swing.text.JTextComponent;
 import org.netbeans.api.actions.Openable;
@@ -38,8 +44,15 @@ import org.openide.util.lookup.Lookups;
 
 public class Breadcrumbs extends ParserResultTask<PuppetParserResult> {
 
+    private final AtomicBoolean cancelled = new AtomicBoolean(false);
+    //only touched from the parsing thread
+    private Constructs constructs;
+    private PElement lastLeaf;
+    private boolean lastSet;
+
     @Override
     public void run(PuppetParserResult result, SchedulerEvent event) {
+        cancelled.set(false);
         final Document doc = result.getSnapshot().getSource().getDocument(false);
         if (doc == null) {
             return;
@@ -59,10 +72,28 @@ public class Breadcrumbs extends ParserResultTask<PuppetParserResult> {
                 return;
             }
         }
-        PElement root = result.getRootNode();
-        PElement child = root.getChildAtOffset(caret);
-        child = !isSuitable(child) ? computeSuitableParent(child) : child;
-        BreadcrumbsElement el = new Element((BaseDocument)doc, child, Collections.<BreadcrumbsElement>emptyList());
+        Constructs constructs = this.constructs;
+        if (constructs == null || constructs.result != result) {
+            constructs = new Constructs(result);
+            this.constructs = constructs;
+            lastLeaf = null;
+            lastSet = false;
+        }
+        PElement child = constructs.find(caret);
+        if (lastSet && child == lastLeaf) {
+            //still in the same construct of the same parse, the breadcrumbs shown are right
+            return;
+        }
+        if (cancelled.get()) {
+            return;
+        }
+        BreadcrumbsElement el = constructs.getElement((BaseDocument)doc, child);
+        if (cancelled.get()) {
+            //caret moved or document changed, a newer run follows
+            return;
+        }
+        lastLeaf = child;
+        lastSet = true;
         BreadcrumbsController.setBreadcrumbs(doc, el);
     }
 
@@ -78,7 +109,7 @@ public class Breadcrumbs extends ParserResultTask<PuppetParserResult> {
 
     @Override
     public void cancel() {
-
+        cancelled.set(true);
     }
 
     private static boolean isSuitable(PElement child) {
@@ -110,6 +141,77 @@ public class Breadcrumbs extends ParserResultTask<PuppetParserResult> {
 
 
 
+    /**
+     * the breadcrumb worthy elements of one parse result sorted by offset, and the breadcrumbs
+     * chains already created for them
+     */
+    private static final class Constructs {
+        private final PuppetParserResult result;
+        private final PElement[] elements;
+        private final int[] starts;
+        private final Map<PElement, Element> chains = new HashMap<>();
+
+        Constructs(PuppetParserResult result) {
+            this.result = result;
+            List<PElement> found = new ArrayList<>();
+            collect(result.getRootNode(), found);
+            //stable, outer elements stay before inner ones starting at the same offset
+            Collections.sort(found, new Comparator<PElement>() {
+                @Override
+                public int compare(PElement o1, PElement o2) {
+                    return Integer.compare(o1.getOffset(), o2.getOffset());
+                }
+            });
+            elements = found.toArray(new PElement[0]);
+            starts = new int[elements.length];
+            for (int i = 0; i < elements.length; i++) {
+                starts[i] = elements[i].getOffset();
+            }
+        }
+
+        private static void collect(PElement el, List<PElement> found) {
+            for (PElement ch : el.getChildren()) {
+                if (isSuitable(ch)) {
+                    found.add(ch);
+                }
+                collect(ch, found);
+            }
+        }
+
+        /**
+         * @return innermost element containing the offset, null if none
+         */
+        PElement find(int offset) {
+            int index = Arrays.binarySearch(starts, offset);
+            if (index < 0) {
+                index = -index - 2;
+            } else {
+                //last of the elements starting here is the innermost
+                while (index + 1 < starts.length && starts[index + 1] == offset) {
+                    index++;
+                }
+            }
+            if (index < 0) {
+                return null;
+            }
+            //the last element starting before offset is either the one or nested in it
+            PElement el = elements[index];
+            while (el != null && el.getEndOffset() < offset) {
+                el = computeSuitableParent(el);
+            }
+            return el;
+        }
+
+        Element getElement(BaseDocument doc, PElement leaf) {
+            Element el = chains.get(leaf);
+            if (el == null) {
+                el = new Element(doc, leaf, Collections.<BreadcrumbsElement>emptyList());
+                chains.put(leaf, el);
+            }
+            return el;
+        }
+    }
+
     @MimeRegistration(mimeType = PPConstants.MIME_TYPE, service = TaskFactory.class)
     public static class Factory extends TaskFactory {
 
@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2015 mkleint
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tropyx.nb_puppet.semantic;
+
+import com.tropyx.nb_puppet.PPConstants;
+import com.tropyx.nb_puppet.indexer.PPIndexer;
+import com.tropyx.nb_puppet.indexer.PPIndexerFactory;
+import com.tropyx.nb_puppet.parser.PCase;
+import com.tropyx.nb_puppet.parser.PCondition;
+import com.tropyx.nb_puppet.parser.PElement;
+import com.tropyx.nb_puppet.parser.PResource;
+import com.tropyx.nb_puppet.parser.PuppetParserResult;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import org.netbeans.api.editor.mimelookup.MimeRegistration;
+import org.netbeans.modules.editor.NbEditorUtilities;
+import org.netbeans.modules.parsing.api.Snapshot;
+import org.netbeans.modules.parsing.spi.ParserResultTask;
+import org.netbeans.modules.parsing.spi.Scheduler;
+import org.netbeans.modules.parsing.spi.SchedulerEvent;
+import org.netbeans.modules.parsing.spi.SchedulerTask;
+import org.netbeans.modules.parsing.spi.TaskFactory;
+import org.netbeans.modules.parsing.spi.indexing.support.IndexResult;
+import org.netbeans.modules.parsing.spi.indexing.support.QuerySupport;
+import org.netbeans.spi.editor.hints.ErrorDescription;
+import org.netbeans.spi.editor.hints.ErrorDescriptionFactory;
+import org.netbeans.spi.editor.hints.HintsController;
+import org.netbeans.spi.editor.hints.Severity;
+import org.openide.filesystems.FileObject;
+
+/**
+ * Warns about resources declared with the same type and title more than once, in the current file
+ * or elsewhere on the file's source path. Declarations in different branches of the same if/elsif/else
+ * or case are never evaluated together and are not reported, across files only declarations outside
+ * of any conditional are compared.
+ * @author mkleint
+ */
+public class DuplicateDeclarations extends ParserResultTask<PuppetParserResult> {
+
+    private static final String LAYER_DUPLICATES = "puppet-duplicates"; //NOI18N
+    private static final Logger LOG = Logger.getLogger(DuplicateDeclarations.class.getName());
+
+    private final AtomicBoolean cancelled = new AtomicBoolean(false);
+
+    @Override
+    public void run(PuppetParserResult result, SchedulerEvent event) {
+        cancelled.set(false);
+        final Document doc = result.getSnapshot().getSource().getDocument(false);
+        final PElement root = result.getRootNode();
+        if (doc == null || root == null) {
+            return;
+        }
+        Map<String, List<PElement>> declared = new LinkedHashMap<>();
+        for (PResource r : root.getChildrenOfType(PResource.class, true)) {
+            if (cancelled.get()) {
+                return;
+            }
+            for (PElement title : PPIndexer.getResourceTitles(r)) {
+                String ref = PPIndexer.toResourceRef(r.getResourceType(), PPIndexer.getTitleValue(title));
+                List<PElement> titles = declared.get(ref);
+                if (titles == null) {
+                    titles = new ArrayList<>();
+                    declared.put(ref, titles);
+                }
+                titles.add(title);
+            }
+        }
+        Map<String, Set<String>> elsewhere = findDeclaredElsewhere(doc, unconditionalRefs(declared));
+        if (cancelled.get()) {
+            return;
+        }
+        List<ErrorDescription> errors = new ArrayList<>();
+        for (Map.Entry<String, List<PElement>> entry : declared.entrySet()) {
+            if (cancelled.get()) {
+                return;
+            }
+            List<PElement> titles = entry.getValue();
+            Set<String> files = elsewhere.get(entry.getKey());
+            if (titles.size() < 2 && files == null) {
+                continue;
+            }
+            String message = "Duplicate declaration of " + entry.getKey();
+            for (PElement title : titles) {
+                String msg = message;
+                if (files != null && !PPIndexer.isConditional(title)) {
+                    msg = message + ", also declared in " + files;
+                } else if (!hasDuplicate(title, titles)) {
+                    continue;
+                }
+                try {
+                    errors.add(ErrorDescriptionFactory.createErrorDescription(Severity.WARNING, msg, doc,
+                            doc.createPosition(title.getOffset()), doc.createPosition(title.getEndOffset())));
+                } catch (BadLocationException ex) {
+                    //document changed in the meantime, next run will fix it
+                }
+            }
+        }
+        HintsController.setErrors(doc, LAYER_DUPLICATES, errors);
+    }
+
+    /**
+     * @return references with at least one declaration outside of any conditional
+     */
+    private static List<String> unconditionalRefs(Map<String, List<PElement>> declared) {
+        List<String> toRet = new ArrayList<>();
+        for (Map.Entry<String, List<PElement>> entry : declared.entrySet()) {
+            for (PElement title : entry.getValue()) {
+                if (!PPIndexer.isConditional(title)) {
+                    toRet.add(entry.getKey());
+                    break;
+                }
+            }
+        }
+        return toRet;
+    }
+
+    /**
+     * the index only holds declarations outside of conditionals, see {@link PPIndexer#FLD_RESOURCE_REF}
+     * @return reference to the names of the other files on the document's source path declaring it
+     */
+    private Map<String, Set<String>> findDeclaredElsewhere(Document doc, List<String> refs) {
+        Map<String, Set<String>> toRet = new LinkedHashMap<>();
+        if (refs.isEmpty()) {
+            return toRet;
+        }
+        FileObject current = NbEditorUtilities.getFileObject(doc);
+        try {
+            QuerySupport qs = PPIndexerFactory.getQuerySupportFor(doc, false);
+            QuerySupport.Query.Factory qf = qs.getQueryFactory();
+            List<QuerySupport.Query> qq = new ArrayList<>();
+            for (String ref : refs) {
+                qq.add(qf.field(PPIndexer.FLD_RESOURCE_REF, ref, QuerySupport.Kind.EXACT));
+            }
+            for (IndexResult res : qf.or(qq.toArray(new QuerySupport.Query[0])).execute(PPIndexer.FLD_RESOURCE_REF)) {
+                if (cancelled.get()) {
+                    break;
+                }
+                FileObject fo = res.getFile();
+                String[] values = res.getValues(PPIndexer.FLD_RESOURCE_REF);
+                if (fo == null || fo.equals(current) || values == null) {
+                    continue;
+                }
+                for (String value : values) {
+                    if (refs.contains(value)) {
+                        Set<String> files = toRet.get(value);
+                        if (files == null) {
+                            files = new TreeSet<>();
+                            toRet.put(value, files);
+                        }
+                        files.add(fo.getNameExt());
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            LOG.log(Level.FINE, null, ex);
+        }
+        return toRet;
+    }
+
+    private static boolean hasDuplicate(PElement title, List<PElement> titles) {
+        Map<PElement, PElement> branches = getBranches(title);
+        for (PElement other : titles) {
+            if (other != title && !isExclusive(branches, getBranches(other))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isExclusive(Map<PElement, PElement> branches1, Map<PElement, PElement> branches2) {
+        for (Map.Entry<PElement, PElement> e : branches1.entrySet()) {
+            PElement other = branches2.get(e.getKey());
+            if (other != null && other != e.getValue()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the enclosing conditionals mapped to the branch of each that contains the element,
+     *         the consequence, the otherwise part (else or the nested elsif) or a case body
+     */
+    private static Map<PElement, PElement> getBranches(PElement element) {
+        Map<PElement, PElement> toRet = new IdentityHashMap<>();
+        PElement child = element;
+        PElement parent = element.getParent();
+        while (parent != null) {
+            if (parent instanceof PCondition) {
+                PCondition cond = (PCondition) parent;
+                if (child == cond.getConsequence() || child == cond.getOtherwise()) {
+                    toRet.put(parent, child);
+                }
+            } else if (parent instanceof PCase) {
+                if (((PCase) parent).getCases().containsValue(child)) {
+                    toRet.put(parent, child);
+                }
+            }
+            child = parent;
+            parent = parent.getParent();
+        }
+        return toRet;
+    }
+
+    @Override
+    public int getPriority() {
+        return 200;
+    }
+
+    @Override
+    public Class<? extends Scheduler> getSchedulerClass() {
+        return Scheduler.EDITOR_SENSITIVE_TASK_SCHEDULER;
+    }
+
+    @Override
+    public void cancel() {
+        cancelled.set(true);
+    }
+
+    @MimeRegistration(mimeType = PPConstants.MIME_TYPE, service = TaskFactory.class)
+    public static class Factory extends TaskFactory {
+
+        @Override
+        public Collection<? extends SchedulerTask> create(Snapshot snapshot) {
+            return Collections.singleton(new DuplicateDeclarations());
+        }
+    }
+}
@@ -27,7 +27,8 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
-import javax.swing.SwingUtilities;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.swing.text.AttributeSet;
 import javax.swing.text.Document;
 import org.netbeans.api.editor.mimelookup.MimeLookup;
@@ -40,7 +41,6 @@ import org.netbeans.modules.parsing.spi.Scheduler;
 import org.netbeans.modules.parsing.spi.SchedulerEvent;
 import org.netbeans.modules.parsing.spi.SchedulerTask;
 import org.netbeans.modules.parsing.spi.TaskFactory;
-import org.netbeans.spi.editor.highlighting.support.OffsetsBag;
 
 public class SemanticColoring extends ParserResultTask<PuppetParserResult> {
 
@@ -49,6 +49,10 @@ public class SemanticColoring extends ParserResultTask<PuppetParserResult> {
        "require", "schedule", "stage", "subscribe", "tag"
     });
 
+    private static final AtomicLong GENERATION = new AtomicLong();
+
+    private final AtomicBoolean cancelled = new AtomicBoolean(false);
+
     public SemanticColoring() {
         super();
     }
@@ -65,54 +69,110 @@ public class SemanticColoring extends ParserResultTask<PuppetParserResult> {
 
     @Override
     public void cancel() {
-
+        cancelled.set(true);
     }
 
     @Override
-    public void run(PuppetParserResult result, SchedulerEvent event) {
+    public void run(final PuppetParserResult result, SchedulerEvent event) {
+        cancelled.set(false);
+        long generation = GENERATION.incrementAndGet();
         final Document doc = result.getSnapshot().getSource().getDocument(false);
         if (doc == null) {
             return;
         }
         final PElement root = result.getRootNode();
-        final OffsetsBag rootBag = getSemanticHighlightsBag(doc);
-        final FontColorSettings fcs = MimeLookup.getLookup(MimePath.get(PPConstants.MIME_TYPE)).lookup(FontColorSettings.class);
-        if (root != null) {
-            SwingUtilities.invokeLater(new Runnable() {
-                @Override
-                public void run() {
-                    OffsetsBag bag = new OffsetsBag(doc);
-                    AttributeSet functionAttrs = fcs.getTokenFontColors("method-declaration");
-                    for (PFunction function : root.getChildrenOfType(PFunction.class, true)) {
-                        bag.addHighlight(function.getOffset(), function.getOffset() + function.getName().length(), functionAttrs);
-                    }
-                    AttributeSet resAttrs = fcs.getTokenFontColors("resource-name");
-                    for (PResource res : root.getChildrenOfType(PResource.class, true)) {
-                        bag.addHighlight(res.getOffset(), res.getOffset() + res.getResourceType().length(), resAttrs);
-                    }
-                    AttributeSet resAttrAttrs = fcs.getTokenFontColors("resource-parameter");
-                    AttributeSet metaresAttrAttrs = fcs.getTokenFontColors("resource-metaparameter");
-                    for (PResourceAttribute attr : root.getChildrenOfType(PResourceAttribute.class, true)) {
-                        bag.addHighlight(attr.getOffset(), attr.getOffset() + attr.getName().length(), metaparameters.contains(attr.getName()) ? metaresAttrAttrs : resAttrAttrs);
-                    }
-
-                    rootBag.setHighlights(bag);
+        if (root == null) {
+            return;
+        }
+        final SemanticHighlights highlights = getSemanticHighlights(doc);
+        final long[] version = new long[] {-1};
+        doc.render(new Runnable() {
+            @Override
+            public void run() {
+                //a same length edit (overwrite, replaced selection) still shifts the highlights
+                if (result.isSnapshotOf(doc)) {
+                    version[0] = highlights.getVersion();
                 }
-            });
-
+            }
+        });
+        if (version[0] == -1) {
+            //edited since the snapshot was taken, the parse of the edit will follow
+            return;
         }
+        final FontColorSettings fcs = MimeLookup.getLookup(MimePath.get(PPConstants.MIME_TYPE)).lookup(FontColorSettings.class);
+        AttributeSet functionAttrs = fcs.getTokenFontColors("method-declaration");
+        AttributeSet resAttrs = fcs.getTokenFontColors("resource-name");
+        AttributeSet resAttrAttrs = fcs.getTokenFontColors("resource-parameter");
+        AttributeSet metaresAttrAttrs = fcs.getTokenFontColors("resource-metaparameter");
+        List<PFunction> functions = root.getChildrenOfType(PFunction.class, true);
+        List<PResource> resources = root.getChildrenOfType(PResource.class, true);
+        List<PResourceAttribute> attributes = root.getChildrenOfType(PResourceAttribute.class, true);
+        int size = functions.size() + resources.size() + attributes.size();
+        //start offset in the high bits, index into the arrays below in the low bits, sorts by offset
+        long[] order = new long[size];
+        int[] ends = new int[size];
+        AttributeSet[] attrs = new AttributeSet[size];
+        int i = 0;
+        for (PFunction function : functions) {
+            if (cancelled.get()) {
+                return;
+            }
+            order[i] = ((long)function.getOffset() << 32) | i;
+            ends[i] = function.getOffset() + function.getName().length();
+            attrs[i++] = functionAttrs;
+        }
+        for (PResource res : resources) {
+            if (cancelled.get()) {
+                return;
+            }
+            order[i] = ((long)res.getOffset() << 32) | i;
+            ends[i] = res.getOffset() + res.getResourceType().length();
+            attrs[i++] = resAttrs;
+        }
+        for (PResourceAttribute attr : attributes) {
+            if (cancelled.get()) {
+                return;
+            }
+            order[i] = ((long)attr.getOffset() << 32) | i;
+            ends[i] = attr.getOffset() + attr.getName().length();
+            attrs[i++] = metaparameters.contains(attr.getName()) ? metaresAttrAttrs : resAttrAttrs;
+        }
+        Arrays.sort(order);
+        if (cancelled.get()) {
+            //a newer snapshot is coming, don't repaint with this one
+            return;
+        }
+        int[] sortedStarts = new int[size];
+        int[] sortedEnds = new int[size];
+        AttributeSet[] sortedAttrs = new AttributeSet[size];
+        int count = 0;
+        for (long o : order) {
+            int start = (int)(o >>> 32);
+            int index = (int)o;
+            if (count > 0 && start < sortedEnds[count - 1]) {
+                //keep spans disjoint, the first one wins
+                continue;
+            }
+            sortedStarts[count] = start;
+            sortedEnds[count] = ends[index];
+            sortedAttrs[count++] = attrs[index];
+        }
+        highlights.setSpans(new SemanticHighlights.Spans(
+                Arrays.copyOf(sortedStarts, count), Arrays.copyOf(sortedEnds, count), Arrays.copyOf(sortedAttrs, count)), generation, version[0]);
     }
 
     private static final Object SEMANTIC_HIGHLIGHTS = new Object();
 
-    public static OffsetsBag getSemanticHighlightsBag(Document doc) {
-        OffsetsBag bag = (OffsetsBag) doc.getProperty(SEMANTIC_HIGHLIGHTS);
+    public static SemanticHighlights getSemanticHighlights(Document doc) {
+        synchronized (SEMANTIC_HIGHLIGHTS) {
+            SemanticHighlights highlights = (SemanticHighlights) doc.getProperty(SEMANTIC_HIGHLIGHTS);
 
-        if (bag == null) {
-            doc.putProperty(SEMANTIC_HIGHLIGHTS, bag = new OffsetsBag(doc));
-        }
+            if (highlights == null) {
+                doc.putProperty(SEMANTIC_HIGHLIGHTS, highlights = new SemanticHighlights(doc));
+            }
 
-        return bag;
+            return highlights;
+        }
     }
 
     @MimeRegistration(mimeType = PPConstants.MIME_TYPE, service = TaskFactory.class)
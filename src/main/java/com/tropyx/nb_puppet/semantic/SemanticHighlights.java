@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2015 mkleint
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tropyx.nb_puppet.semantic;
+
+import java.util.Arrays;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.Document;
+import org.netbeans.spi.editor.highlighting.HighlightsSequence;
+import org.netbeans.spi.editor.highlighting.support.AbstractHighlightsContainer;
+import org.openide.util.WeakListeners;
+
+/**
+ * semantic highlights of a document as sorted, non overlapping spans. The editor only asks for the
+ * part of the document it paints, so a lookup is a binary search plus the spans in that range.
+ * New spans are swapped in as a whole but only the range that differs is repainted, edits shift
+ * the spans after the edit until the next parse replaces them. Spans computed before an edit
+ * are dropped when installed after it, the parse of the edited text brings new ones.
+ * @author mkleint
+ */
+public final class SemanticHighlights extends AbstractHighlightsContainer implements DocumentListener {
+
+    private volatile Spans spans = new Spans(new int[0], new int[0], new AttributeSet[0]);
+    private long generation;
+    private long version;
+
+    SemanticHighlights(Document doc) {
+        doc.addDocumentListener(WeakListeners.document(this, doc));
+    }
+
+    /**
+     * immutable span arrays, sorted by start offset
+     */
+    static final class Spans {
+        final int[] starts;
+        final int[] ends;
+        final AttributeSet[] attrs;
+
+        Spans(int[] starts, int[] ends, AttributeSet[] attrs) {
+            this.starts = starts;
+            this.ends = ends;
+            this.attrs = attrs;
+        }
+
+        /**
+         * @return index of the first span ending after offset
+         */
+        int indexAfter(int offset) {
+            int index = Arrays.binarySearch(starts, offset);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            //the previous span can reach over the offset
+            if (index > 0 && ends[index - 1] > offset) {
+                index--;
+            }
+            return index;
+        }
+    }
+
+    /**
+     * @return number of edits of the document so far
+     */
+    synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * replaces all spans, fires a change for the range between the first and last difference only
+     * @param newSpans
+     * @param generation increasing with each run, spans of a run older than the current ones are dropped
+     * @param version {@link #getVersion()} of the text the spans were computed from, stale spans are dropped
+     */
+    void setSpans(Spans newSpans, long generation, long version) {
+        Spans old;
+        synchronized (this) {
+            if (generation < this.generation || version != this.version) {
+                return;
+            }
+            this.generation = generation;
+            old = spans;
+            spans = newSpans;
+        }
+        int common = Math.min(old.starts.length, newSpans.starts.length);
+        int first = 0;
+        while (first < common && same(old, first, newSpans, first)) {
+            first++;
+        }
+        if (first == common && old.starts.length == newSpans.starts.length) {
+            return;
+        }
+        int lastOld = old.starts.length - 1;
+        int lastNew = newSpans.starts.length - 1;
+        while (lastOld >= first && lastNew >= first && same(old, lastOld, newSpans, lastNew)) {
+            lastOld--;
+            lastNew--;
+        }
+        int start = Integer.MAX_VALUE;
+        int end = 0;
+        if (lastOld >= first) {
+            start = old.starts[first];
+            end = old.ends[lastOld];
+        }
+        if (lastNew >= first) {
+            start = Math.min(start, newSpans.starts[first]);
+            end = Math.max(end, newSpans.ends[lastNew]);
+        }
+        fireHighlightsChange(start, end);
+    }
+
+    private static boolean same(Spans s1, int i1, Spans s2, int i2) {
+        return s1.starts[i1] == s2.starts[i2] && s1.ends[i1] == s2.ends[i2] && s1.attrs[i1] == s2.attrs[i2];
+    }
+
+    @Override
+    public HighlightsSequence getHighlights(final int startOffset, final int endOffset) {
+        final Spans s = spans;
+        final int first = s.indexAfter(startOffset);
+        return new HighlightsSequence() {
+            private int index = first - 1;
+
+            @Override
+            public boolean moveNext() {
+                index++;
+                return index < s.starts.length && s.starts[index] < endOffset;
+            }
+
+            @Override
+            public int getStartOffset() {
+                return Math.max(s.starts[index], startOffset);
+            }
+
+            @Override
+            public int getEndOffset() {
+                return Math.min(s.ends[index], endOffset);
+            }
+
+            @Override
+            public AttributeSet getAttributes() {
+                return s.attrs[index];
+            }
+        };
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        shift(e.getOffset(), e.getLength());
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        shift(e.getOffset(), -e.getLength());
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+    }
+
+    /**
+     * spans after the edit move with the text, spans touching a removed range shrink,
+     * an insert inside a span grows it
+     */
+    private synchronized void shift(int offset, int delta) {
+        version++;
+        Spans s = spans;
+        int index = s.indexAfter(offset);
+        if (index == s.starts.length) {
+            return;
+        }
+        int[] starts = s.starts.clone();
+        int[] ends = s.ends.clone();
+        int removedEnd = delta < 0 ? offset - delta : offset;
+        for (int i = index; i < starts.length; i++) {
+            starts[i] = move(starts[i], offset, removedEnd, delta);
+            ends[i] = Math.max(starts[i], move(ends[i], offset, removedEnd, delta));
+        }
+        spans = new Spans(starts, ends, s.attrs);
+    }
+
+    private static int move(int pos, int offset, int removedEnd, int delta) {
+        if (delta > 0) {
+            return pos >= offset ? pos + delta : pos;
+        }
+        if (pos >= removedEnd) {
+            return pos + delta;
+        }
+        return pos > offset ? offset : pos;
+    }
+}
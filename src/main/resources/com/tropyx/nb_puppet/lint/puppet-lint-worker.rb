@@ -0,0 +1,36 @@
+# Keeps puppet-lint loaded between checks. Reads one request per line from stdin: the directory to
+# run in, the file relative to it and puppet-lint options, separated by tabs. Writes the problems
+# as --log-format '%{line}||%{kind}||%{check}||%{message}' would and a "\0DONE" line after each file.
+# Errors and warnings go to stderr only, stdout carries nothing but the responses.
+require 'puppet-lint'
+
+# anything puppet-lint or a plugin prints goes to stderr, responses to the real stdout
+RESPONSES = $stdout
+RESPONSES.sync = true
+$stdout = $stderr
+
+STDIN.each_line do |request|
+  dir, path, *options = request.chomp.split("\t")
+  begin
+    PuppetLint.configuration.defaults
+    options.each do |option|
+      if option == '--relative'
+        PuppetLint.configuration.relative = true
+      elsif option =~ /\A--no-(.+)-check\z/
+        PuppetLint.configuration.send("disable_#{$1}")
+      end
+    end
+    Dir.chdir(dir) do
+      linter = PuppetLint.new
+      linter.file = path
+      linter.run
+      linter.problems.each do |problem|
+        next unless [:warning, :error].include?(problem[:kind])
+        RESPONSES.puts "#{problem[:line]}||#{problem[:kind]}||#{problem[:check]}||#{problem[:message]}"
+      end
+    end
+  rescue StandardError, ScriptError => e
+    warn "#{path}: #{e.message}"
+  end
+  RESPONSES.puts "\0DONE"
+end
@@ -0,0 +1,40 @@
+package com.tropyx.nb_puppet.indexer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author mkleint
+ */
+public class BuiltinTypesTest {
+
+    public BuiltinTypesTest() {
+    }
+
+    @Test
+    public void testIndexRoundTrip() throws Exception {
+        List<BuiltinTypes.Type> stubs = BuiltinTypes.readStubs(new File("src/main/puppet42"));
+        assertFalse(stubs.isEmpty());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BuiltinTypes.writeIndex(stubs, out);
+        List<BuiltinTypes.Type> read = BuiltinTypes.readIndex(ByteBuffer.wrap(out.toByteArray()));
+        assertEquals(stubs.size(), read.size());
+        BuiltinTypes.Type file = null;
+        for (BuiltinTypes.Type t : read) {
+            if ("file".equals(t.getName())) {
+                file = t;
+            }
+        }
+        assertNotNull(file);
+        assertEquals("file.pp", file.getFile());
+        assertEquals("path", file.getParams()[0]);
+        assertTrue(file.getDescription("path").startsWith("(namevar)"));
+        assertEquals(file.getParams().length, file.getRequiredParams().length);
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2015 mkleint
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tropyx.nb_puppet.indexer;
+
+import com.tropyx.nb_puppet.parser.PClass;
+import com.tropyx.nb_puppet.parser.PClassParam;
+import com.tropyx.nb_puppet.parser.PElement;
+import com.tropyx.nb_puppet.parser.PuppetParserFactory;
+import com.tropyx.nb_puppet.parser.PuppetParserResult;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import org.netbeans.editor.BaseDocument;
+import org.netbeans.junit.NbTestCase;
+import org.netbeans.modules.parsing.api.ResultIterator;
+import org.netbeans.modules.parsing.api.Snapshot;
+import org.netbeans.modules.parsing.api.Source;
+import org.netbeans.modules.parsing.api.UserTask;
+import org.netbeans.modules.parsing.spi.Parser;
+
+/**
+ *
+ * @author mkleint
+ */
+public class PPIndexerTest extends NbTestCase {
+
+    public PPIndexerTest(String name) {
+        super(name);
+    }
+
+    @Test
+    public void testParamSignatureDefaults() throws Exception {
+        String text = "class aaa ( String $x = 'a', $y = $aaa::params::y,\n  $z = [ 'b',  'c' ], $w ) { }";
+        PuppetParserResult result = doParse(text);
+        List<PClass> classes = result.getRootNode().getChildrenOfType(PClass.class, false);
+        assertEquals(1, classes.size());
+        PClassParam[] params = classes.get(0).getParams();
+        assertEquals(4, params.length);
+        assertEquals(PElement.BLOB, params[0].getDefaultValue().getType());
+        assertEquals("x|String|'a'", PPIndexer.paramSignature(params[0], text));
+        assertEquals("y|Any|$aaa::params::y", PPIndexer.paramSignature(params[1], text));
+        assertEquals("z|Any|[ 'b', 'c' ]", PPIndexer.paramSignature(params[2], text));
+        assertEquals("w|Any|", PPIndexer.paramSignature(params[3], text));
+    }
+
+    private PuppetParserResult doParse(String string) throws Exception {
+        BaseDocument bd = new BaseDocument(false, "text/x-puppet-manifest");
+        bd.insertString(0, string, null);
+
+        Snapshot snap = Source.create(bd).createSnapshot();
+        Parser pp = new PuppetParserFactory().createParser(Collections.<Snapshot>emptyList());
+        UserTask ut = new UserTask() {
+
+            @Override
+            public void run(ResultIterator resultIterator) throws Exception {
+            }
+        };
+        pp.parse(snap, ut, null);
+        return (PuppetParserResult) pp.getResult(ut);
+    }
+
+}
@@ -0,0 +1,51 @@
+package com.tropyx.nb_puppet.indexer;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author mkleint
+ */
+public class SymbolTest {
+
+    public SymbolTest() {
+    }
+
+    @Test
+    public void testIndexValueRoundTrip() {
+        Symbol s = Symbol.fromIndexValue(new Symbol(Symbol.Kind.RESOURCE, "exec[echo a|b]", "profile::base", 42).toIndexValue());
+        assertNotNull(s);
+        assertEquals(Symbol.Kind.RESOURCE, s.getKind());
+        assertEquals("exec[echo a|b]", s.getName());
+        assertEquals("profile::base", s.getContainer());
+        assertEquals(42, s.getOffset());
+        assertEquals("echo a|b", s.getSearchNames().get(1));
+
+        s = Symbol.fromIndexValue(new Symbol(Symbol.Kind.CLASS, "profile::base", "", 6).toIndexValue());
+        assertNotNull(s);
+        assertEquals("", s.getContainer());
+        assertEquals(1, s.getSearchNames().size());
+
+        assertNull(Symbol.fromIndexValue("FOO|1|1|a|"));
+        assertNull(Symbol.fromIndexValue("CLASS|1|5|a|"));
+        assertNull(Symbol.fromIndexValue("CLASS|a"));
+    }
+
+    @Test
+    public void testRegexpNodeContainer() {
+        Symbol s = Symbol.fromIndexValue(new Symbol(Symbol.Kind.RESOURCE, "exec[echo a|b]", "node /web|db/", 42).toIndexValue());
+        assertNotNull(s);
+        assertEquals(Symbol.Kind.RESOURCE, s.getKind());
+        assertEquals("exec[echo a|b]", s.getName());
+        assertEquals("node /web|db/", s.getContainer());
+        assertEquals(42, s.getOffset());
+
+        s = Symbol.fromIndexValue(new Symbol(Symbol.Kind.NODE, "/web|db/", "", 5).toIndexValue());
+        assertNotNull(s);
+        assertEquals("/web|db/", s.getName());
+        assertEquals("", s.getContainer());
+        assertEquals(5, s.getOffset());
+    }
+
+}
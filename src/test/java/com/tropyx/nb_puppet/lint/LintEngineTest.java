@@ -0,0 +1,272 @@
+package com.tropyx.nb_puppet.lint;
+
+import com.tropyx.nb_puppet.lexer.PLangHierarchy;
+import com.tropyx.nb_puppet.lexer.PTokenId;
+import com.tropyx.nb_puppet.parser.PElement;
+import com.tropyx.nb_puppet.parser.PuppetParserFactory;
+import com.tropyx.nb_puppet.parser.PuppetParserResult;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import org.junit.Test;
+import org.netbeans.api.lexer.TokenHierarchy;
+import org.netbeans.api.lexer.TokenSequence;
+import org.netbeans.editor.BaseDocument;
+import org.netbeans.junit.NbTestCase;
+import org.netbeans.modules.parsing.api.ResultIterator;
+import org.netbeans.modules.parsing.api.Snapshot;
+import org.netbeans.modules.parsing.api.Source;
+import org.netbeans.modules.parsing.api.UserTask;
+import org.netbeans.modules.parsing.spi.Parser;
+
+/**
+ *
+ * @author mkleint
+ */
+public class LintEngineTest extends NbTestCase {
+
+    public LintEngineTest(String name) {
+        super(name);
+    }
+
+    @Test
+    public void testTokenChecks() throws Exception {
+        String text = "$a = \"aaa\" \n"
+                + "\t$b = 'b'\n";
+        List<LintCheck> checks = new ArrayList<>();
+        for (LintEngine.Problem p : check(text)) {
+            checks.add(p.getCheck());
+        }
+        assertTrue(checks.contains(LintCheck.DOUBLE_QUOTED_STRINGS));
+        assertTrue(checks.contains(LintCheck.TRAILING_WHITESPACE));
+        assertTrue(checks.contains(LintCheck.HARD_TABS));
+    }
+
+    @Test
+    public void testTrailingWhitespace() throws Exception {
+        String text = "$a = 'aaa' \n";
+        List<LintEngine.Problem> problems = check(text);
+        assertEquals(1, problems.size());
+        assertEquals(LintCheck.TRAILING_WHITESPACE, problems.get(0).getCheck());
+        assertEquals(10, problems.get(0).getStartOffset());
+        assertEquals("trailing_whitespace", problems.get(0).getCheck().getCheckName());
+    }
+
+    @Test
+    public void testRecheckChangedLine() throws Exception {
+        String before = "$a = 'aaa' \n"
+                + "$b = \"bbb\"\n"
+                + "$c = 'ccc'\t\n";
+        String after = "$a = 'aaa' \n"
+                + "$b = 'bbb'\n"
+                + "$c = 'ccc'\t\n";
+        int start = before.indexOf('"');
+        List<LintEngine.Problem> rechecked = LintEngine.recheck(after, tokens(after), null, enabled(), null, false,
+                check(before), start, start + 5, start + 5, NOT_CANCELLED);
+        List<LintEngine.Problem> full = check(after);
+        assertEquals(full.size(), rechecked.size());
+        for (int i = 0; i < full.size(); i++) {
+            assertEquals(full.get(i).getCheck(), rechecked.get(i).getCheck());
+            assertEquals(full.get(i).getStartOffset(), rechecked.get(i).getStartOffset());
+        }
+    }
+
+    @Test
+    public void testRecheckClassBody() throws Exception {
+        String before = "class foo {\n"
+                + "  $list = [1, 2]\n"
+                + "  $list.each |$i| {\n"
+                + "    notice($i)\n"
+                + "  }\n"
+                + "}\n"
+                + "class bar {\n"
+                + "  $x = 'a'\n"
+                + "  $y = $i\n"
+                + "}\n";
+        String after = before.replace("'a'", "'b'");
+        int start = before.indexOf("'a'") + 1;
+        List<LintEngine.Problem> full = assertRecheck(before, after, start, start + 1, start + 1);
+        //lambda parameters are collected from the whole file in both
+        assertEquals(Collections.emptyList(), lines(after, full, "variable_scope"));
+    }
+
+    @Test
+    public void testRecheckResourceBody() throws Exception {
+        String before = "class foo {\n"
+                + "  file { '/tmp/a':\n"
+                + "    ensure => file,\n"
+                + "    mode   => '0644',\n"
+                + "  }\n"
+                + "}\n";
+        String after = before.replace("mode   =>", "mode =>");
+        int start = before.indexOf("mode   =>") + "mode ".length();
+        List<LintEngine.Problem> full = assertRecheck(before, after, start, start + 2, start);
+        assertEquals(Arrays.asList(4), lines(after, full, "arrow_alignment"));
+    }
+
+    /**
+     * @return problems of a full check of after, asserted to be the same as the recheck ones
+     */
+    private List<LintEngine.Problem> assertRecheck(String before, String after, int changeStart, int oldChangeEnd, int newChangeEnd) throws Exception {
+        List<LintEngine.Problem> rechecked = LintEngine.recheck(after, tokens(after), parse(after), enabled(), null, false,
+                checkParsed(before, null), changeStart, oldChangeEnd, newChangeEnd, NOT_CANCELLED);
+        List<LintEngine.Problem> full = checkParsed(after, null);
+        assertEquals(describe(full), describe(rechecked));
+        return full;
+    }
+
+    private static List<String> describe(List<LintEngine.Problem> problems) {
+        List<String> toRet = new ArrayList<>();
+        for (LintEngine.Problem p : problems) {
+            toRet.add(p.getCheck().getCheckName() + ":" + p.getStartOffset() + "-" + p.getEndOffset());
+        }
+        return toRet;
+    }
+
+    //expected lines are the ones puppet-lint reports for the same manifests
+
+    @Test
+    public void testParameterOrder() throws Exception {
+        String text = "class foo (\n"
+                + "  $a = 'a',\n"
+                + "  $b,\n"
+                + ") {\n"
+                + "}\n";
+        assertEquals(Arrays.asList(3), lines(text, checkParsed(text, null), "parameter_order"));
+    }
+
+    @Test
+    public void testAutoloaderLayout() throws Exception {
+        String text = "class foo::bar {\n"
+                + "}\n";
+        assertEquals(Arrays.asList(1), lines(text, checkParsed(text, "/src/modules/foo/manifests/init.pp"), "autoloader_layout"));
+        assertEquals(Collections.emptyList(), lines(text, checkParsed(text, "/src/modules/foo/manifests/bar.pp"), "autoloader_layout"));
+    }
+
+    @Test
+    public void testVariableScope() throws Exception {
+        String text = "class foo {\n"
+                + "  $bar = 'x'\n"
+                + "  $a = $bar\n"
+                + "  $b = $baz\n"
+                + "  $c = $::osfamily\n"
+                + "}\n";
+        assertEquals(Arrays.asList(4), lines(text, checkParsed(text, null), "variable_scope"));
+    }
+
+    @Test
+    public void testArrowAlignment() throws Exception {
+        String text = "class foo {\n"
+                + "  file { '/tmp/a':\n"
+                + "    ensure => file,\n"
+                + "    mode => '0644',\n"
+                + "  }\n"
+                + "  file { '/tmp/b':\n"
+                + "    ensure => file,\n"
+                + "    mode   => '0644',\n"
+                + "  }\n"
+                + "}\n";
+        assertEquals(Arrays.asList(4), lines(text, checkParsed(text, null), "arrow_alignment"));
+    }
+
+    @Test
+    public void testCaseWithoutDefault() throws Exception {
+        String text = "class foo {\n"
+                + "  case $::osfamily {\n"
+                + "    'RedHat': { $a = 'b' }\n"
+                + "  }\n"
+                + "  case $::osfamily {\n"
+                + "    'RedHat': { $c = 'b' }\n"
+                + "    default: { $c = 'd' }\n"
+                + "  }\n"
+                + "}\n";
+        assertEquals(Arrays.asList(2), lines(text, checkParsed(text, null), "case_without_default"));
+    }
+
+    @Test
+    public void testNestedClasses() throws Exception {
+        String text = "class foo {\n"
+                + "  class bar {\n"
+                + "  }\n"
+                + "}\n";
+        assertEquals(Arrays.asList(2), lines(text, checkParsed(text, null), "nested_classes_or_defines"));
+    }
+
+    @Test
+    public void testFileMode() throws Exception {
+        String text = "class foo {\n"
+                + "  file { '/tmp/a':\n"
+                + "    mode => '644',\n"
+                + "  }\n"
+                + "  file { '/tmp/b':\n"
+                + "    mode => 'u=rw,go=r',\n"
+                + "  }\n"
+                + "  file { '/tmp/c':\n"
+                + "    mode => '0644',\n"
+                + "  }\n"
+                + "}\n";
+        assertEquals(Arrays.asList(3), lines(text, checkParsed(text, null), "file_mode"));
+    }
+
+    private static final LintEngine.Cancel NOT_CANCELLED = new LintEngine.Cancel() {
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+    };
+
+    private List<LintEngine.Problem> check(String text) {
+        return LintEngine.check(text, tokens(text), null, enabled(), null, false, NOT_CANCELLED);
+    }
+
+    private List<LintEngine.Problem> checkParsed(String text, String path) throws Exception {
+        return LintEngine.check(text, tokens(text), parse(text), enabled(), path, false, NOT_CANCELLED);
+    }
+
+    private PElement parse(String text) throws Exception {
+        BaseDocument bd = new BaseDocument(false, "text/x-puppet-manifest");
+        bd.insertString(0, text, null);
+        Snapshot snap = Source.create(bd).createSnapshot();
+        Parser pp = new PuppetParserFactory().createParser(Collections.<Snapshot>emptyList());
+        UserTask ut = new UserTask() {
+
+            @Override
+            public void run(ResultIterator resultIterator) throws Exception {
+            }
+        };
+        pp.parse(snap, ut, null);
+        return ((PuppetParserResult) pp.getResult(ut)).getRootNode();
+    }
+
+    /**
+     * @return 1 based lines of the problems of the check, as puppet-lint reports them
+     */
+    private static List<Integer> lines(String text, List<LintEngine.Problem> problems, String checkName) {
+        List<Integer> toRet = new ArrayList<>();
+        for (LintEngine.Problem p : problems) {
+            if (checkName.equals(p.getCheck().getCheckName())) {
+                int line = 1;
+                for (int i = 0; i < p.getStartOffset(); i++) {
+                    if (text.charAt(i) == '\n') {
+                        line++;
+                    }
+                }
+                toRet.add(line);
+            }
+        }
+        return toRet;
+    }
+
+    private TokenSequence<PTokenId> tokens(String text) {
+        TokenHierarchy<String> th = TokenHierarchy.create(text, new PLangHierarchy().language());
+        return th.tokenSequence(new PLangHierarchy().language());
+    }
+
+    private EnumSet<LintCheck> enabled() {
+        EnumSet<LintCheck> enabled = EnumSet.allOf(LintCheck.class);
+        enabled.remove(LintCheck.DOCUMENTATION);
+        return enabled;
+    }
+}
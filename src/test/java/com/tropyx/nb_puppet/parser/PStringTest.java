@@ -24,5 +24,18 @@ public class PStringTest {
         assertEquals(17, ch.get(1).getOffset());
     }
 
+    @Test
+    public void testVariablesWithoutBraces() {
+        PString v = new PString(null, 0, "\"aaa${bbb}/$ddd::eee.fff \\$ggg $::hhh\"");
+        List<PVariable> ch = v.getChildrenOfType(PVariable.class, true);
+        assertEquals(3, ch.size());
+        assertEquals("$bbb", ch.get(0).getName());
+        assertEquals(5, ch.get(0).getOffset());
+        assertEquals("$ddd::eee", ch.get(1).getName());
+        assertEquals(11, ch.get(1).getOffset());
+        assertEquals("$::hhh", ch.get(2).getName());
+        assertEquals(31, ch.get(2).getOffset());
+    }
+
 
 }